@@ -32,6 +32,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -42,6 +43,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -50,20 +57,27 @@ import javax.xml.xpath.XPathFactory;
 
 import org.w3c.dom.Document;
 
+import io.github.lukehutch.fastclasspathscanner.classfileparser.AnnotationInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.FieldInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.MethodInfo;
 import io.github.lukehutch.fastclasspathscanner.classgraph.ClassGraphBuilder;
 import io.github.lukehutch.fastclasspathscanner.classpath.ClassLoaderHandler;
 import io.github.lukehutch.fastclasspathscanner.classpath.ClasspathFinder;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClassAnnotationMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClassMatchProcessor;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClasspathChangeListener;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchContentsBufferProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchContentsProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchContentsProcessorWithContext;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchProcessorWithContext;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.InterfaceMatchProcessor;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ParsedClassProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.StaticFinalFieldMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.SubclassMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.SubinterfaceMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.scanner.RecursiveScanner;
+import io.github.lukehutch.fastclasspathscanner.scanner.RecursiveScanner.FileMatchBufferProcessorWrapper;
 import io.github.lukehutch.fastclasspathscanner.scanner.RecursiveScanner.FileMatchProcessorWrapper;
 import io.github.lukehutch.fastclasspathscanner.scanner.RecursiveScanner.FilePathTester;
 import io.github.lukehutch.fastclasspathscanner.scanner.ScanSpec;
@@ -272,6 +286,228 @@ public class FastClasspathScanner {
         return this;
     }
 
+    /**
+     * If parseOnlyRequiredFacts is true, the classfile parser only reads the parts of each classfile that are
+     * needed by the matchers that have been added to the scanner: class annotations are only read if a
+     * matchClassesWithAnnotation() matcher has been added, field types are only read if a
+     * matchClassesWithFieldOfType() matcher has been added, and the fields of a class are only read if they are
+     * needed to match static final fields. Reading of each classfile stops as soon as all of the required parts
+     * have been read -- e.g. if only subclass and interface matchers have been added, each classfile is only read
+     * as far as its list of implemented interfaces. This can significantly speed up scanning.
+     * 
+     * If parseOnlyRequiredFacts is true, then calling getNamesOfClassesWithAnnotation() etc. will throw
+     * IllegalArgumentException unless the annotations were read, and calling getNamesOfClassesWithFieldOfType()
+     * will throw IllegalArgumentException unless the field types were read. Any ParsedClassProcessor will only be
+     * passed the facts that were read. By default, parseOnlyRequiredFacts is false, and all facts are read.
+     */
+    public synchronized FastClasspathScanner parseOnlyRequiredFacts(final boolean parseOnlyRequiredFacts) {
+        getScanSpec().parseOnlyRequiredFacts = parseOnlyRequiredFacts;
+        return this;
+    }
+
+    /**
+     * Causes the classfile parser to only read the parts of each classfile that are needed by the matchers that
+     * have been added to the scanner. See parseOnlyRequiredFacts(boolean) for details.
+     */
+    public FastClasspathScanner parseOnlyRequiredFacts() {
+        parseOnlyRequiredFacts(true);
+        return this;
+    }
+
+    /**
+     * If enableMethodInfo is true, the classfile parser reads the name, type descriptor, access flags and
+     * runtime-visible annotations of each method, and an index from annotations to annotated methods is built
+     * after the scan, so that getMethodsWithAnnotation() and getNamesOfClassesWithMethodAnnotation() can be called
+     * without loading any classes. By default, enableMethodInfo is false, and the methods of each class are
+     * skipped (calling matchClassesWithMethodAnnotation() sets enableMethodInfo to true). Enabling method info
+     * also causes class annotations to be read if parseOnlyRequiredFacts is true, since they are needed to find
+     * the methods that have a meta-annotated annotation.
+     */
+    public synchronized FastClasspathScanner enableMethodInfo(final boolean enableMethodInfo) {
+        getScanSpec().enableMethodInfo = enableMethodInfo;
+        if (enableMethodInfo) {
+            getScanSpec().requireClassAnnotations = true;
+        }
+        return this;
+    }
+
+    /**
+     * Causes the classfile parser to read the name, type descriptor, access flags and annotations of each method.
+     * See enableMethodInfo(boolean) for details.
+     */
+    public FastClasspathScanner enableMethodInfo() {
+        enableMethodInfo(true);
+        return this;
+    }
+
+    /**
+     * If enableFieldInfo is true, the classfile parser reads the name, type descriptor, access flags and
+     * runtime-visible annotations of each field (whatever its visibility), and an index from annotations to
+     * annotated fields is built after the scan, so that getFieldsWithAnnotation() and
+     * getNamesOfClassesWithFieldAnnotation() can be called without loading any classes. By default,
+     * enableFieldInfo is false, and field annotations are skipped (calling matchClassesWithFieldAnnotation() sets
+     * enableFieldInfo to true). Enabling field info also causes class annotations to be read if
+     * parseOnlyRequiredFacts is true, since they are needed to find the fields that have a meta-annotated
+     * annotation.
+     */
+    public synchronized FastClasspathScanner enableFieldInfo(final boolean enableFieldInfo) {
+        getScanSpec().enableFieldInfo = enableFieldInfo;
+        if (enableFieldInfo) {
+            getScanSpec().requireClassAnnotations = true;
+        }
+        return this;
+    }
+
+    /**
+     * Causes the classfile parser to read the name, type descriptor, access flags and annotations of each field.
+     * See enableFieldInfo(boolean) for details.
+     */
+    public FastClasspathScanner enableFieldInfo() {
+        enableFieldInfo(true);
+        return this;
+    }
+
+    /**
+     * If enableAnnotationInfo is true, the raw bytes of each annotation that is read are kept, so that the
+     * parameter values of annotations (e.g. the "/x" in {@code @Path("/x")}) can be read after the scan without
+     * loading any classes, by calling getAnnotationInfoOnClass(), or from the annotationInfo lists of the
+     * MethodInfo and FieldInfo objects returned by getMethodsWithAnnotation() and getFieldsWithAnnotation().
+     * Parameter values are only decoded when they are asked for. By default, enableAnnotationInfo is false, and
+     * annotation parameter values are skipped.
+     */
+    public synchronized FastClasspathScanner enableAnnotationInfo(final boolean enableAnnotationInfo) {
+        getScanSpec().enableAnnotationInfo = enableAnnotationInfo;
+        return this;
+    }
+
+    /**
+     * Causes the parameter values of annotations to be kept, so that they can be decoded on demand. See
+     * enableAnnotationInfo(boolean) for details.
+     */
+    public FastClasspathScanner enableAnnotationInfo() {
+        enableAnnotationInfo(true);
+        return this;
+    }
+
+    /**
+     * If memoryMapJars is true (the default), jarfiles are memory-mapped, and their central directory and entries
+     * are read directly from the mapped file, which is much faster than using java.util.zip.ZipFile. Jarfiles that
+     * cannot be read this way (e.g. Zip64 files) are read using ZipFile instead. If false, jarfiles are always read
+     * using ZipFile.
+     * 
+     * Note that on Windows, a jarfile cannot be deleted or replaced while it is mapped, and the mapping is only
+     * released once it is garbage collected, so it may be necessary to disable memory mapping if jarfiles on the
+     * classpath are rewritten while the application is running.
+     */
+    public FastClasspathScanner memoryMapJars(final boolean memoryMapJars) {
+        getScanSpec().memoryMapJars = memoryMapJars;
+        return this;
+    }
+
+    /**
+     * If nioDirectoryTraversal is true (the default), directories on the classpath are listed using java.nio.file,
+     * and the type, size and last modified time of each directory entry are read together in a single filesystem
+     * call, which is significantly faster on network filesystems. If false, directories are listed using
+     * java.io.File, which makes a separate filesystem call for each attribute.
+     */
+    public FastClasspathScanner nioDirectoryTraversal(final boolean nioDirectoryTraversal) {
+        getScanSpec().nioDirectoryTraversal = nioDirectoryTraversal;
+        return this;
+    }
+
+    /**
+     * Cache the results of parsing the classfiles in each jarfile in the given directory, so that on subsequent
+     * scans (including in later runs of the JVM), classfiles in jarfiles that have not changed do not need to be
+     * decompressed and parsed again. A jarfile is considered unchanged if its canonical path, size and last
+     * modified time are the same. Cache files are also ignored if the blacklist, field visibility setting or
+     * static final fields to match have changed. Classfiles in directories are not cached. The directory is
+     * created if it does not exist. Pass null to disable the cache (the default).
+     */
+    public FastClasspathScanner scanCacheDir(final File scanCacheDir) {
+        getScanSpec().scanCacheDir = scanCacheDir;
+        return this;
+    }
+
+    /**
+     * If useScanIndexes is true (the default), jarfiles that contain a scan index (built at build time by running
+     * ScanIndex over the classes directory of the module before packaging it) have their class relationships read
+     * from the index, rather than decompressing and parsing their classfiles. Classfiles that have changed since
+     * the index was built, and classes with static final fields to match, are still parsed. Setting this to false
+     * causes scan indexes to be ignored.
+     */
+    public FastClasspathScanner useScanIndexes(final boolean useScanIndexes) {
+        getScanSpec().useScanIndexes = useScanIndexes;
+        return this;
+    }
+
+    /**
+     * Watch the whitelisted directories and the jarfiles found by each scan for changes, using a WatchService
+     * registered while the classpath is being scanned. classpathContentsModifiedSinceScan() then returns whether a
+     * change has been reported since the last scan (or since it was last called) in constant time, rather than
+     * walking the classpath to check timestamps. Depending on the platform, there may be a delay of up to several
+     * seconds before a change is reported.
+     */
+    public synchronized FastClasspathScanner watchClasspath() {
+        getScanSpec().watchClasspath = true;
+        return this;
+    }
+
+    /**
+     * Watch the classpath for changes, as with watchClasspath(), and call the given ClasspathChangeListener with the
+     * path of each whitelisted file or directory that is created, modified or deleted after each scan. The listener
+     * is called on a daemon thread owned by the scanner.
+     */
+    public synchronized FastClasspathScanner watchClasspath(final ClasspathChangeListener classpathChangeListener) {
+        watchClasspath();
+        getRecursiveScanner().addClasspathChangeListener(classpathChangeListener);
+        return this;
+    }
+
+    /**
+     * Stop watching the classpath for changes, until the next call to scan(). Has no effect if watchClasspath() has
+     * not been called.
+     */
+    public synchronized void stopWatchingClasspath() {
+        getRecursiveScanner().stopWatchingClasspath();
+    }
+
+    /**
+     * Set the number of threads used to parse classfiles and walk classpath directories in parallel. If numThreads
+     * is 0 (the default), the number of threads is chosen automatically: the scan starts with one parser thread per
+     * available processor, and threads are added or retired during the scan depending on the measured ratio of
+     * time spent waiting for I/O to time spent parsing classfiles.
+     */
+    public FastClasspathScanner parallelism(final int numThreads) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("numThreads cannot be negative");
+        }
+        getScanSpec().numThreads = numThreads;
+        return this;
+    }
+
+    /**
+     * Call FileMatchProcessors on the given number of worker threads, rather than on the thread that merges the
+     * results of the scan, so that a slow FileMatchProcessor (e.g. one that parses each matching file) does not
+     * stall the scan. The number of matching files waiting to be processed is bounded, so the scan waits for the
+     * worker threads if they fall too far behind. All FileMatchProcessors have finished by the time scan()
+     * returns. If numThreads is 0 (the default), FileMatchProcessors are called on the scanning thread.
+     * 
+     * @param numThreads
+     *            the number of worker threads to call FileMatchProcessors on.
+     * @param ordered
+     *            if true, each FileMatchProcessor is called for one file at a time, in classpath order (although
+     *            different FileMatchProcessors may run concurrently). If false, a FileMatchProcessor may be called
+     *            concurrently for different files, in any order, so it must be thread-safe.
+     */
+    public FastClasspathScanner parallelFileMatching(final int numThreads, final boolean ordered) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("numThreads cannot be negative");
+        }
+        getScanSpec().numFileMatchThreads = numThreads;
+        getScanSpec().orderedFileMatches = ordered;
+        return this;
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     /**
@@ -304,6 +540,71 @@ public class FastClasspathScanner {
         }
     }
 
+    /**
+     * Returns the facts that were read by the classfile parser during the last scan, or throws RuntimeException if
+     * .scan() has not yet been called. (The scanner's settings may have been changed since the scan.)
+     */
+    private synchronized ScanSpec.ParsedFacts getParsedFacts() {
+        // Verify scan() has been run at least once, else throw an exception
+        getScanResults();
+        return getRecursiveScanner().getParsedFacts();
+    }
+
+    /**
+     * Checks that class annotations were read by the classfile parser. Throws IllegalArgumentException otherwise
+     * (they are not read if parseOnlyRequiredFacts() was called and no annotation matcher was added).
+     */
+    private synchronized void checkClassAnnotationsParsed() {
+        if (!getParsedFacts().classAnnotations) {
+            throw new IllegalArgumentException("Class annotations were not read, because parseOnlyRequiredFacts() "
+                    + "was called, and no matchClassesWithAnnotation() matcher was added before the scan");
+        }
+    }
+
+    /**
+     * Checks that field types were read by the classfile parser. Throws IllegalArgumentException otherwise (they
+     * are not read if parseOnlyRequiredFacts() was called and no field type matcher was added).
+     */
+    private synchronized void checkFieldTypesParsed() {
+        if (!getParsedFacts().fieldTypes) {
+            throw new IllegalArgumentException("Field types were not read, because parseOnlyRequiredFacts() was "
+                    + "called, and no matchClassesWithFieldOfType() matcher was added before the scan");
+        }
+    }
+
+    /**
+     * Checks that method info was read by the classfile parser. Throws IllegalArgumentException otherwise (it is
+     * not read unless enableMethodInfo() was called or a method annotation matcher was added).
+     */
+    private synchronized void checkMethodInfoParsed() {
+        if (!getParsedFacts().methodInfo) {
+            throw new IllegalArgumentException("Method info was not read, because enableMethodInfo() was not "
+                    + "called, and no matchClassesWithMethodAnnotation() matcher was added before the scan");
+        }
+    }
+
+    /**
+     * Checks that annotation parameter values were kept by the classfile parser. Throws IllegalArgumentException
+     * otherwise (they are not kept unless enableAnnotationInfo() was called).
+     */
+    private synchronized void checkAnnotationInfoParsed() {
+        if (!getParsedFacts().annotationInfo) {
+            throw new IllegalArgumentException(
+                    "Annotation info was not read, because enableAnnotationInfo() was not called before the scan");
+        }
+    }
+
+    /**
+     * Checks that field info was read by the classfile parser. Throws IllegalArgumentException otherwise (it is not
+     * read unless enableFieldInfo() was called or a field annotation matcher was added).
+     */
+    private synchronized void checkFieldInfoParsed() {
+        if (!getParsedFacts().fieldInfo) {
+            throw new IllegalArgumentException("Field info was not read, because enableFieldInfo() was not "
+                    + "called, and no matchClassesWithFieldAnnotation() matcher was added before the scan");
+        }
+    }
+
     /**
      * Check a class is an annotation, and that it is in a whitelisted package. Throws IllegalArgumentException
      * otherwise. Returns the name of the annotation.
@@ -428,6 +729,22 @@ public class FastClasspathScanner {
         return getScanResults().getNamesOfAllAnnotationClasses();
     }
 
+    /**
+     * Calls the provided ParsedClassProcessor for each class, interface and annotation found in whitelisted
+     * packages on the classpath, as soon as it has been read, while the rest of the classpath is still being
+     * scanned. The ParsedClassProcessor is given the names of the superclass, implemented interfaces and class
+     * annotations of the class, as read from the classfile, and is called from the threads used to scan the
+     * classpath, in no particular order. (ClassMatchProcessors are only called after the class graph has been
+     * built, once the scan is complete.) The class is not loaded.
+     * 
+     * @param parsedClassProcessor
+     *            the ParsedClassProcessor to call for each class.
+     */
+    public synchronized FastClasspathScanner processParsedClasses(final ParsedClassProcessor parsedClassProcessor) {
+        getRecursiveScanner().addParsedClassProcessor(parsedClassProcessor);
+        return this;
+    }
+
     /**
      * Calls the provided ClassMatchProcessor for all standard classes, interfaces and annotations found in
      * whitelisted packages on the classpath. Calls the class loader on each matching class (using Class.forName())
@@ -829,6 +1146,7 @@ public class FastClasspathScanner {
      */
     public synchronized <T> FastClasspathScanner matchClassesWithFieldOfType(final Class<T> fieldType,
             final ClassMatchProcessor classMatchProcessor) {
+        getScanSpec().requireFieldTypes = true;
         classMatchers.add(new ClassMatcher() {
             @Override
             public void lookForMatches() {
@@ -854,6 +1172,7 @@ public class FastClasspathScanner {
      * whitelisted (and not blacklisted).
      */
     public synchronized List<String> getNamesOfClassesWithFieldOfType(final String fieldTypeName) {
+        checkFieldTypesParsed();
         return getScanResults().getNamesOfClassesWithFieldOfType(fieldTypeName);
     }
 
@@ -866,6 +1185,7 @@ public class FastClasspathScanner {
     public synchronized List<String> getNamesOfClassesWithFieldOfType(final Class<?> fieldType) {
         final String fieldTypeName = fieldType.getName();
         checkClassNameIsNotBlacklisted(fieldTypeName);
+        checkFieldTypesParsed();
         return getScanResults().getNamesOfClassesWithFieldOfType(fieldTypeName);
     }
 
@@ -882,6 +1202,7 @@ public class FastClasspathScanner {
      */
     public synchronized FastClasspathScanner matchClassesWithAnnotation(final Class<?> annotation,
             final ClassAnnotationMatchProcessor classAnnotationMatchProcessor) {
+        getScanSpec().requireClassAnnotations = true;
         classMatchers.add(new ClassMatcher() {
             @Override
             public void lookForMatches() {
@@ -923,6 +1244,7 @@ public class FastClasspathScanner {
      * @return A list of the names of classes that have the named annotation, or the empty list if none.
      */
     public synchronized List<String> getNamesOfClassesWithAnnotation(final String annotationName) {
+        checkClassAnnotationsParsed();
         return getScanResults().getNamesOfClassesWithAnnotation(annotationName);
     }
 
@@ -1017,6 +1339,7 @@ public class FastClasspathScanner {
      *         empty list if none.
      */
     public synchronized List<String> getNamesOfAnnotationsWithMetaAnnotation(final String metaAnnotationName) {
+        checkClassAnnotationsParsed();
         return getScanResults().getNamesOfAnnotationsWithMetaAnnotation(metaAnnotationName);
     }
 
@@ -1039,6 +1362,7 @@ public class FastClasspathScanner {
      * @return A list of the names of annotations and meta-annotations on the class, or the empty list if none.
      */
     public synchronized List<String> getNamesOfAnnotationsOnClass(final String classOrInterfaceName) {
+        checkClassAnnotationsParsed();
         return getScanResults().getNamesOfAnnotationsOnClass(classOrInterfaceName);
     }
 
@@ -1061,9 +1385,218 @@ public class FastClasspathScanner {
      * @return A list of the names of meta-annotations on the specified annotation, or the empty list if none.
      */
     public synchronized List<String> getNamesOfMetaAnnotationsOnAnnotation(final String annotationName) {
+        checkClassAnnotationsParsed();
         return getScanResults().getNamesOfMetaAnnotationsOnAnnotation(annotationName);
     }
 
+    /**
+     * Return the annotations on the specified class or interface, with their parameter values, which are decoded
+     * on demand. Requires annotation info to have been read (see enableAnnotationInfo()). Unlike
+     * getNamesOfAnnotationsOnClass(), does not return meta-annotations.
+     * 
+     * @param classOrInterface
+     *            The class or interface.
+     * @return A list of the annotations on the class, or the empty list if none.
+     */
+    public synchronized List<AnnotationInfo> getAnnotationInfoOnClass(final Class<?> classOrInterface) {
+        return getAnnotationInfoOnClass(classOrInterfaceName(classOrInterface));
+    }
+
+    /**
+     * Return the annotations on the specified class or interface, with their parameter values, which are decoded
+     * on demand. Requires annotation info to have been read (see enableAnnotationInfo()). Unlike
+     * getNamesOfAnnotationsOnClass(), does not return meta-annotations.
+     * 
+     * @param classOrInterfaceName
+     *            The name of the class or interface.
+     * @return A list of the annotations on the class, or the empty list if none.
+     */
+    public synchronized List<AnnotationInfo> getAnnotationInfoOnClass(final String classOrInterfaceName) {
+        checkClassAnnotationsParsed();
+        checkAnnotationInfoParsed();
+        return getScanResults().getAnnotationInfoOnClass(classOrInterfaceName);
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the provided ClassAnnotationMatchProcessor if classes are found on the classpath that have a method
+     * with the specified annotation or meta-annotation. Causes method info to be read during the scan.
+     * 
+     * @param annotation
+     *            The method annotation to match.
+     * @param classAnnotationMatchProcessor
+     *            the ClassAnnotationMatchProcessor to call with each class that has a matching method.
+     */
+    public synchronized FastClasspathScanner matchClassesWithMethodAnnotation(final Class<?> annotation,
+            final ClassAnnotationMatchProcessor classAnnotationMatchProcessor) {
+        getScanSpec().enableMethodInfo = true;
+        // Class annotations are needed to find the annotations that are meta-annotated with the annotation
+        getScanSpec().requireClassAnnotations = true;
+        classMatchers.add(new ClassMatcher() {
+            @Override
+            public void lookForMatches() {
+                final String annotationName = annotationName(annotation);
+                for (final String classWithMethodAnnotation : getNamesOfClassesWithMethodAnnotation(
+                        annotationName)) {
+                    if (verbose) {
+                        Log.log(3, "Matched class with method annotation " + annotationName + ": "
+                                + classWithMethodAnnotation);
+                    }
+                    // Call classloader
+                    final Class<?> cls = loadClass(classWithMethodAnnotation);
+                    // Process match
+                    classAnnotationMatchProcessor.processMatch(cls);
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Returns the methods that have the specified annotation or meta-annotation, sorted by class name, method name
+     * and type descriptor. Should be called after scan(), and requires method info to have been read (see
+     * enableMethodInfo()). Does not call the classloader.
+     * 
+     * @param annotation
+     *            The method annotation.
+     * @return A list of the methods with the annotation, or the empty list if none.
+     */
+    public synchronized List<MethodInfo> getMethodsWithAnnotation(final Class<?> annotation) {
+        return getMethodsWithAnnotation(annotationName(annotation));
+    }
+
+    /**
+     * Returns the methods that have the specified annotation or meta-annotation, sorted by class name, method name
+     * and type descriptor. Should be called after scan(), and requires method info to have been read (see
+     * enableMethodInfo()). Does not call the classloader.
+     * 
+     * @param annotationName
+     *            The name of the method annotation.
+     * @return A list of the methods with the named annotation, or the empty list if none.
+     */
+    public synchronized List<MethodInfo> getMethodsWithAnnotation(final String annotationName) {
+        checkMethodInfoParsed();
+        return getScanResults().getMethodsWithAnnotation(annotationName);
+    }
+
+    /**
+     * Returns the names of classes on the classpath that have a method with the specified annotation or
+     * meta-annotation. Should be called after scan(), and requires method info to have been read (see
+     * enableMethodInfo()). Does not call the classloader on the matching classes, just returns their names.
+     * 
+     * @param annotation
+     *            The method annotation.
+     * @return A list of the names of classes with a method with the annotation, or the empty list if none.
+     */
+    public synchronized List<String> getNamesOfClassesWithMethodAnnotation(final Class<?> annotation) {
+        return getNamesOfClassesWithMethodAnnotation(annotationName(annotation));
+    }
+
+    /**
+     * Returns the names of classes on the classpath that have a method with the specified annotation or
+     * meta-annotation. Should be called after scan(), and requires method info to have been read (see
+     * enableMethodInfo()). Does not call the classloader on the matching classes, just returns their names.
+     * 
+     * @param annotationName
+     *            The name of the method annotation.
+     * @return A list of the names of classes with a method with the named annotation, or the empty list if none.
+     */
+    public synchronized List<String> getNamesOfClassesWithMethodAnnotation(final String annotationName) {
+        checkMethodInfoParsed();
+        return getScanResults().getNamesOfClassesWithMethodAnnotation(annotationName);
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Calls the provided ClassAnnotationMatchProcessor if classes are found on the classpath that have a field with
+     * the specified annotation or meta-annotation. Causes field info to be read during the scan.
+     * 
+     * @param annotation
+     *            The field annotation to match.
+     * @param classAnnotationMatchProcessor
+     *            the ClassAnnotationMatchProcessor to call with each class that has a matching field.
+     */
+    public synchronized FastClasspathScanner matchClassesWithFieldAnnotation(final Class<?> annotation,
+            final ClassAnnotationMatchProcessor classAnnotationMatchProcessor) {
+        getScanSpec().enableFieldInfo = true;
+        // Class annotations are needed to find the annotations that are meta-annotated with the annotation
+        getScanSpec().requireClassAnnotations = true;
+        classMatchers.add(new ClassMatcher() {
+            @Override
+            public void lookForMatches() {
+                final String annotationName = annotationName(annotation);
+                for (final String classWithFieldAnnotation : getNamesOfClassesWithFieldAnnotation(
+                        annotationName)) {
+                    if (verbose) {
+                        Log.log(3, "Matched class with field annotation " + annotationName + ": "
+                                + classWithFieldAnnotation);
+                    }
+                    // Call classloader
+                    final Class<?> cls = loadClass(classWithFieldAnnotation);
+                    // Process match
+                    classAnnotationMatchProcessor.processMatch(cls);
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Returns the fields that have the specified annotation or meta-annotation, sorted by class name, field name
+     * and type descriptor. Should be called after scan(), and requires field info to have been read (see
+     * enableFieldInfo()). Does not call the classloader.
+     * 
+     * @param annotation
+     *            The field annotation.
+     * @return A list of the fields with the annotation, or the empty list if none.
+     */
+    public synchronized List<FieldInfo> getFieldsWithAnnotation(final Class<?> annotation) {
+        return getFieldsWithAnnotation(annotationName(annotation));
+    }
+
+    /**
+     * Returns the fields that have the specified annotation or meta-annotation, sorted by class name, field name
+     * and type descriptor. Should be called after scan(), and requires field info to have been read (see
+     * enableFieldInfo()). Does not call the classloader.
+     * 
+     * @param annotationName
+     *            The name of the field annotation.
+     * @return A list of the fields with the named annotation, or the empty list if none.
+     */
+    public synchronized List<FieldInfo> getFieldsWithAnnotation(final String annotationName) {
+        checkFieldInfoParsed();
+        return getScanResults().getFieldsWithAnnotation(annotationName);
+    }
+
+    /**
+     * Returns the names of classes on the classpath that have a field with the specified annotation or
+     * meta-annotation. Should be called after scan(), and requires field info to have been read (see
+     * enableFieldInfo()). Does not call the classloader on the matching classes, just returns their names.
+     * 
+     * @param annotation
+     *            The field annotation.
+     * @return A list of the names of classes with a field with the annotation, or the empty list if none.
+     */
+    public synchronized List<String> getNamesOfClassesWithFieldAnnotation(final Class<?> annotation) {
+        return getNamesOfClassesWithFieldAnnotation(annotationName(annotation));
+    }
+
+    /**
+     * Returns the names of classes on the classpath that have a field with the specified annotation or
+     * meta-annotation. Should be called after scan(), and requires field info to have been read (see
+     * enableFieldInfo()). Does not call the classloader on the matching classes, just returns their names.
+     * 
+     * @param annotationName
+     *            The name of the field annotation.
+     * @return A list of the names of classes with a field with the named annotation, or the empty list if none.
+     */
+    public synchronized List<String> getNamesOfClassesWithFieldAnnotation(final String annotationName) {
+        checkFieldInfoParsed();
+        return getScanResults().getNamesOfClassesWithFieldAnnotation(annotationName);
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     /**
@@ -1191,9 +1724,13 @@ public class FastClasspathScanner {
             throw new IOException("File larger that 2GB, cannot read contents into a Java array");
         }
         final byte[] bytes = new byte[(int) fileSize];
-        final int bytesRead = inputStream.read(bytes);
-        if (bytesRead < fileSize) {
-            throw new IOException("Could not read whole file");
+        // InputStream.read() may return fewer bytes than requested, e.g. for compressed zipfile entries
+        for (int bytesRead = 0; bytesRead < bytes.length;) {
+            final int numBytesRead = inputStream.read(bytes, bytesRead, bytes.length - bytesRead);
+            if (numBytesRead < 0) {
+                throw new IOException("Could not read whole file");
+            }
+            bytesRead += numBytesRead;
         }
         return bytes;
     }
@@ -1231,6 +1768,25 @@ public class FastClasspathScanner {
         };
     }
 
+    private static FileMatchProcessorWrapper makeFileMatchBufferProcessorWrapper(
+            final FileMatchContentsBufferProcessor fileMatchContentsBufferProcessor) {
+        return new FileMatchBufferProcessorWrapper() {
+            @Override
+            public void processMatch(final File classpathElt, final String relativePath,
+                    final ByteBuffer fileContents) throws IOException {
+                fileMatchContentsBufferProcessor.processMatch(relativePath,
+                        fileContents.isReadOnly() ? fileContents : fileContents.asReadOnlyBuffer());
+            }
+
+            @Override
+            public void processMatch(final File classpathElt, final String relativePath,
+                    final InputStream inputStream, final long fileSize) throws IOException {
+                fileMatchContentsBufferProcessor.processMatch(relativePath,
+                        ByteBuffer.wrap(readAllBytes(inputStream, fileSize)).asReadOnlyBuffer());
+            }
+        };
+    }
+
     private static FileMatchProcessorWrapper makeFileMatchProcessorWrapper(
             final FileMatchContentsProcessorWithContext fileMatchContentsProcessorWithContext) {
         return new FileMatchProcessorWrapper() {
@@ -1324,6 +1880,22 @@ public class FastClasspathScanner {
         return this;
     }
 
+    /**
+     * Calls the given FileMatchContentsBufferProcessor if files are found on the classpath with the given regexp
+     * pattern in their path.
+     * 
+     * @param pathRegexp
+     *            The regexp to match, e.g. "app/templates/.*\\.html"
+     * @param fileMatchContentsBufferProcessor
+     *            The FileMatchContentsBufferProcessor to call when each match is found.
+     */
+    public synchronized FastClasspathScanner matchFilenamePatternAsByteBuffer(final String pathRegexp,
+            final FileMatchContentsBufferProcessor fileMatchContentsBufferProcessor) {
+        getRecursiveScanner().addFilePathMatcher(makeFilePathTesterMatchingRegexp(pathRegexp),
+                makeFileMatchBufferProcessorWrapper(fileMatchContentsBufferProcessor));
+        return this;
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     private static FilePathTester makeFilePathTesterMatchingRelativePath(final String relativePathToMatch) {
@@ -1407,6 +1979,23 @@ public class FastClasspathScanner {
         return this;
     }
 
+    /**
+     * Calls the given FileMatchContentsBufferProcessor if files are found on the classpath that exactly match
+     * the given relative path.
+     * 
+     * @param relativePathToMatch
+     *            The complete path to match relative to the classpath entry, e.g.
+     *            "app/templates/WidgetTemplate.html"
+     * @param fileMatchContentsBufferProcessor
+     *            The FileMatchContentsBufferProcessor to call when each match is found.
+     */
+    public synchronized FastClasspathScanner matchFilenamePathAsByteBuffer(final String relativePathToMatch,
+            final FileMatchContentsBufferProcessor fileMatchContentsBufferProcessor) {
+        getRecursiveScanner().addFilePathMatcher(makeFilePathTesterMatchingRelativePath(relativePathToMatch),
+                makeFileMatchBufferProcessorWrapper(fileMatchContentsBufferProcessor));
+        return this;
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     private static FilePathTester makeFilePathTesterMatchingPathLeaf(final String pathLeafToMatch) {
@@ -1489,6 +2078,22 @@ public class FastClasspathScanner {
         return this;
     }
 
+    /**
+     * Calls the given FileMatchContentsBufferProcessor if files are found on the classpath that exactly match
+     * the given path leafname.
+     * 
+     * @param pathLeafToMatch
+     *            The complete path leaf to match, e.g. "WidgetTemplate.html"
+     * @param fileMatchContentsBufferProcessor
+     *            The FileMatchContentsBufferProcessor to call when each match is found.
+     */
+    public synchronized FastClasspathScanner matchFilenamePathLeafAsByteBuffer(final String pathLeafToMatch,
+            final FileMatchContentsBufferProcessor fileMatchContentsBufferProcessor) {
+        getRecursiveScanner().addFilePathMatcher(makeFilePathTesterMatchingPathLeaf(pathLeafToMatch),
+                makeFileMatchBufferProcessorWrapper(fileMatchContentsBufferProcessor));
+        return this;
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     private static FilePathTester makeFilePathTesterMatchingFilenameExtension(final String extensionToMatch) {
@@ -1569,6 +2174,22 @@ public class FastClasspathScanner {
         return this;
     }
 
+    /**
+     * Calls the given FileMatchContentsBufferProcessor if files are found on the classpath that have the given file
+     * extension.
+     * 
+     * @param extensionToMatch
+     *            The extension to match, e.g. "html" matches "WidgetTemplate.html".
+     * @param fileMatchContentsBufferProcessor
+     *            The FileMatchContentsBufferProcessor to call when each match is found.
+     */
+    public synchronized FastClasspathScanner matchFilenameExtensionAsByteBuffer(final String extensionToMatch,
+            final FileMatchContentsBufferProcessor fileMatchContentsBufferProcessor) {
+        getRecursiveScanner().addFilePathMatcher(makeFilePathTesterMatchingFilenameExtension(extensionToMatch),
+                makeFileMatchBufferProcessorWrapper(fileMatchContentsBufferProcessor));
+        return this;
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     /**
@@ -1619,11 +2240,108 @@ public class FastClasspathScanner {
         return this;
     }
 
+    /**
+     * Scans the classpath for matching files, and calls any match processors if a match is identified, like scan(),
+     * but walks classpath directories and parses classfiles on the given ExecutorService rather than on threads
+     * started by the scanner. FileMatchProcessors and class MatchProcessors are called on the calling thread. The
+     * ExecutorService is not shut down after the scan.
+     * 
+     * Any ExecutorService can be used, including one that starts a new thread (e.g. a virtual thread) per task.
+     * The calling thread also takes part in the scan, so scanning completes even if the ExecutorService is
+     * saturated, or if scan() is called from within a task running on the same ExecutorService.
+     */
+    public synchronized FastClasspathScanner scan(final ExecutorService executorService) {
+        getRecursiveScanner().scan(executorService);
+        return this;
+    }
+
+    /**
+     * Scans the classpath on a new thread, and calls any match processors if a match is identified, like scan(),
+     * returning a CompletableFuture that completes with this FastClasspathScanner once the scan has finished (or
+     * that completes exceptionally if the scan throws an exception). This allows the classpath to be scanned while
+     * the caller does other work. Other methods of this FastClasspathScanner block while the scan is running, but
+     * the results of the scan should only be read once the returned future has completed, since the scan thread
+     * may not have started the scan when this method returns.
+     * 
+     * Cancelling the returned future cancels the scan: the threads walking the classpath and parsing classfiles
+     * stop before reading their next file, and the partial results of the scan are discarded.
+     */
+    public CompletableFuture<FastClasspathScanner> scanAsync() {
+        return scanAsync(/* deadlineNanos = */ null);
+    }
+
+    /**
+     * Scans the classpath on a new thread, like scanAsync(), but cancels the scan if it has not finished within the
+     * given time, in which case the returned future completes exceptionally with a TimeoutException. The deadline
+     * is checked while walking the classpath and parsing classfiles, so match processors that have already been
+     * called are allowed to finish.
+     */
+    public CompletableFuture<FastClasspathScanner> scanAsync(final long timeout, final TimeUnit timeUnit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+        return scanAsync(System.nanoTime() + timeUnit.toNanos(timeout));
+    }
+
+    private CompletableFuture<FastClasspathScanner> scanAsync(final Long deadlineNanos) {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final CompletableFuture<FastClasspathScanner> future = new CompletableFuture<FastClasspathScanner>() {
+            @Override
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                // Stop the scan threads at the next file they read
+                cancelled.set(true);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        final Thread scanThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    synchronized (FastClasspathScanner.this) {
+                        getRecursiveScanner().scan(cancelled, deadlineNanos);
+                    }
+                    future.complete(FastClasspathScanner.this);
+                } catch (final CancellationException e) {
+                    if (cancelled.get()) {
+                        future.cancel(false);
+                    } else {
+                        future.completeExceptionally(new TimeoutException("Scan did not finish before deadline"));
+                    }
+                } catch (final Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }, "FastClasspathScanner-scanAsync");
+        // Don't prevent the JVM from exiting
+        scanThread.setDaemon(true);
+        scanThread.start();
+        return future;
+    }
+
+    /**
+     * Rescans the classpath, and calls any match processors if a match is identified, like scan(), but reuses the
+     * results of the previous call to rescan() for the classfiles that have not changed since then, so that the
+     * time taken to rescan the classpath after a small change (e.g. in a hot-reload development loop) depends
+     * mostly on the size of the change. A file is considered changed if its last modified time or size has
+     * changed, or for files in jarfiles, if the last modified time or size of the jarfile has changed.
+     * 
+     * Classpath directories are still walked (since the timestamp of a directory does not change when a file in it
+     * is modified), but only new and changed classfiles are parsed. Class MatchProcessors are called on the
+     * relinked class graph as with scan(), but FileMatchProcessors are only called for files that are new or
+     * have changed. The first call to rescan(), or the first call after a call to scan(), scans the whole
+     * classpath.
+     */
+    public synchronized FastClasspathScanner rescan() {
+        getRecursiveScanner().rescan();
+        return this;
+    }
+
     /**
      * Returns true if the classpath contents have been changed since scan() was last called. Only considers
      * classpath prefixes whitelisted in the call to the constructor. Returns true if scan() has not yet been run.
      * Much faster than standard classpath scanning, because only timestamps are checked, and jarfiles don't have to
-     * be opened.
+     * be opened. If watchClasspath() has been called, returns whether a change has been reported since the last
+     * call to scan() or to this method, without checking any timestamps.
      */
     public synchronized boolean classpathContentsModifiedSinceScan() {
         // Ensure scanning has happened at least once already -- if not, return true,
@@ -1648,6 +2366,59 @@ public class FastClasspathScanner {
         return getRecursiveScanner().classpathContentsLastModifiedTime();
     }
 
+    /**
+     * Returns the number of jarfile opens that were saved during the last call to scan(), because each jarfile on
+     * the classpath is opened once and shared between all classfile parser threads, rather than being reopened by
+     * a parser thread each time it switches to parsing classfiles from a different jarfile. The first time each
+     * jarfile is read is not counted, since every jarfile has to be opened at least once.
+     */
+    public synchronized int getNumZipFileOpensSaved() {
+        // Verify scan() has been run at least once, else throw an exception
+        getScanResults();
+        return getRecursiveScanner().getNumZipFileOpensSaved();
+    }
+
+    /**
+     * Returns the number of jarfiles whose classfiles were all loaded from the scan cache during the last call to
+     * scan(), rather than being parsed. Always zero if scanCacheDir() has not been called.
+     */
+    public synchronized int getNumScanCacheHits() {
+        // Verify scan() has been run at least once, else throw an exception
+        getScanResults();
+        return getRecursiveScanner().getNumScanCacheHits();
+    }
+
+    /**
+     * Returns the number of jarfiles that had to be parsed (at least partially) during the last call to scan(),
+     * because they were not in the scan cache, or had changed. Always zero if scanCacheDir() has not been called.
+     */
+    public synchronized int getNumScanCacheMisses() {
+        // Verify scan() has been run at least once, else throw an exception
+        getScanResults();
+        return getRecursiveScanner().getNumScanCacheMisses();
+    }
+
+    /**
+     * Returns the number of classfiles that were read and parsed during the last call to scan() or rescan(), not
+     * counting classfiles whose parser output was reused from a previous call to rescan(), or read from the scan
+     * cache or a scan index.
+     */
+    public synchronized int getNumClassfilesParsed() {
+        // Verify scan() has been run at least once, else throw an exception
+        getScanResults();
+        return getRecursiveScanner().getNumClassfilesParsed();
+    }
+
+    /**
+     * Returns the number of classfiles whose class relationships were read from the scan index of their jarfile
+     * during the last call to scan(), rather than being parsed.
+     */
+    public synchronized int getNumClassfilesReadFromScanIndex() {
+        // Verify scan() has been run at least once, else throw an exception
+        getScanResults();
+        return getRecursiveScanner().getNumClassfilesReadFromScanIndex();
+    }
+
     /**
      * Switch on verbose mode (prints debug info to System.out). Call immediately after the constructor if you want
      * full log output.
@@ -0,0 +1,407 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.classfileparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An annotation on a class, method or field, with its parameter values. The parameter values are not decoded when
+ * the classfile is parsed: the raw bytes of the annotation are retained, along with a snapshot of the constant pool
+ * entries that the annotation refers to, and a parameter value is only decoded when it is asked for.
+ * 
+ * Only the parameter values that are given explicitly where the annotation is used are available, not the default
+ * values declared by the annotation class.
+ * 
+ * Parameter values are decoded as follows: primitive values are returned in their wrapper class (Integer, Long,
+ * Boolean etc.), strings as String, enum constants as EnumValue, class references as ClassRef, nested annotations
+ * as AnnotationInfo, and arrays as Object[].
+ */
+public class AnnotationInfo {
+    /** The name of the annotation class. */
+    public final String annotationName;
+
+    /**
+     * The raw bytes of the annotation: the constant pool snapshot, followed by the annotation structure from the
+     * classfile (type_index, num_element_value_pairs, element_value_pairs). The constant pool snapshot consists of
+     * a u2 entry count, then for each entry the u2 constant pool index, the u1 tag and the bytes of the entry (a u2
+     * length and the modified UTF8 bytes for a string, or 4 or 8 bytes for a numeric constant). Used to store the
+     * annotation in the scan cache; should not be modified.
+     */
+    public final byte[] rawBytes;
+
+    /** The offset of the annotation structure within rawBytes, or -1 if the constant pool has not been read yet. */
+    private volatile int annotationStart;
+
+    /** The constant pool snapshot, or null if it has not been read yet. */
+    private volatile ConstantPoolSnapshot constantPool;
+
+    public AnnotationInfo(final String annotationName, final byte[] rawBytes) {
+        this.annotationName = annotationName;
+        this.rawBytes = rawBytes;
+        this.annotationStart = -1;
+    }
+
+    /** Constructor for nested annotations, which share the raw bytes of the enclosing annotation. */
+    private AnnotationInfo(final String annotationName, final byte[] rawBytes, final int annotationStart,
+            final ConstantPoolSnapshot constantPool) {
+        this.annotationName = annotationName;
+        this.rawBytes = rawBytes;
+        this.annotationStart = annotationStart;
+        this.constantPool = constantPool;
+    }
+
+    /** An enum constant parameter value. */
+    public static class EnumValue {
+        /** The name of the enum class. */
+        public final String className;
+
+        /** The name of the enum constant. */
+        public final String constName;
+
+        public EnumValue(final String className, final String constName) {
+            this.className = className;
+            this.constName = constName;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || this.getClass() != obj.getClass()) {
+                return false;
+            }
+            final EnumValue other = (EnumValue) obj;
+            return className.equals(other.className) && constName.equals(other.constName);
+        }
+
+        @Override
+        public int hashCode() {
+            return className.hashCode() * 31 + constName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return className + "." + constName;
+        }
+    }
+
+    /** A class reference parameter value (e.g. String.class), which is not resolved to a Class. */
+    public static class ClassRef {
+        /** The type descriptor of the class, e.g. "Ljava/lang/String;", "[I" or "V". */
+        public final String typeDescriptor;
+
+        public ClassRef(final String typeDescriptor) {
+            this.typeDescriptor = typeDescriptor;
+        }
+
+        /**
+         * Returns the name of the referenced class, e.g. "java.lang.String", or the type descriptor if the class is
+         * an array or primitive type.
+         */
+        public String getClassName() {
+            return typeDescriptorToClassName(typeDescriptor);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || this.getClass() != obj.getClass()) {
+                return false;
+            }
+            return typeDescriptor.equals(((ClassRef) obj).typeDescriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return typeDescriptor.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getClassName() + ".class";
+        }
+    }
+
+    /** Convert a type descriptor like "Lcom/xyz/Widget;" to a class name like "com.xyz.Widget". */
+    private static String typeDescriptorToClassName(final String typeDescriptor) {
+        if (typeDescriptor.length() > 2 && typeDescriptor.charAt(0) == 'L'
+                && typeDescriptor.charAt(typeDescriptor.length() - 1) == ';') {
+            return typeDescriptor.substring(1, typeDescriptor.length() - 1).replace('/', '.');
+        }
+        return typeDescriptor;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /** The constant pool entries that an annotation refers to, sorted by constant pool index. */
+    private static class ConstantPoolSnapshot {
+        private final int[] constantPoolIdxs;
+        private final int[] tags;
+        private final int[] entryOffsets;
+
+        private ConstantPoolSnapshot(final int numEntries) {
+            constantPoolIdxs = new int[numEntries];
+            tags = new int[numEntries];
+            entryOffsets = new int[numEntries];
+        }
+    }
+
+    /** Read the constant pool snapshot from the beginning of rawBytes, if it has not been read yet. */
+    private ConstantPoolSnapshot getConstantPool() {
+        if (constantPool == null) {
+            final int numEntries = readUnsignedShort(0);
+            final ConstantPoolSnapshot snapshot = new ConstantPoolSnapshot(numEntries);
+            int pos = 2;
+            for (int i = 0; i < numEntries; i++) {
+                snapshot.constantPoolIdxs[i] = readUnsignedShort(pos);
+                final int tag = rawBytes[pos + 2] & 0xff;
+                snapshot.tags[i] = tag;
+                pos += 3;
+                snapshot.entryOffsets[i] = pos;
+                switch (tag) {
+                case 1: // Modified UTF8
+                    pos += 2 + readUnsignedShort(pos);
+                    break;
+                case 3: // int, short, char, byte, boolean
+                case 4: // float
+                    pos += 4;
+                    break;
+                case 5: // long
+                case 6: // double
+                    pos += 8;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown constant pool tag " + tag + " in annotation snapshot");
+                }
+            }
+            // Set annotationStart before constantPool, since constantPool is checked first
+            annotationStart = pos;
+            constantPool = snapshot;
+        }
+        return constantPool;
+    }
+
+    private int readUnsignedShort(final int offset) {
+        return ((rawBytes[offset] & 0xff) << 8) | (rawBytes[offset + 1] & 0xff);
+    }
+
+    private int readInt(final int offset) {
+        return ((rawBytes[offset] & 0xff) << 24) | ((rawBytes[offset + 1] & 0xff) << 16)
+                | ((rawBytes[offset + 2] & 0xff) << 8) | (rawBytes[offset + 3] & 0xff);
+    }
+
+    private long readLong(final int offset) {
+        return (((long) readInt(offset)) << 32) | (readInt(offset + 4) & 0xffffffffL);
+    }
+
+    /** Get the offset of the bytes of a constant pool entry in rawBytes, checking the tag of the entry. */
+    private int getConstantPoolEntryOffset(final ConstantPoolSnapshot cp, final int constantPoolIdx,
+            final int expectedTag) {
+        final int i = Arrays.binarySearch(cp.constantPoolIdxs, constantPoolIdx);
+        if (i < 0 || cp.tags[i] != expectedTag) {
+            throw new RuntimeException("Constant pool entry " + constantPoolIdx + " of annotation " + annotationName
+                    + " is missing from the snapshot or has the wrong type");
+        }
+        return cp.entryOffsets[i];
+    }
+
+    /** Decode a modified UTF8 string from the constant pool snapshot. */
+    private String getConstantPoolString(final ConstantPoolSnapshot cp, final int constantPoolIdx) {
+        final int offset = getConstantPoolEntryOffset(cp, constantPoolIdx, 1);
+        try {
+            // The string is stored in the same format that DataInputStream.readUTF() reads
+            return new DataInputStream(
+                    new ByteArrayInputStream(rawBytes, offset, 2 + readUnsignedShort(offset))).readUTF();
+        } catch (final IOException e) {
+            throw new RuntimeException("Bad modified UTF8 in annotation " + annotationName, e);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Read or skip an element value starting at pos[0], and advance pos[0] past it. Returns the decoded value if
+     * decode is true, otherwise returns null.
+     */
+    private Object readElementValue(final ConstantPoolSnapshot cp, final int[] pos, final boolean decode) {
+        final int tag = rawBytes[pos[0]++] & 0xff;
+        switch (tag) {
+        case 'B':
+        case 'C':
+        case 'I':
+        case 'S':
+        case 'Z': {
+            final int constantPoolIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            if (!decode) {
+                return null;
+            }
+            // byte, char, short and boolean constants are all stored as 4-byte int values
+            final int intValue = readInt(getConstantPoolEntryOffset(cp, constantPoolIdx, 3));
+            return tag == 'B' ? Byte.valueOf((byte) intValue)
+                    : tag == 'C' ? Character.valueOf((char) intValue)
+                            : tag == 'S' ? Short.valueOf((short) intValue)
+                                    : tag == 'Z' ? Boolean.valueOf(intValue != 0) : Integer.valueOf(intValue);
+        }
+        case 'F': {
+            final int constantPoolIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            return decode ? Float.valueOf(Float.intBitsToFloat(readInt(getConstantPoolEntryOffset(cp,
+                    constantPoolIdx, 4)))) : null;
+        }
+        case 'J': {
+            final int constantPoolIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            return decode ? Long.valueOf(readLong(getConstantPoolEntryOffset(cp, constantPoolIdx, 5))) : null;
+        }
+        case 'D': {
+            final int constantPoolIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            return decode ? Double.valueOf(Double.longBitsToDouble(readLong(getConstantPoolEntryOffset(cp,
+                    constantPoolIdx, 6)))) : null;
+        }
+        case 's': {
+            final int constantPoolIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            return decode ? getConstantPoolString(cp, constantPoolIdx) : null;
+        }
+        case 'e': {
+            // enum_const_value
+            final int typeNameIdx = readUnsignedShort(pos[0]);
+            final int constNameIdx = readUnsignedShort(pos[0] + 2);
+            pos[0] += 4;
+            return decode ? new EnumValue(typeDescriptorToClassName(getConstantPoolString(cp, typeNameIdx)),
+                    getConstantPoolString(cp, constNameIdx)) : null;
+        }
+        case 'c': {
+            // class_info_index
+            final int constantPoolIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            return decode ? new ClassRef(getConstantPoolString(cp, constantPoolIdx)) : null;
+        }
+        case '@': {
+            // Complex (nested) annotation
+            final int nestedAnnotationStart = pos[0];
+            final int typeIdx = readUnsignedShort(pos[0]);
+            final int numElementValuePairs = readUnsignedShort(pos[0] + 2);
+            pos[0] += 4;
+            for (int i = 0; i < numElementValuePairs; i++) {
+                pos[0] += 2; // element_name_index
+                readElementValue(cp, pos, /* decode = */ false);
+            }
+            return decode ? new AnnotationInfo(typeDescriptorToClassName(getConstantPoolString(cp, typeIdx)),
+                    rawBytes, nestedAnnotationStart, cp) : null;
+        }
+        case '[': {
+            // array_value
+            final int count = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            final Object[] values = decode ? new Object[count] : null;
+            for (int i = 0; i < count; i++) {
+                final Object value = readElementValue(cp, pos, decode);
+                if (decode) {
+                    values[i] = value;
+                }
+            }
+            return values;
+        }
+        default:
+            throw new RuntimeException("Annotation " + annotationName + " has unknown annotation element type tag '"
+                    + ((char) tag) + "'");
+        }
+    }
+
+    /**
+     * Get the value of the named parameter of the annotation, decoding only that value. Returns null if the
+     * parameter was not given explicitly where the annotation is used.
+     */
+    public Object getParamValue(final String paramName) {
+        final ConstantPoolSnapshot cp = getConstantPool();
+        final int[] pos = { annotationStart + 2 }; // skip type_index
+        final int numElementValuePairs = readUnsignedShort(pos[0]);
+        pos[0] += 2;
+        for (int i = 0; i < numElementValuePairs; i++) {
+            final int elementNameIdx = readUnsignedShort(pos[0]);
+            pos[0] += 2;
+            final boolean isRequestedParam = paramName.equals(getConstantPoolString(cp, elementNameIdx));
+            final Object value = readElementValue(cp, pos, /* decode = */ isRequestedParam);
+            if (isRequestedParam) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode the values of all the parameters that were given explicitly where the annotation is used, in the order
+     * they appear in the classfile, indexed by parameter name.
+     */
+    public Map<String, Object> getParamValues() {
+        final ConstantPoolSnapshot cp = getConstantPool();
+        final int[] pos = { annotationStart + 2 }; // skip type_index
+        final int numElementValuePairs = readUnsignedShort(pos[0]);
+        pos[0] += 2;
+        final Map<String, Object> paramValues = new LinkedHashMap<>();
+        for (int i = 0; i < numElementValuePairs; i++) {
+            final String paramName = getConstantPoolString(cp, readUnsignedShort(pos[0]));
+            pos[0] += 2;
+            paramValues.put(paramName, readElementValue(cp, pos, /* decode = */ true));
+        }
+        return paramValues;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder("@").append(annotationName);
+        final Map<String, Object> paramValues = getParamValues();
+        if (!paramValues.isEmpty()) {
+            buf.append('(');
+            boolean first = true;
+            for (final Map.Entry<String, Object> ent : paramValues.entrySet()) {
+                if (!first) {
+                    buf.append(", ");
+                }
+                first = false;
+                final Object value = ent.getValue();
+                buf.append(ent.getKey()).append('=')
+                        .append(value instanceof Object[] ? Arrays.toString((Object[]) value) : value);
+            }
+            buf.append(')');
+        }
+        return buf.toString();
+    }
+}
@@ -38,10 +38,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
 import io.github.lukehutch.fastclasspathscanner.utils.Log.DeferredLog;
+import io.github.lukehutch.fastclasspathscanner.utils.SymbolTable;
 
 public class ClassInfo implements Comparable<ClassInfo> {
 
@@ -58,19 +58,21 @@ public class ClassInfo implements Comparable<ClassInfo> {
         public String superclassName;
         public List<String> implementedInterfaces;
         public List<String> annotations;
+        public List<AnnotationInfo> annotationInfo;
         public Set<String> fieldTypes;
         public Map<String, Object> staticFinalFieldValues;
+        public List<MethodInfo> methodInfo;
+        public List<FieldInfo> fieldInfo;
 
-        private final ConcurrentHashMap<String, String> stringInternMap;
+        private final SymbolTable symbolTable;
 
         private String intern(final String string) {
-            final String oldValue = stringInternMap.putIfAbsent(string, string);
-            return oldValue == null ? string : oldValue;
+            return symbolTable.intern(string);
         }
 
         public ClassInfoUnlinked(final String className, final boolean isInterface, final boolean isAnnotation,
-                final ConcurrentHashMap<String, String> stringInternMap) {
-            this.stringInternMap = stringInternMap;
+                final SymbolTable symbolTable) {
+            this.symbolTable = symbolTable;
             this.className = intern(className);
             this.isInterface = isInterface;
             this.isAnnotation = isAnnotation;
@@ -94,6 +96,13 @@ public class ClassInfo implements Comparable<ClassInfo> {
             annotations.add(intern(annotationName));
         }
 
+        public void addAnnotationInfo(final AnnotationInfo annotationInfo) {
+            if (this.annotationInfo == null) {
+                this.annotationInfo = new ArrayList<>();
+            }
+            this.annotationInfo.add(annotationInfo);
+        }
+
         public void addFieldType(final String fieldTypeName) {
             if (fieldTypes == null) {
                 fieldTypes = new HashSet<>();
@@ -108,6 +117,39 @@ public class ClassInfo implements Comparable<ClassInfo> {
             staticFinalFieldValues.put(intern(fieldName), staticFinalFieldValue);
         }
 
+        private static List<AnnotationInfo> nonNullAnnotationInfo(final List<AnnotationInfo> annotationInfo) {
+            return annotationInfo == null ? Collections.<AnnotationInfo> emptyList() : annotationInfo;
+        }
+
+        private List<String> internAnnotationNames(final List<String> annotationNames) {
+            if (annotationNames == null || annotationNames.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<String> internedAnnotationNames = new ArrayList<>(annotationNames.size());
+            for (final String annotationName : annotationNames) {
+                internedAnnotationNames.add(intern(annotationName));
+            }
+            return internedAnnotationNames;
+        }
+
+        public void addMethodInfo(final String methodName, final String typeDescriptor, final int modifiers,
+                final List<String> annotationNames, final List<AnnotationInfo> annotationInfo) {
+            if (methodInfo == null) {
+                methodInfo = new ArrayList<>();
+            }
+            methodInfo.add(new MethodInfo(className, intern(methodName), intern(typeDescriptor), modifiers,
+                    internAnnotationNames(annotationNames), nonNullAnnotationInfo(annotationInfo)));
+        }
+
+        public void addFieldInfo(final String fieldName, final String typeDescriptor, final int modifiers,
+                final List<String> annotationNames, final List<AnnotationInfo> annotationInfo) {
+            if (fieldInfo == null) {
+                fieldInfo = new ArrayList<>();
+            }
+            fieldInfo.add(new FieldInfo(className, intern(fieldName), intern(typeDescriptor), modifiers,
+                    internAnnotationNames(annotationNames), nonNullAnnotationInfo(annotationInfo)));
+        }
+
         public void link(final Map<String, ClassInfo> classNameToClassInfo) {
             final ClassInfo classInfo = ClassInfo.addScannedClass(className, isInterface, isAnnotation,
                     classNameToClassInfo);
@@ -134,6 +176,15 @@ public class ClassInfo implements Comparable<ClassInfo> {
                     classInfo.addFieldConstantValue(ent.getKey(), ent.getValue());
                 }
             }
+            if (annotationInfo != null) {
+                classInfo.addAnnotationInfo(annotationInfo);
+            }
+            if (methodInfo != null) {
+                classInfo.addMethodInfo(methodInfo);
+            }
+            if (fieldInfo != null) {
+                classInfo.addFieldInfo(fieldInfo);
+            }
         }
 
         public void logClassInfo(final DeferredLog log) {
@@ -161,6 +212,22 @@ public class ClassInfo implements Comparable<ClassInfo> {
                     }
                     log.log(3, "Static final field values: " + String.join(", ", fieldInitializers));
                 }
+                if (methodInfo != null) {
+                    for (final MethodInfo mi : methodInfo) {
+                        if (!mi.annotationNames.isEmpty()) {
+                            log.log(3, "Method " + mi.methodName + mi.typeDescriptor + " has annotations: "
+                                    + String.join(", ", mi.annotationNames));
+                        }
+                    }
+                }
+                if (fieldInfo != null) {
+                    for (final FieldInfo fi : fieldInfo) {
+                        if (!fi.annotationNames.isEmpty()) {
+                            log.log(3, "Field " + fi.fieldName + " has annotations: "
+                                    + String.join(", ", fi.annotationNames));
+                        }
+                    }
+                }
             }
         }
     }
@@ -244,6 +311,24 @@ public class ClassInfo implements Comparable<ClassInfo> {
      */
     public Map<String, Object> fieldValues;
 
+    /**
+     * The methods of this class, if method info was enabled for the scan. (For Scala, also includes the methods of
+     * the auxiliary classes that were merged into this class.)
+     */
+    public List<MethodInfo> methodInfo;
+
+    /**
+     * The annotations on this class, with their parameter values, if annotation info was enabled for the scan.
+     * Unlike RelType.ANNOTATIONS, does not include meta-annotations.
+     */
+    public List<AnnotationInfo> annotationInfo;
+
+    /**
+     * The fields of this class, if field info was enabled for the scan. (For Scala, also includes the fields of the
+     * auxiliary classes that were merged into this class.)
+     */
+    public List<FieldInfo> fieldInfo;
+
     public ClassInfo(final String className) {
         this.className = className;
     }
@@ -509,6 +594,30 @@ public class ClassInfo implements Comparable<ClassInfo> {
         this.fieldValues.put(fieldName, constValue);
     }
 
+    public void addAnnotationInfo(final List<AnnotationInfo> annotationInfoToAdd) {
+        if (this.annotationInfo == null) {
+            this.annotationInfo = new ArrayList<>(annotationInfoToAdd);
+        } else {
+            this.annotationInfo.addAll(annotationInfoToAdd);
+        }
+    }
+
+    public void addMethodInfo(final List<MethodInfo> methodInfoToAdd) {
+        if (this.methodInfo == null) {
+            this.methodInfo = new ArrayList<>(methodInfoToAdd);
+        } else {
+            this.methodInfo.addAll(methodInfoToAdd);
+        }
+    }
+
+    public void addFieldInfo(final List<FieldInfo> fieldInfoToAdd) {
+        if (this.fieldInfo == null) {
+            this.fieldInfo = new ArrayList<>(fieldInfoToAdd);
+        } else {
+            this.fieldInfo.addAll(fieldInfoToAdd);
+        }
+    }
+
     /** Add a class that has just been scanned (as opposed to just referenced by a scanned class). */
     public static ClassInfo addScannedClass(final String className, final boolean isInterface,
             final boolean isAnnotation, final Map<String, ClassInfo> classNameToClassInfo) {
@@ -2,15 +2,18 @@ package io.github.lukehutch.fastclasspathscanner.classfileparser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
 import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.ClassInfoUnlinked;
 import io.github.lukehutch.fastclasspathscanner.scanner.ScanSpec;
 import io.github.lukehutch.fastclasspathscanner.utils.Log.DeferredLog;
+import io.github.lukehutch.fastclasspathscanner.utils.SymbolTable;
 
 /**
  * A classfile binary format parser. Implements its own buffering to avoid the overhead of using DataInputStream.
@@ -24,12 +27,18 @@ public class ClassfileBinaryParser {
     /** The thread-local logger. */
     private final DeferredLog log;
 
-    /** The InputStream for the current classfile. Set by each call to readClassInfoFromClassfileHeader(). */
+    /**
+     * The InputStream for the current classfile, or null if the whole classfile was passed in as a ByteBuffer. Set
+     * by each call to readClassInfoFromClassfileHeader().
+     */
     private InputStream inputStream;
 
     /** The name of the current classfile. Determined early in the call to readClassInfoFromClassfileHeader(). */
     private String className;
 
+    /** The table of interned names. Set by each call to readClassInfoFromClassfileHeader(). */
+    private SymbolTable symbolTable;
+
     public ClassfileBinaryParser(final ScanSpec scanSpec, final DeferredLog log) {
         this.scanSpec = scanSpec;
         this.log = log;
@@ -50,8 +59,14 @@ public class ClassfileBinaryParser {
     /** Buffer size for classfile reader. */
     private static final int SUBSEQUENT_BUFFER_CHUNK_SIZE = 4096;
 
-    /** Bytes read from the beginning of the classfile. This array is reused across calls. */
-    private byte[] buf = new byte[INITIAL_BUFFER_CHUNK_SIZE];
+    /**
+     * Bytes read from the beginning of the classfile. This is either reusableBuf, or the backing array of a
+     * ByteBuffer containing the whole classfile (which is only ever read from).
+     */
+    private byte[] buf;
+
+    /** The buffer that classfiles are read or copied into. This array is reused across calls. */
+    private byte[] reusableBuf = new byte[INITIAL_BUFFER_CHUNK_SIZE];
 
     /** The current read index in the classfileBytes array. */
     private int curr = 0;
@@ -64,6 +79,10 @@ public class ClassfileBinaryParser {
      * to accommodate the new chunk.
      */
     private void readMore(final int bytesRequired) throws IOException {
+        if (inputStream == null) {
+            // The whole classfile is already in the buffer
+            throw new IOException("Premature EOF while reading classfile");
+        }
         final int extraBytesNeeded = bytesRequired - (used - curr);
         int bytesToRequest = extraBytesNeeded + SUBSEQUENT_BUFFER_CHUNK_SIZE;
         final int maxNewUsed = used + bytesToRequest;
@@ -73,7 +92,7 @@ public class ClassfileBinaryParser {
             while (newBufLen < maxNewUsed) {
                 newBufLen <<= 1;
             }
-            buf = Arrays.copyOf(buf, newBufLen);
+            buf = reusableBuf = Arrays.copyOf(buf, newBufLen);
         }
         int extraBytesStillNotRead = extraBytesNeeded;
         while (extraBytesStillNotRead > 0) {
@@ -161,8 +180,11 @@ public class ClassfileBinaryParser {
 
     /** Reads the "modified UTF8" format defined in the Java classfile spec, optionally replacing '/' with '.'. */
     private String readString(final int offset, final boolean replaceSlashWithDot) {
-        final int utfLen = readUnsignedShort(offset);
-        final int start = offset + 2;
+        return readString(offset + 2, readUnsignedShort(offset), replaceSlashWithDot);
+    }
+
+    /** Reads utfLen bytes of "modified UTF8" starting at the given offset, optionally replacing '/' with '.'. */
+    private String readString(final int start, final int utfLen, final boolean replaceSlashWithDot) {
         final char[] chars = new char[utfLen];
         int c, c2, c3, c4;
         int byteIdx = 0;
@@ -260,12 +282,6 @@ public class ClassfileBinaryParser {
         return offset[cpIdx];
     }
 
-    /** Get a string from the constant pool, optionally replacing '/' with '.'. */
-    private String getConstantPoolString(final int constantPoolIdx, final boolean replaceSlashWithDot) {
-        final int constantPoolStringOffset = getConstantPoolStringOffset(constantPoolIdx);
-        return constantPoolStringOffset == 0 ? null : readString(constantPoolStringOffset, replaceSlashWithDot);
-    }
-
     /** Get a string from the constant pool. */
     private String getConstantPoolString(final int constantPoolIdx) {
         final int constantPoolStringOffset = getConstantPoolStringOffset(constantPoolIdx);
@@ -273,9 +289,41 @@ public class ClassfileBinaryParser {
                 : readString(constantPoolStringOffset, /* replaceSlashWithDot = */ false);
     }
 
-    /** Get a string from the constant pool, and interpret it as a class name by replacing '/' with '.'. */
+    /**
+     * Get the interned symbol for utfLen bytes of "modified UTF8" starting at the given offset, replacing '/' with
+     * '.'. Only decodes the bytes if the symbol has not been seen before.
+     */
+    private String getSymbol(final int start, final int utfLen) {
+        final String symbol = symbolTable.intern(buf, start, utfLen, /* replaceSlashWithDot = */ true);
+        // Names containing non-ASCII characters need to be decoded before they can be looked up
+        return symbol != null ? symbol
+                : symbolTable.intern(readString(start, utfLen, /* replaceSlashWithDot = */ true));
+    }
+
+    /**
+     * Get a string from the constant pool, and interpret it as a class name by replacing '/' with '.'. Returns the
+     * interned symbol for the class name.
+     */
     private String getConstantPoolClassName(final int constantPoolIdx) {
-        return getConstantPoolString(constantPoolIdx, /* replaceSlashWithDot = */ true);
+        final int constantPoolStringOffset = getConstantPoolStringOffset(constantPoolIdx);
+        return constantPoolStringOffset == 0 ? null
+                : getSymbol(constantPoolStringOffset + 2, readUnsignedShort(constantPoolStringOffset));
+    }
+
+    /**
+     * Get a string from the constant pool, without replacing '/' with '.'. Returns the interned symbol for the
+     * string.
+     */
+    private String getConstantPoolSymbol(final int constantPoolIdx) {
+        final int constantPoolStringOffset = getConstantPoolStringOffset(constantPoolIdx);
+        if (constantPoolStringOffset == 0) {
+            return null;
+        }
+        final int start = constantPoolStringOffset + 2;
+        final int utfLen = readUnsignedShort(constantPoolStringOffset);
+        final String symbol = symbolTable.intern(buf, start, utfLen, /* replaceSlashWithDot = */ false);
+        return symbol != null ? symbol
+                : symbolTable.intern(readString(start, utfLen, /* replaceSlashWithDot = */ false));
     }
 
     /** Compare a string in the constant pool with a given constant, without constructing the String object. */
@@ -324,32 +372,122 @@ public class ClassfileBinaryParser {
 
     // -------------------------------------------------------------------------------------------------------------
 
+    /** True if the constant pool entries that annotations refer to should be recorded while reading them. */
+    private boolean recordAnnotationConstantPoolRefs;
+
+    /** The constant pool indices that the annotation being read refers to. This array is reused across calls. */
+    private int[] annotationConstantPoolRefs = new int[16];
+
+    /** The number of entries used in annotationConstantPoolRefs. */
+    private int numAnnotationConstantPoolRefs;
+
+    /** The offset within the buffer of the annotation most recently read by readTopLevelAnnotation(). */
+    private int topLevelAnnotationStart;
+
+    /** Record a constant pool index that the annotation being read refers to, if annotation info is enabled. */
+    private void recordAnnotationConstantPoolRef(final int constantPoolIdx) {
+        if (recordAnnotationConstantPoolRefs) {
+            if (numAnnotationConstantPoolRefs == annotationConstantPoolRefs.length) {
+                annotationConstantPoolRefs = Arrays.copyOf(annotationConstantPoolRefs,
+                        annotationConstantPoolRefs.length * 2);
+            }
+            annotationConstantPoolRefs[numAnnotationConstantPoolRefs++] = constantPoolIdx;
+        }
+    }
+
+    /**
+     * Read a class, method or field annotation (as opposed to an annotation nested in an annotation parameter
+     * value), so that getTopLevelAnnotationInfo() can be called afterwards.
+     */
+    private String readTopLevelAnnotation() throws IOException {
+        topLevelAnnotationStart = curr;
+        numAnnotationConstantPoolRefs = 0;
+        return readAnnotation();
+    }
+
+    /**
+     * Get the AnnotationInfo for the annotation that was just read by readTopLevelAnnotation(), by copying the raw
+     * bytes of the annotation, and the constant pool entries it refers to, out of the buffer. The parameter values
+     * are not decoded.
+     */
+    private AnnotationInfo getTopLevelAnnotationInfo(final String annotationName) {
+        // Sort and deduplicate the constant pool indices, and find the size of the constant pool snapshot
+        Arrays.sort(annotationConstantPoolRefs, 0, numAnnotationConstantPoolRefs);
+        int numEntries = 0;
+        int rawBytesLen = 2 + curr - topLevelAnnotationStart;
+        for (int i = 0; i < numAnnotationConstantPoolRefs; i++) {
+            final int constantPoolIdx = annotationConstantPoolRefs[i];
+            if (numEntries == 0 || annotationConstantPoolRefs[numEntries - 1] != constantPoolIdx) {
+                annotationConstantPoolRefs[numEntries++] = constantPoolIdx;
+                rawBytesLen += 3 + getConstantPoolEntryLength(constantPoolIdx);
+            }
+        }
+        final byte[] rawBytes = new byte[rawBytesLen];
+        rawBytes[0] = (byte) (numEntries >> 8);
+        rawBytes[1] = (byte) numEntries;
+        int pos = 2;
+        for (int i = 0; i < numEntries; i++) {
+            final int constantPoolIdx = annotationConstantPoolRefs[i];
+            final int entryLength = getConstantPoolEntryLength(constantPoolIdx);
+            rawBytes[pos] = (byte) (constantPoolIdx >> 8);
+            rawBytes[pos + 1] = (byte) constantPoolIdx;
+            rawBytes[pos + 2] = (byte) tag[constantPoolIdx];
+            System.arraycopy(buf, offset[constantPoolIdx], rawBytes, pos + 3, entryLength);
+            pos += 3 + entryLength;
+        }
+        System.arraycopy(buf, topLevelAnnotationStart, rawBytes, pos, curr - topLevelAnnotationStart);
+        return new AnnotationInfo(annotationName, rawBytes);
+    }
+
+    /** Get the length of a constant pool entry that an annotation can refer to, not including the tag. */
+    private int getConstantPoolEntryLength(final int constantPoolIdx) {
+        switch (tag[constantPoolIdx]) {
+        case 1: // Modified UTF8
+            return 2 + readUnsignedShort(offset[constantPoolIdx]);
+        case 3: // int, short, char, byte, boolean
+        case 4: // float
+            return 4;
+        case 5: // long
+        case 6: // double
+            return 8;
+        default:
+            throw new RuntimeException("Annotation in class " + className + " refers to constant pool entry of type "
+                    + tag[constantPoolIdx] + ", cannot continue reading class. "
+                    + "Please report this on the FastClasspathScanner GitHub page.");
+        }
+    }
+
     /**
      * Read annotation entry from classfile.
      */
     private String readAnnotation() throws IOException {
-        // Lcom/xyz/Annotation -> Lcom.xyz.Annotation
-        final String annotationFieldDescriptor = getConstantPoolClassName(readUnsignedShort());
+        final int annotationTypeConstantPoolIdx = readUnsignedShort();
+        recordAnnotationConstantPoolRef(annotationTypeConstantPoolIdx);
+        final int annotationFieldDescriptorOffset = getConstantPoolStringOffset(annotationTypeConstantPoolIdx);
+        if (annotationFieldDescriptorOffset == 0) {
+            throw new RuntimeException("Null annotation type descriptor in class " + className);
+        }
+        final int start = annotationFieldDescriptorOffset + 2;
+        final int len = readUnsignedShort(annotationFieldDescriptorOffset);
         String annotationClassName;
-        if (annotationFieldDescriptor.charAt(0) == 'L'
-                && annotationFieldDescriptor.charAt(annotationFieldDescriptor.length() - 1) == ';') {
-            // Lcom.xyz.Annotation; -> com.xyz.Annotation
-            annotationClassName = annotationFieldDescriptor.substring(1, annotationFieldDescriptor.length() - 1);
+        if (len > 2 && buf[start] == 'L' && buf[start + len - 1] == ';') {
+            // Lcom/xyz/Annotation; -> com.xyz.Annotation
+            annotationClassName = getSymbol(start + 1, len - 2);
         } else {
             // Should not happen
-            annotationClassName = annotationFieldDescriptor;
+            annotationClassName = getSymbol(start, len);
         }
         final int numElementValuePairs = readUnsignedShort();
         for (int i = 0; i < numElementValuePairs; i++) {
-            skip(2); // element_name_index
+            recordAnnotationConstantPoolRef(readUnsignedShort()); // element_name_index
             readAnnotationElementValue();
         }
         return annotationClassName;
     }
 
     /**
-     * Read annotation element value from classfile. (These values are currently just skipped, so this function
-     * returns nothing.)
+     * Read annotation element value from classfile. (The values are not decoded, so this function returns nothing,
+     * but the constant pool entries they refer to are recorded if annotation info is enabled.)
      */
     private void readAnnotationElementValue() throws IOException {
         final int tag = (char) readUnsignedByte();
@@ -364,15 +502,16 @@ public class ClassfileBinaryParser {
         case 'Z':
         case 's':
             // const_value_index
-            skip(2);
+            recordAnnotationConstantPoolRef(readUnsignedShort());
             break;
         case 'e':
             // enum_const_value
-            skip(4);
+            recordAnnotationConstantPoolRef(readUnsignedShort()); // type_name_index
+            recordAnnotationConstantPoolRef(readUnsignedShort()); // const_name_index
             break;
         case 'c':
             // class_info_index
-            skip(2);
+            recordAnnotationConstantPoolRef(readUnsignedShort());
             break;
         case '@':
             // Complex (nested) annotation
@@ -400,26 +539,30 @@ public class ClassfileBinaryParser {
      * => "java/util/Map", "com/xyz/fig/shape/Shape", "java/lang/Integer".
      * 
      * Also removes array prefixes, e.g. "[[[Lcom.xyz.Widget" -> "com.xyz.Widget".
+     * 
+     * The type descriptor is read directly from the constant pool string at the given offset, and the type names
+     * are looked up in the symbol table without decoding them. (The delimiters are all ASCII, and the bytes of a
+     * multi-byte character in modified UTF8 are all non-ASCII, so the delimiters can be found by byte.)
      */
     private void addFieldTypeDescriptorParts(final ClassInfoUnlinked classInfoUnlinked,
-            final String typeDescriptor) {
-        for (int i = 0; i < typeDescriptor.length(); i++) {
-            char c = typeDescriptor.charAt(i);
+            final int typeDescriptorOffset) {
+        if (typeDescriptorOffset == 0) {
+            return;
+        }
+        final int start = typeDescriptorOffset + 2;
+        final int end = start + readUnsignedShort(typeDescriptorOffset);
+        for (int i = start; i < end; i++) {
+            byte c = buf[i];
             if (c == 'L') {
                 final int typeNameStart = ++i;
-                for (; i < typeDescriptor.length(); i++) {
-                    c = typeDescriptor.charAt(i);
+                for (; i < end; i++) {
+                    c = buf[i];
                     if (c == '<' || c == ';') {
                         break;
                     }
                 }
-                // Switch '/' package delimiter to '.' (lower overhead than String.replace('/', '.'))
-                final char[] typeNameChars = new char[i - typeNameStart];
-                for (int j = typeNameStart; j < i; j++) {
-                    final char chr = typeDescriptor.charAt(j);
-                    typeNameChars[j - typeNameStart] = chr == '/' ? '.' : chr;
-                }
-                final String typeName = new String(typeNameChars);
+                // Switch '/' package delimiter to '.' as part of the lookup
+                final String typeName = getSymbol(typeNameStart, i - typeNameStart);
                 // Check if the type of this field falls within a non-blacklisted package, and if not, add it
                 if (scanSpec.classIsNotBlacklisted(typeName)) {
                     classInfoUnlinked.addFieldType(typeName);
@@ -456,16 +599,59 @@ public class ClassfileBinaryParser {
      */
     public ClassInfoUnlinked readClassInfoFromClassfileHeader(final InputStream inputStream,
             final String relativePath, final Map<String, HashSet<String>> classNameToStaticFinalFieldsToMatch,
-            final ConcurrentHashMap<String, String> stringInternMap) throws IOException {
+            final SymbolTable symbolTable) throws IOException {
+        this.inputStream = inputStream;
+        buf = reusableBuf;
+        return readClassInfo(relativePath, classNameToStaticFinalFieldsToMatch, symbolTable);
+    }
+
+    /**
+     * Directly examine contents of classfile binary header to determine annotations, implemented interfaces, the
+     * super-class etc., given the contents of the whole classfile (e.g. a slice of a memory-mapped jarfile, or a
+     * buffer that a zipfile entry was inflated into). Unlike reading from an InputStream, the buffer never needs to
+     * be refilled. If the ByteBuffer has a backing array, the classfile is parsed in place, otherwise it is copied
+     * into the parser's buffer with a single bulk copy.
+     */
+    public ClassInfoUnlinked readClassInfoFromClassfileHeader(final ByteBuffer classfileBytes,
+            final String relativePath, final Map<String, HashSet<String>> classNameToStaticFinalFieldsToMatch,
+            final SymbolTable symbolTable) throws IOException {
+        this.inputStream = null;
+        final int len = classfileBytes.remaining();
+        if (classfileBytes.hasArray()) {
+            buf = classfileBytes.array();
+            curr = classfileBytes.arrayOffset() + classfileBytes.position();
+        } else {
+            if (reusableBuf.length < len) {
+                reusableBuf = new byte[Math.max(reusableBuf.length * 2, len)];
+            }
+            classfileBytes.duplicate().get(reusableBuf, 0, len);
+            buf = reusableBuf;
+            curr = 0;
+        }
+        used = curr + len;
+        return readClassInfo(relativePath, classNameToStaticFinalFieldsToMatch, symbolTable);
+    }
+
+    /**
+     * Parse the classfile in buf, starting at curr. If inputStream is non-null, the buffer is filled from the
+     * InputStream as needed.
+     */
+    private ClassInfoUnlinked readClassInfo(final String relativePath,
+            final Map<String, HashSet<String>> classNameToStaticFinalFieldsToMatch, final SymbolTable symbolTable)
+            throws IOException {
         try {
-            // Clear className and set inputStream for each new class
+            // Clear className for each new class
             this.className = null;
-            this.inputStream = inputStream;
+            this.symbolTable = symbolTable;
+            final boolean parseAnnotationInfo = scanSpec.enableAnnotationInfo;
+            this.recordAnnotationConstantPoolRefs = parseAnnotationInfo;
 
             // Initialize buffer
-            curr = 0;
-            used = inputStream.read(buf, 0, INITIAL_BUFFER_CHUNK_SIZE);
-            if (used < 0) {
+            if (inputStream != null) {
+                curr = 0;
+                used = inputStream.read(buf, 0, INITIAL_BUFFER_CHUNK_SIZE);
+            }
+            if (used <= curr) {
                 throw new IOException("Classfile " + relativePath + " is empty");
             }
 
@@ -564,7 +750,7 @@ public class ClassfileBinaryParser {
             final String superclassName = getConstantPoolClassName(readUnsignedShort());
 
             final ClassInfoUnlinked classInfoUnlinked = new ClassInfoUnlinked(className, isInterface, isAnnotation,
-                    stringInternMap);
+                    symbolTable);
 
             // Connect class to superclass
             if (scanSpec.classIsNotBlacklisted(superclassName)) {
@@ -580,15 +766,27 @@ public class ClassfileBinaryParser {
                 }
             }
 
-            // Fields
+            // If only the class hierarchy is needed, stop reading the classfile here, without reading the
+            // remaining bytes (which, for a DEFLATED jar entry, also avoids inflating them)
             final HashSet<String> staticFinalFieldsToMatch = classNameToStaticFinalFieldsToMatch.get(className);
+            final boolean parseFieldTypes = scanSpec.parseFieldTypes();
+            final boolean parseClassAnnotations = scanSpec.parseClassAnnotations();
+            final boolean parseMethods = scanSpec.enableMethodInfo;
+            final boolean parseFieldInfo = scanSpec.enableFieldInfo;
+            if (!parseFieldTypes && staticFinalFieldsToMatch == null && !parseClassAnnotations && !parseMethods
+                    && !parseFieldInfo) {
+                return classInfoUnlinked;
+            }
+
+            // Fields
             final int fieldCount = readUnsignedShort();
             for (int i = 0; i < fieldCount; i++) {
                 // Info on accessFlags: http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.6
                 final int accessFlags = readUnsignedShort();
                 final boolean isPublicField = ((accessFlags & 0x0002) == 0x0002);
-                final boolean scanField = isPublicField || scanSpec.ignoreFieldVisibility;
-                if (!scanField) {
+                final boolean scanField = (isPublicField || scanSpec.ignoreFieldVisibility)
+                        && (parseFieldTypes || staticFinalFieldsToMatch != null);
+                if (!scanField && !parseFieldInfo) {
                     // Skip field
                     readUnsignedShort(); // fieldNameConstantPoolIdx
                     readUnsignedShort(); // fieldTypeDescriptorConstantPoolIdx
@@ -610,13 +808,16 @@ public class ClassfileBinaryParser {
                         }
                     }
                     final int fieldTypeDescriptorConstantPoolIdx = readUnsignedShort();
-                    final String fieldTypeDescriptor = scanField
-                            ? getConstantPoolString(fieldTypeDescriptorConstantPoolIdx) : null;
                     final int attributesCount = readUnsignedShort();
+                    List<String> fieldAnnotationNames = null;
+                    List<AnnotationInfo> fieldAnnotationInfo = null;
 
                     // Check if the type of this field falls within a non-blacklisted package,
                     // and if so, record the field and its type
-                    addFieldTypeDescriptorParts(classInfoUnlinked, fieldTypeDescriptor);
+                    if (scanField && parseFieldTypes) {
+                        addFieldTypeDescriptorParts(classInfoUnlinked,
+                                getConstantPoolStringOffset(fieldTypeDescriptorConstantPoolIdx));
+                    }
 
                     // Check if field is static and final
                     if (!isStaticFinalField && isMatchedFieldName) {
@@ -636,6 +837,8 @@ public class ClassfileBinaryParser {
                                 && constantPoolStringEquals(attributeNameConstantPoolIdx, "ConstantValue")) {
                             // http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.7.2
                             Object constValue = getConstantPoolValue(readUnsignedShort());
+                            final String fieldTypeDescriptor = getConstantPoolString(
+                                    fieldTypeDescriptorConstantPoolIdx);
                             // byte, char, short and boolean constants are all stored as 4-byte int
                             // values -- coerce and wrap in the proper wrapper class with autoboxing
                             switch (fieldTypeDescriptor.charAt(0)) {
@@ -681,12 +884,31 @@ public class ClassfileBinaryParser {
                             // Store static final field match in ClassInfo object
                             classInfoUnlinked.addFieldConstantValue(fieldName, constValue);
                             foundConstantValue = true;
-                        } else if (constantPoolStringEquals(attributeNameConstantPoolIdx, "Signature")) {
+                        } else if (scanField && parseFieldTypes
+                                && constantPoolStringEquals(attributeNameConstantPoolIdx, "Signature")) {
                             // Check if the type signature of this field falls within a non-blacklisted
                             // package, and if so, record the field type. The type signature contains
                             // type parameters, whereas the type descriptor does not.
-                            final String fieldTypeSignature = getConstantPoolString(readUnsignedShort());
-                            addFieldTypeDescriptorParts(classInfoUnlinked, fieldTypeSignature);
+                            addFieldTypeDescriptorParts(classInfoUnlinked,
+                                    getConstantPoolStringOffset(readUnsignedShort()));
+                        } else if (parseFieldInfo && constantPoolStringEquals(attributeNameConstantPoolIdx,
+                                "RuntimeVisibleAnnotations")) {
+                            final int annotationCount = readUnsignedShort();
+                            for (int m = 0; m < annotationCount; m++) {
+                                final String annotationName = readTopLevelAnnotation();
+                                if (scanSpec.classIsNotBlacklisted(annotationName)) {
+                                    if (fieldAnnotationNames == null) {
+                                        fieldAnnotationNames = new ArrayList<>(2);
+                                    }
+                                    fieldAnnotationNames.add(annotationName);
+                                    if (parseAnnotationInfo) {
+                                        if (fieldAnnotationInfo == null) {
+                                            fieldAnnotationInfo = new ArrayList<>(2);
+                                        }
+                                        fieldAnnotationInfo.add(getTopLevelAnnotationInfo(annotationName));
+                                    }
+                                }
+                            }
                         } else {
                             // No match, just skip attribute
                             skip(attributeLength);
@@ -699,21 +921,72 @@ public class ClassfileBinaryParser {
                                             + "initializer value in the constant pool of the classfile");
                         }
                     }
+                    if (parseFieldInfo) {
+                        classInfoUnlinked.addFieldInfo(getConstantPoolSymbol(fieldNameConstantPoolIdx),
+                                getConstantPoolSymbol(fieldTypeDescriptorConstantPoolIdx), accessFlags,
+                                fieldAnnotationNames, fieldAnnotationInfo);
+                    }
                 }
             }
 
+            // Methods and class annotations are stored after the fields, so if neither is needed, stop reading here
+            if (!parseClassAnnotations && !parseMethods) {
+                return classInfoUnlinked;
+            }
+
             // Methods
             final int methodCount = readUnsignedShort();
             for (int i = 0; i < methodCount; i++) {
-                skip(6); // access_flags, name_index, descriptor_index
-                final int attributesCount = readUnsignedShort();
-                for (int j = 0; j < attributesCount; j++) {
-                    skip(2); // attribute_name_index
-                    final int attributeLength = readInt();
-                    skip(attributeLength);
+                if (!parseMethods) {
+                    skip(6); // access_flags, name_index, descriptor_index
+                    final int attributesCount = readUnsignedShort();
+                    for (int j = 0; j < attributesCount; j++) {
+                        skip(2); // attribute_name_index
+                        final int attributeLength = readInt();
+                        skip(attributeLength);
+                    }
+                } else {
+                    // Info on accessFlags: http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.6
+                    final int accessFlags = readUnsignedShort();
+                    final String methodName = getConstantPoolSymbol(readUnsignedShort());
+                    final String methodTypeDescriptor = getConstantPoolSymbol(readUnsignedShort());
+                    List<String> methodAnnotationNames = null;
+                    List<AnnotationInfo> methodAnnotationInfo = null;
+                    final int attributesCount = readUnsignedShort();
+                    for (int j = 0; j < attributesCount; j++) {
+                        final int attributeNameConstantPoolIdx = readUnsignedShort();
+                        final int attributeLength = readInt();
+                        if (constantPoolStringEquals(attributeNameConstantPoolIdx, "RuntimeVisibleAnnotations")) {
+                            final int annotationCount = readUnsignedShort();
+                            for (int m = 0; m < annotationCount; m++) {
+                                final String annotationName = readTopLevelAnnotation();
+                                if (scanSpec.classIsNotBlacklisted(annotationName)) {
+                                    if (methodAnnotationNames == null) {
+                                        methodAnnotationNames = new ArrayList<>(2);
+                                    }
+                                    methodAnnotationNames.add(annotationName);
+                                    if (parseAnnotationInfo) {
+                                        if (methodAnnotationInfo == null) {
+                                            methodAnnotationInfo = new ArrayList<>(2);
+                                        }
+                                        methodAnnotationInfo.add(getTopLevelAnnotationInfo(annotationName));
+                                    }
+                                }
+                            }
+                        } else {
+                            skip(attributeLength);
+                        }
+                    }
+                    classInfoUnlinked.addMethodInfo(methodName, methodTypeDescriptor, accessFlags,
+                            methodAnnotationNames, methodAnnotationInfo);
                 }
             }
 
+            // Class annotations are stored after the methods, so if they are not needed, stop reading here
+            if (!parseClassAnnotations) {
+                return classInfoUnlinked;
+            }
+
             // Attributes (including class annotations)
             final int attributesCount = readUnsignedShort();
             for (int i = 0; i < attributesCount; i++) {
@@ -722,11 +995,14 @@ public class ClassfileBinaryParser {
                 if (constantPoolStringEquals(attributeNameConstantPoolIdx, "RuntimeVisibleAnnotations")) {
                     final int annotationCount = readUnsignedShort();
                     for (int m = 0; m < annotationCount; m++) {
-                        final String annotationName = readAnnotation();
+                        final String annotationName = readTopLevelAnnotation();
                         // Add non-blacklisted annotations; by default, "java.*" and "sun.*" are blacklisted,
                         // so java.lang.annotation annotations will be ignored (Target/Retention/Documented etc.)
                         if (scanSpec.classIsNotBlacklisted(annotationName)) {
                             classInfoUnlinked.addAnnotation(annotationName);
+                            if (parseAnnotationInfo) {
+                                classInfoUnlinked.addAnnotationInfo(getTopLevelAnnotationInfo(annotationName));
+                            }
                         }
                     }
                 } else {
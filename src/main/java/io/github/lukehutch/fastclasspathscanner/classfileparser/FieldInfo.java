@@ -0,0 +1,103 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.classfileparser;
+
+import java.util.List;
+
+/**
+ * The name, type descriptor, access flags and annotations of a field, as read from the fields table of a
+ * classfile.
+ */
+public class FieldInfo implements Comparable<FieldInfo> {
+    /** The name of the class that declares the field. */
+    public final String className;
+
+    /** The name of the field. */
+    public final String fieldName;
+
+    /** The type descriptor of the field, e.g. "Ljava/lang/String;". */
+    public final String typeDescriptor;
+
+    /** The access flags of the field, as defined in java.lang.reflect.Modifier. */
+    public final int modifiers;
+
+    /** The names of the non-blacklisted runtime-visible annotations on the field. */
+    public final List<String> annotationNames;
+
+    /**
+     * The non-blacklisted runtime-visible annotations on the field, with their parameter values, if annotation info
+     * was enabled for the scan, otherwise the empty list.
+     */
+    public final List<AnnotationInfo> annotationInfo;
+
+    public FieldInfo(final String className, final String fieldName, final String typeDescriptor,
+            final int modifiers, final List<String> annotationNames, final List<AnnotationInfo> annotationInfo) {
+        this.className = className;
+        this.fieldName = fieldName;
+        this.typeDescriptor = typeDescriptor;
+        this.modifiers = modifiers;
+        this.annotationNames = annotationNames;
+        this.annotationInfo = annotationInfo;
+    }
+
+    @Override
+    public int compareTo(final FieldInfo o) {
+        int diff = className.compareTo(o.className);
+        if (diff == 0) {
+            diff = fieldName.compareTo(o.fieldName);
+            if (diff == 0) {
+                diff = typeDescriptor.compareTo(o.typeDescriptor);
+            }
+        }
+        return diff;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || this.getClass() != obj.getClass()) {
+            return false;
+        }
+        final FieldInfo other = (FieldInfo) obj;
+        return className.equals(other.className) && fieldName.equals(other.fieldName)
+                && typeDescriptor.equals(other.typeDescriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return (className.hashCode() * 31 + fieldName.hashCode()) * 31 + typeDescriptor.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + fieldName + ":" + typeDescriptor;
+    }
+}
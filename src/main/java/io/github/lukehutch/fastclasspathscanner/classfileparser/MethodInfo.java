@@ -0,0 +1,103 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.classfileparser;
+
+import java.util.List;
+
+/**
+ * The name, type descriptor, access flags and annotations of a method, as read from the methods table of a
+ * classfile.
+ */
+public class MethodInfo implements Comparable<MethodInfo> {
+    /** The name of the class that declares the method. */
+    public final String className;
+
+    /** The name of the method ("&lt;init&gt;" for constructors). */
+    public final String methodName;
+
+    /** The type descriptor of the method, e.g. "(Ljava/lang/String;I)V". */
+    public final String typeDescriptor;
+
+    /** The access flags of the method, as defined in java.lang.reflect.Modifier. */
+    public final int modifiers;
+
+    /** The names of the non-blacklisted runtime-visible annotations on the method. */
+    public final List<String> annotationNames;
+
+    /**
+     * The non-blacklisted runtime-visible annotations on the method, with their parameter values, if annotation info
+     * was enabled for the scan, otherwise the empty list.
+     */
+    public final List<AnnotationInfo> annotationInfo;
+
+    public MethodInfo(final String className, final String methodName, final String typeDescriptor,
+            final int modifiers, final List<String> annotationNames, final List<AnnotationInfo> annotationInfo) {
+        this.className = className;
+        this.methodName = methodName;
+        this.typeDescriptor = typeDescriptor;
+        this.modifiers = modifiers;
+        this.annotationNames = annotationNames;
+        this.annotationInfo = annotationInfo;
+    }
+
+    @Override
+    public int compareTo(final MethodInfo o) {
+        int diff = className.compareTo(o.className);
+        if (diff == 0) {
+            diff = methodName.compareTo(o.methodName);
+            if (diff == 0) {
+                diff = typeDescriptor.compareTo(o.typeDescriptor);
+            }
+        }
+        return diff;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || this.getClass() != obj.getClass()) {
+            return false;
+        }
+        final MethodInfo other = (MethodInfo) obj;
+        return className.equals(other.className) && methodName.equals(other.methodName)
+                && typeDescriptor.equals(other.typeDescriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return (className.hashCode() * 31 + methodName.hashCode()) * 31 + typeDescriptor.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + methodName + typeDescriptor;
+    }
+}
@@ -30,22 +30,80 @@ package io.github.lukehutch.fastclasspathscanner.classgraph;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import io.github.lukehutch.fastclasspathscanner.classfileparser.AnnotationInfo;
 import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo;
 import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.ClassType;
 import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.RelType;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.FieldInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.MethodInfo;
 
 public class ClassGraphBuilder {
     private final Map<String, ClassInfo> classNameToClassInfo;
     private final Set<ClassInfo> allClassInfo;
 
+    /** The methods that have each annotation, indexed by annotation name (built once, after linking). */
+    private final Map<String, Set<MethodInfo>> annotationNameToMethodInfo = new HashMap<>();
+
+    /** The classes that have a method with each annotation, indexed by annotation name. */
+    private final Map<String, Set<ClassInfo>> annotationNameToClassesWithMethodAnnotation = new HashMap<>();
+
+    /** The fields that have each annotation, indexed by annotation name (built once, after linking). */
+    private final Map<String, Set<FieldInfo>> annotationNameToFieldInfo = new HashMap<>();
+
+    /** The classes that have a field with each annotation, indexed by annotation name. */
+    private final Map<String, Set<ClassInfo>> annotationNameToClassesWithFieldAnnotation = new HashMap<>();
+
     public ClassGraphBuilder(final Map<String, ClassInfo> classNameToClassInfo) {
         this.classNameToClassInfo = classNameToClassInfo;
         this.allClassInfo = new HashSet<>(classNameToClassInfo.values());
+        for (final ClassInfo classInfo : allClassInfo) {
+            if (classInfo.methodInfo != null) {
+                for (final MethodInfo methodInfo : classInfo.methodInfo) {
+                    for (final String annotationName : methodInfo.annotationNames) {
+                        addToIndex(annotationNameToMethodInfo, annotationName, methodInfo);
+                        addToIndex(annotationNameToClassesWithMethodAnnotation, annotationName, classInfo);
+                    }
+                }
+            }
+            if (classInfo.fieldInfo != null) {
+                for (final FieldInfo fieldInfo : classInfo.fieldInfo) {
+                    for (final String annotationName : fieldInfo.annotationNames) {
+                        addToIndex(annotationNameToFieldInfo, annotationName, fieldInfo);
+                        addToIndex(annotationNameToClassesWithFieldAnnotation, annotationName, classInfo);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Add a value to the set of values for the given key in an index. */
+    private static <T> void addToIndex(final Map<String, Set<T>> index, final String key, final T value) {
+        Set<T> values = index.get(key);
+        if (values == null) {
+            index.put(key, values = new HashSet<>());
+        }
+        values.add(value);
+    }
+
+    /**
+     * Look up the named annotation, and all annotations that are meta-annotated by it, in an index, and return the
+     * union of the values.
+     */
+    private <T> Set<T> lookUpAnnotationInIndex(final Map<String, Set<T>> index, final String annotationName) {
+        final Set<T> values = new HashSet<>();
+        for (final String name : getNamesOfAnnotationAndAnnotationsWithMetaAnnotation(annotationName)) {
+            final Set<T> valuesForName = index.get(name);
+            if (valuesForName != null) {
+                values.addAll(valuesForName);
+            }
+        }
+        return values;
     }
 
     // -------------------------------------------------------------------------------------------------------------
@@ -174,6 +232,16 @@ public class ClassGraphBuilder {
                         /* removeExternalClasses = */ true, ClassType.ALL));
     }
 
+    /**
+     * Return the annotations on the named class, with their parameter values, in the order they appear in the
+     * classfile (does not include meta-annotations).
+     */
+    public List<AnnotationInfo> getAnnotationInfoOnClass(final String classOrInterfaceName) {
+        final ClassInfo classInfo = classNameToClassInfo.get(classOrInterfaceName);
+        return classInfo == null || classInfo.annotationInfo == null ? Collections.<AnnotationInfo> emptyList()
+                : classInfo.annotationInfo;
+    }
+
     /** Return the sorted list of names of all meta-annotations on the named annotation. */
     public List<String> getNamesOfMetaAnnotationsOnAnnotation(final String annotationName) {
         return getNamesOfAnnotationsOnClass(annotationName);
@@ -186,6 +254,63 @@ public class ClassGraphBuilder {
                         /* removeExternalClasses = */ true, ClassType.ANNOTATION));
     }
 
+    /**
+     * Return the names of the named annotation and of all annotations that are meta-annotated by it, since a
+     * method annotated with a meta-annotated annotation is also meta-annotated with the named annotation.
+     */
+    private List<String> getNamesOfAnnotationAndAnnotationsWithMetaAnnotation(final String annotationName) {
+        final List<String> annotationNames = new ArrayList<>();
+        annotationNames.add(annotationName);
+        for (final ClassInfo annotation : getReachableClasses(annotationName, RelType.ANNOTATED_CLASSES)) {
+            if (annotation.isAnnotation()) {
+                annotationNames.add(annotation.className);
+            }
+        }
+        return annotationNames;
+    }
+
+    /**
+     * Return the sorted list of methods that have the named annotation or meta-annotation. Uses the index from
+     * annotations to methods that is built when the ClassGraphBuilder is constructed.
+     */
+    public List<MethodInfo> getMethodsWithAnnotation(final String annotationName) {
+        final List<MethodInfo> methodsWithAnnotation = new ArrayList<>(
+                lookUpAnnotationInIndex(annotationNameToMethodInfo, annotationName));
+        Collections.sort(methodsWithAnnotation);
+        return methodsWithAnnotation;
+    }
+
+    /**
+     * Return the sorted list of names of all classes that have a method with the named annotation or
+     * meta-annotation.
+     */
+    public List<String> getNamesOfClassesWithMethodAnnotation(final String annotationName) {
+        return ClassInfo.getClassNames(ClassInfo.filterClassInfo(
+                lookUpAnnotationInIndex(annotationNameToClassesWithMethodAnnotation, annotationName),
+                /* removeExternalClasses = */ true, ClassType.ALL));
+    }
+
+    /**
+     * Return the sorted list of fields that have the named annotation or meta-annotation. Uses the index from
+     * annotations to fields that is built when the ClassGraphBuilder is constructed.
+     */
+    public List<FieldInfo> getFieldsWithAnnotation(final String annotationName) {
+        final List<FieldInfo> fieldsWithAnnotation = new ArrayList<>(
+                lookUpAnnotationInIndex(annotationNameToFieldInfo, annotationName));
+        Collections.sort(fieldsWithAnnotation);
+        return fieldsWithAnnotation;
+    }
+
+    /**
+     * Return the sorted list of names of all classes that have a field with the named annotation or
+     * meta-annotation.
+     */
+    public List<String> getNamesOfClassesWithFieldAnnotation(final String annotationName) {
+        return ClassInfo.getClassNames(ClassInfo.filterClassInfo(
+                lookUpAnnotationInIndex(annotationNameToClassesWithFieldAnnotation, annotationName),
+                /* removeExternalClasses = */ true, ClassType.ALL));
+    }
+
     // -------------------------------------------------------------------------------------------------------------
     // Class graph visualization
 
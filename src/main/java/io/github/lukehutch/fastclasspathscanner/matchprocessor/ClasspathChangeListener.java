@@ -0,0 +1,47 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.matchprocessor;
+
+import java.io.File;
+
+/** The method to run when a whitelisted path on the classpath changes after a scan, if the classpath is watched. */
+@FunctionalInterface
+public interface ClasspathChangeListener {
+    /**
+     * Called when a whitelisted file or directory is created, modified or deleted.
+     * 
+     * @param classpathElt
+     *            The classpath element (directory or jarfile) that contains the changed path.
+     * @param relativePath
+     *            The path of the changed file or directory relative to the classpath element, or the empty string
+     *            if the classpath element itself (i.e. a jarfile) changed, or null if an unknown set of paths
+     *            within the classpath element may have changed (e.g. because too many changes occurred at once).
+     */
+    public void pathChanged(File classpathElt, String relativePath);
+}
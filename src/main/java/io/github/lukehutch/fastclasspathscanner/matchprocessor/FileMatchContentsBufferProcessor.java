@@ -0,0 +1,51 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.matchprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The method to run when a file with a matching path is found on the classpath. Unlike FileMatchContentsProcessor,
+ * the file contents are not copied into a new byte array for each file.
+ */
+@FunctionalInterface
+public interface FileMatchContentsBufferProcessor {
+    /**
+     * Process a matching file.
+     * 
+     * @param relativePath
+     *            The path of the matching file relative to the classpath element that contained the match.
+     * @param fileContents
+     *            A read-only ByteBuffer containing the file contents, which may be a memory-mapped file, or a buffer
+     *            that is reused for the next file. The ByteBuffer is only valid until this method returns, so any
+     *            contents that are needed later must be copied.
+     */
+    public void processMatch(String relativePath, ByteBuffer fileContents) throws IOException;
+}
@@ -0,0 +1,272 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClasspathChangeListener;
+import io.github.lukehutch.fastclasspathscanner.scanner.ScanSpec.ScanSpecPathMatch;
+import io.github.lukehutch.fastclasspathscanner.utils.Log;
+
+/**
+ * Watches the directories and jarfiles found by a scan for changes, using a WatchService, so that changes can be
+ * detected without walking the classpath again. Each whitelisted directory (and each directory that is an
+ * ancestor of a whitelisted directory) is registered while it is being walked, and each jarfile is watched by
+ * registering its parent directory. Directories created within watched directories after the scan are registered
+ * as they are found.
+ * 
+ * WatchService events are handled by a daemon thread, which records that the classpath has been modified, and
+ * calls the ClasspathChangeListeners with the path of each whitelisted file or directory that changed. Depending on
+ * the platform, there may be a delay of up to several seconds before a change is reported.
+ */
+class ClasspathWatcher {
+    private final ScanSpec scanSpec;
+    private final List<ClasspathChangeListener> listeners;
+    private final WatchService watchService;
+    private final Thread watcherThread;
+
+    /** Set when a change is reported, and cleared by getAndClearModified(). */
+    private final AtomicBoolean modified = new AtomicBoolean();
+
+    /** A directory within a classpath directory that is being watched. */
+    private static class WatchedDir {
+        final File classpathElt;
+        final Path dir;
+        /** The path of the directory relative to the classpath element, "/" for the classpath element itself. */
+        final String dirRelativePath;
+        /** True if the directory is within a whitelisted path. */
+        final boolean inWhitelistedPath;
+
+        public WatchedDir(final File classpathElt, final Path dir, final String dirRelativePath,
+                final boolean inWhitelistedPath) {
+            this.classpathElt = classpathElt;
+            this.dir = dir;
+            this.dirRelativePath = dirRelativePath;
+            this.inWhitelistedPath = inWhitelistedPath;
+        }
+
+        /** Get the relative path of an entry of this directory. */
+        public String getRelativePath(final String fileName) {
+            return "/".equals(dirRelativePath) ? fileName : dirRelativePath + fileName;
+        }
+    }
+
+    /** The watched directories within classpath directories. */
+    private final Map<WatchKey, WatchedDir> watchKeyToWatchedDir = new ConcurrentHashMap<>();
+
+    /** The watched jarfiles, indexed by the WatchKey of their parent directory and then by their filename. */
+    private final Map<WatchKey, Map<Path, File>> watchKeyToWatchedJars = new ConcurrentHashMap<>();
+
+    public ClasspathWatcher(final ScanSpec scanSpec, final List<ClasspathChangeListener> listeners)
+            throws IOException {
+        this.scanSpec = scanSpec;
+        this.listeners = listeners;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handleEvents();
+            }
+        }, "FastClasspathScanner-ClasspathWatcher");
+        // Don't prevent the JVM from exiting
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private WatchKey register(final Path dir) throws IOException {
+        return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Watch a directory within a classpath directory. Called while the directory is being walked, before it is
+     * listed, so that no change after the walk can be missed. May be called concurrently.
+     */
+    public void watchDir(final File classpathElt, final File dir, final String dirRelativePath,
+            final boolean inWhitelistedPath) {
+        try {
+            final Path dirPath = dir.toPath();
+            watchKeyToWatchedDir.put(register(dirPath),
+                    new WatchedDir(classpathElt, dirPath, dirRelativePath, inWhitelistedPath));
+        } catch (final IOException | RuntimeException e) {
+            if (FastClasspathScanner.verbose) {
+                Log.log(3, "Could not watch directory " + dir + ": " + e);
+            }
+        }
+    }
+
+    /** Watch a jarfile, by watching its parent directory. May be called concurrently. */
+    public void watchJar(final File jarFile) {
+        try {
+            final Path jarPath = jarFile.getAbsoluteFile().toPath();
+            final WatchKey watchKey = register(jarPath.getParent());
+            Map<Path, File> watchedJars = watchKeyToWatchedJars.get(watchKey);
+            if (watchedJars == null) {
+                final Map<Path, File> newWatchedJars = new ConcurrentHashMap<>();
+                watchedJars = watchKeyToWatchedJars.putIfAbsent(watchKey, newWatchedJars);
+                if (watchedJars == null) {
+                    watchedJars = newWatchedJars;
+                }
+            }
+            watchedJars.put(jarPath.getFileName(), jarFile);
+        } catch (final IOException | RuntimeException e) {
+            if (FastClasspathScanner.verbose) {
+                Log.log(3, "Could not watch jarfile " + jarFile + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Watch a directory created within a watched directory after the scan, and any directories within it, if they
+     * may contain whitelisted files.
+     */
+    private void watchNewDir(final WatchedDir parentDir, final Path dir) {
+        final String dirRelativePath = parentDir.getRelativePath(dir.getFileName().toString()) + "/";
+        final ScanSpecPathMatch matchStatus = scanSpec.pathWhitelistMatchStatus(dirRelativePath);
+        if (matchStatus == ScanSpecPathMatch.NOT_WITHIN_WHITELISTED_PATH
+                || matchStatus == ScanSpecPathMatch.WITHIN_BLACKLISTED_PATH) {
+            return;
+        }
+        watchDir(parentDir.classpathElt, dir.toFile(), dirRelativePath,
+                parentDir.inWhitelistedPath || matchStatus == ScanSpecPathMatch.WITHIN_WHITELISTED_PATH);
+        final File[] subdirs = dir.toFile().listFiles();
+        if (subdirs != null) {
+            final WatchedDir watchedDir = new WatchedDir(parentDir.classpathElt, dir, dirRelativePath,
+                    parentDir.inWhitelistedPath || matchStatus == ScanSpecPathMatch.WITHIN_WHITELISTED_PATH);
+            for (final File subdir : subdirs) {
+                if (subdir.isDirectory()) {
+                    watchNewDir(watchedDir, subdir.toPath());
+                }
+            }
+        }
+    }
+
+    /** Returns true if the entry with the given relative path within a watched directory is whitelisted. */
+    private boolean isWhitelisted(final WatchedDir watchedDir, final String relativePath) {
+        final ScanSpecPathMatch matchStatus = scanSpec.pathWhitelistMatchStatus(relativePath + "/");
+        if (matchStatus == ScanSpecPathMatch.WITHIN_BLACKLISTED_PATH) {
+            return false;
+        }
+        return watchedDir.inWhitelistedPath || matchStatus == ScanSpecPathMatch.WITHIN_WHITELISTED_PATH
+                || matchStatus == ScanSpecPathMatch.ANCESTOR_OF_WHITELISTED_PATH
+                || scanSpec.isSpecificallyWhitelistedClass(relativePath);
+    }
+
+    /** Record that the classpath was modified, and notify the listeners. */
+    private void pathChanged(final File classpathElt, final String relativePath) {
+        modified.set(true);
+        if (FastClasspathScanner.verbose) {
+            Log.log("Classpath changed: " + classpathElt + (relativePath == null ? ""
+                    : relativePath.isEmpty() ? "" : " : " + relativePath));
+        }
+        for (final ClasspathChangeListener listener : listeners) {
+            try {
+                listener.pathChanged(classpathElt, relativePath);
+            } catch (final RuntimeException e) {
+                Log.log("Exception in ClasspathChangeListener: " + e);
+            }
+        }
+    }
+
+    /** Handle WatchService events until the WatchService is closed. */
+    private void handleEvents() {
+        try {
+            while (true) {
+                final WatchKey watchKey = watchService.take();
+                final WatchedDir watchedDir = watchKeyToWatchedDir.get(watchKey);
+                final Map<Path, File> watchedJars = watchKeyToWatchedJars.get(watchKey);
+                for (final WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, so any watched path in the directory may have changed
+                        if (watchedDir != null) {
+                            pathChanged(watchedDir.classpathElt, null);
+                        }
+                        if (watchedJars != null) {
+                            for (final File jarFile : watchedJars.values()) {
+                                pathChanged(jarFile, "");
+                            }
+                        }
+                        continue;
+                    }
+                    final Path fileName = (Path) event.context();
+                    if (watchedDir != null) {
+                        final String relativePath = watchedDir.getRelativePath(fileName.toString());
+                        if (isWhitelisted(watchedDir, relativePath)) {
+                            final Path path = watchedDir.dir.resolve(fileName);
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && path.toFile().isDirectory()) {
+                                watchNewDir(watchedDir, path);
+                            }
+                            pathChanged(watchedDir.classpathElt, relativePath);
+                        }
+                    }
+                    if (watchedJars != null) {
+                        final File jarFile = watchedJars.get(fileName);
+                        if (jarFile != null) {
+                            pathChanged(jarFile, "");
+                        }
+                    }
+                }
+                if (!watchKey.reset()) {
+                    // Directory was deleted
+                    watchKeyToWatchedDir.remove(watchKey);
+                    watchKeyToWatchedJars.remove(watchKey);
+                }
+            }
+        } catch (final ClosedWatchServiceException | InterruptedException e) {
+            // Watcher was closed
+        }
+    }
+
+    /** Returns true if a change has been reported since the last call, and clears the flag. */
+    public boolean getAndClearModified() {
+        return modified.getAndSet(false);
+    }
+
+    /** Stop watching the classpath. */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            // Ignore
+        }
+    }
+}
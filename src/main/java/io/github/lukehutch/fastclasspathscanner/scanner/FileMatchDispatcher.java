@@ -0,0 +1,250 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.scanner;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
+import io.github.lukehutch.fastclasspathscanner.utils.Log;
+import io.github.lukehutch.fastclasspathscanner.utils.MappedZipFile;
+
+/**
+ * Calls FileMatchProcessors on matching files, either inline on the thread that merges the results of the
+ * classpath scan (the default), or on a pool of worker threads, so that a slow FileMatchProcessor does not stall
+ * the scan. The number of file matches waiting to be processed by the worker threads is bounded, and the merge
+ * thread blocks when the limit is reached.
+ * 
+ * If ordered is true, each FileMatchProcessor is called for one file at a time, in classpath order, although
+ * different FileMatchProcessors may be called concurrently. Otherwise file matches are processed in any order,
+ * and a FileMatchProcessor may be called concurrently for different files.
+ */
+class FileMatchDispatcher {
+    /** A file match to process. */
+    abstract static class FileMatch {
+        final String relativePath;
+
+        public FileMatch(final String relativePath) {
+            this.relativePath = relativePath;
+        }
+
+        /** Open the matching file, and call the FileMatchProcessor. */
+        public abstract void processMatch(MappedZipFile.EntryReader entryReader) throws Exception;
+
+        /** Release any resources held by the file match, whether or not it was processed. */
+        public void release() {
+        }
+    }
+
+    /** The maximum number of file matches waiting to be processed per worker thread. */
+    private static final int MAX_QUEUED_PER_THREAD = 16;
+
+    /** The worker threads, or null if file matches are processed inline. */
+    private final ExecutorService executor;
+    private final boolean ordered;
+    private final Semaphore queueSlots;
+
+    /** The queue of file matches for each FileMatchProcessor, if ordered is true. Only used by the merge thread. */
+    private final Map<Object, SerialQueue> keyToSerialQueue = new HashMap<>();
+
+    /** The first exception thrown by a FileMatchProcessor. */
+    private final AtomicReference<RuntimeException> exception = new AtomicReference<>();
+
+    /** Set if the scan was aborted, so that file matches are released without being processed. */
+    private volatile boolean aborted;
+
+    /** The EntryReader used by each thread to read jarfile entries. */
+    private final Queue<MappedZipFile.EntryReader> entryReaders = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<MappedZipFile.EntryReader> entryReader = new ThreadLocal<MappedZipFile.EntryReader>() {
+        @Override
+        protected MappedZipFile.EntryReader initialValue() {
+            final MappedZipFile.EntryReader newEntryReader = new MappedZipFile.EntryReader();
+            entryReaders.add(newEntryReader);
+            return newEntryReader;
+        }
+    };
+
+    /**
+     * Process file matches on the given number of worker threads, or inline on the calling thread if numThreads is
+     * 0.
+     */
+    public FileMatchDispatcher(final int numThreads, final boolean ordered) {
+        this.ordered = ordered;
+        if (numThreads > 0) {
+            final AtomicInteger threadIdx = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable,
+                            "FastClasspathScanner-FileMatchProcessor-" + threadIdx.incrementAndGet());
+                    // Don't prevent the JVM from exiting
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.queueSlots = new Semaphore(numThreads * MAX_QUEUED_PER_THREAD);
+        } else {
+            this.executor = null;
+            this.queueSlots = null;
+        }
+    }
+
+    /** The file matches for one FileMatchProcessor, processed one at a time in the order they were added. */
+    private class SerialQueue implements Runnable {
+        private final ArrayDeque<FileMatch> fileMatches = new ArrayDeque<>();
+        private boolean running;
+
+        public synchronized void add(final FileMatch fileMatch) {
+            fileMatches.add(fileMatch);
+            if (!running) {
+                running = true;
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final FileMatch fileMatch;
+                synchronized (this) {
+                    fileMatch = fileMatches.poll();
+                    if (fileMatch == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                process(fileMatch);
+            }
+        }
+    }
+
+    private void process(final FileMatch fileMatch) {
+        try {
+            if (!aborted && exception.get() == null) {
+                final long fileStartTime = System.nanoTime();
+                fileMatch.processMatch(entryReader.get());
+                if (FastClasspathScanner.verbose) {
+                    Log.log(4, "Processed file match " + fileMatch.relativePath, System.nanoTime() - fileStartTime);
+                }
+            }
+        } catch (final Exception e) {
+            exception.compareAndSet(null,
+                    new RuntimeException("Exception while processing match " + fileMatch.relativePath, e));
+        } finally {
+            fileMatch.release();
+            if (queueSlots != null) {
+                queueSlots.release();
+            }
+        }
+    }
+
+    /** Throw the first exception thrown by a FileMatchProcessor, if any. */
+    private void throwIfFailed() {
+        final RuntimeException e = exception.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Process a file match, blocking if too many file matches are waiting to be processed. If file matches are
+     * ordered, file matches with the same key (i.e. for the same FileMatchProcessor) are processed in the order
+     * they are dispatched. Throws the exception thrown by any earlier file match.
+     */
+    public void dispatch(final Object key, final FileMatch fileMatch) {
+        if (executor == null) {
+            process(fileMatch);
+        } else {
+            queueSlots.acquireUninterruptibly();
+            if (ordered) {
+                SerialQueue serialQueue = keyToSerialQueue.get(key);
+                if (serialQueue == null) {
+                    keyToSerialQueue.put(key, serialQueue = new SerialQueue());
+                }
+                serialQueue.add(fileMatch);
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        process(fileMatch);
+                    }
+                });
+            }
+        }
+        throwIfFailed();
+    }
+
+    /** Wait for the worker threads to process all file matches, and shut them down. */
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                        break;
+                    }
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (MappedZipFile.EntryReader reader; (reader = entryReaders.poll()) != null;) {
+            reader.close();
+        }
+    }
+
+    /**
+     * Wait for all file matches to be processed, and throw the first exception thrown by a FileMatchProcessor, if
+     * any.
+     */
+    public void finish() {
+        shutdown();
+        throwIfFailed();
+    }
+
+    /** Release any file matches that have not been processed yet without processing them, if the scan failed. */
+    public void abort() {
+        aborted = true;
+        shutdown();
+    }
+}
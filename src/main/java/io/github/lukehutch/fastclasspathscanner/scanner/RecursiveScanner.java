@@ -32,8 +32,21 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,9 +54,21 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -54,18 +79,28 @@ import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.ClassI
 import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassfileBinaryParser;
 import io.github.lukehutch.fastclasspathscanner.classgraph.ClassGraphBuilder;
 import io.github.lukehutch.fastclasspathscanner.classpath.ClasspathFinder;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClasspathChangeListener;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ParsedClassProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.StaticFinalFieldMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.scanner.ScanSpec.ScanSpecPathMatch;
+import io.github.lukehutch.fastclasspathscanner.utils.CompactPathSet;
 import io.github.lukehutch.fastclasspathscanner.utils.Log;
 import io.github.lukehutch.fastclasspathscanner.utils.Log.DeferredLog;
+import io.github.lukehutch.fastclasspathscanner.utils.MappedZipFile;
+import io.github.lukehutch.fastclasspathscanner.utils.SymbolTable;
 
 public class RecursiveScanner {
     /**
-     * The number of threads to use for parsing classfiles in parallel. Empirical testing shows that on a modern
-     * system with an SSD, NUM_THREADS = 6 is a good default. Raising the number of threads too high can actually
-     * hurt performance due to storage contention.
+     * In automatic mode (if ScanSpec.numThreads is 0), each parser thread reports its parsing time to the
+     * ParserThreadPool after parsing this many classfiles, and the number of parser threads is adjusted.
      */
-    private final int NUM_THREADS = 6;
+    private static final int ADJUST_NUM_THREADS_INTERVAL = 32;
+
+    /**
+     * In automatic mode, the maximum number of parser threads, as a multiple of the number of processors. Raising
+     * the number of threads too high can actually hurt performance due to storage contention.
+     */
+    private static final int MAX_THREADS_PER_PROCESSOR = 4;
 
     /** The classpath finder. */
     private final ClasspathFinder classpathFinder;
@@ -91,25 +126,68 @@ public class RecursiveScanner {
     private final List<FilePathTesterAndMatchProcessorWrapper> filePathTestersAndMatchProcessorWrappers = //
             new ArrayList<>();
 
+    /** The listeners to notify of changes to the classpath, if ScanSpec.watchClasspath is true. */
+    private final List<ClasspathChangeListener> classpathChangeListeners = new CopyOnWriteArrayList<>();
+
+    /** The processors to call with each ClassInfoUnlinked object as soon as it has been produced. */
+    private final List<ParsedClassProcessor> parsedClassProcessors = new CopyOnWriteArrayList<>();
+
+    /** The first exception thrown by a ParsedClassProcessor during the current scan. */
+    private final AtomicReference<RuntimeException> parsedClassProcessorException = new AtomicReference<>();
+
+    /** The watcher for the directories and jarfiles found by the last scan, or null if not watching. */
+    private ClasspathWatcher classpathWatcher;
+
     /**
-     * The set of absolute directory/zipfile paths scanned (after symlink resolution), to prevent the same resource
-     * from being scanned twice.
+     * The set of absolute directory/zipfile paths scanned (after symlink resolution), to prevent the same classpath
+     * element from being scanned twice.
      */
     private final Set<String> previouslyScannedCanonicalPaths = new HashSet<>();
 
+    /**
+     * The identities of the files found within classpath directories, to prevent the same file from being scanned
+     * twice. The identity of a file is its file key (e.g. device and inode number) if available, otherwise its
+     * canonical path.
+     */
+    private final Set<Object> previouslyScannedFileIdentities = new HashSet<>();
+
     /**
      * The set of relative file paths scanned (without symlink resolution), to allow for classpath masking of
      * resources (only the first resource with a given relative path should be visible within the classpath, as per
      * Java conventions).
      */
-    private final Set<String> previouslyScannedRelativePaths = new HashSet<>();
+    private final CompactPathSet previouslyScannedRelativePaths = new CompactPathSet();
 
     /** A map from class name to ClassInfo object for the class. */
     private final Map<String, ClassInfo> classNameToClassInfo = new HashMap<>();
 
+    /**
+     * The whitelisted files found by the last call to rescan(), indexed by classpath element and relative path, or
+     * null if rescan() has not been called since the last call to scan().
+     */
+    private Map<File, Map<String, ScannedFile>> scannedFiles;
+
+    /** The settings that affected the output of the classfile parser when scannedFiles was created. */
+    private String scannedFilesParserSettingsKey;
+
+    /** The whitelisted files found by the previous call to rescan(), during a call to rescan(), otherwise null. */
+    private Map<File, Map<String, ScannedFile>> prevScannedFiles;
+
     /** The class graph builder. */
     private ClassGraphBuilder classGraphBuilder;
 
+    /** The facts that the classfile parser read during the last full scan, or null if no scan has completed. */
+    private ScanSpec.ParsedFacts parsedFacts;
+
+    /** Calls FileMatchProcessors on the files matched during the current scan. */
+    private FileMatchDispatcher fileMatchDispatcher;
+
+    /** Set to true to cancel the current scan, or null if the current scan cannot be cancelled. */
+    private volatile AtomicBoolean scanCancelled;
+
+    /** The value of System.nanoTime() at which the current scan is cancelled, or null if there is no deadline. */
+    private volatile Long scanDeadlineNanos;
+
     /** The total number of regular directories scanned. */
     private final AtomicInteger numDirsScanned = new AtomicInteger();
 
@@ -128,6 +206,24 @@ public class RecursiveScanner {
     /** The total number of classfiles scanned. */
     private final AtomicInteger numClassfilesScanned = new AtomicInteger();
 
+    /** The number of classfiles parsed by the parser threads. */
+    private final AtomicInteger numClassfilesParsed = new AtomicInteger();
+
+    /**
+     * The number of times a parser thread switched to reading classfiles from a jar that had already been read by a
+     * parser thread, without having to reopen it, because the jar was shared between threads.
+     */
+    private final AtomicInteger numZipFileOpensSaved = new AtomicInteger();
+
+    /** The number of jarfiles whose classfiles were all loaded from the scan cache during the last scan. */
+    private int numScanCacheHits;
+
+    /** The number of classfiles whose parser output was read from the scan index of their jarfile. */
+    private final AtomicInteger numClassfilesReadFromScanIndex = new AtomicInteger();
+
+    /** The number of jarfiles that had classfiles that were not in the scan cache during the last scan. */
+    private int numScanCacheMisses;
+
     /**
      * The latest last-modified timestamp of any file, directory or sub-directory in the classpath, in millis since
      * the Unix epoch. Does not consider timestamps inside zipfiles/jarfiles, but the timestamp of the zip/jarfile
@@ -148,6 +244,15 @@ public class RecursiveScanner {
                 final long fileSize) throws IOException;
     }
 
+    /**
+     * A FileMatchProcessorWrapper that can also be called with the contents of the file in a ByteBuffer, so that
+     * the contents don't have to be copied. The ByteBuffer is only valid until processMatch() returns.
+     */
+    public static interface FileMatchBufferProcessorWrapper extends FileMatchProcessorWrapper {
+        public void processMatch(final File classpathElt, final String relativePath, final ByteBuffer fileContents)
+                throws IOException;
+    }
+
     private static class FilePathTesterAndMatchProcessorWrapper {
         FilePathTester filePathTester;
         FileMatchProcessorWrapper fileMatchProcessorWrapper;
@@ -165,6 +270,38 @@ public class RecursiveScanner {
                 .add(new FilePathTesterAndMatchProcessorWrapper(filePathTester, fileMatchProcessorWrapper));
     }
 
+    /** Add a listener to notify of changes to the classpath, if ScanSpec.watchClasspath is true. */
+    public void addClasspathChangeListener(final ClasspathChangeListener classpathChangeListener) {
+        classpathChangeListeners.add(classpathChangeListener);
+    }
+
+    /** Add a processor to call with each ClassInfoUnlinked object as soon as it has been produced. */
+    public void addParsedClassProcessor(final ParsedClassProcessor parsedClassProcessor) {
+        parsedClassProcessors.add(parsedClassProcessor);
+    }
+
+    /**
+     * Add a ClassInfoUnlinked object to the output queue, and pass it to the ParsedClassProcessors, so that callers
+     * don't have to wait for the class graph to be built. Called by parser threads and by the merge thread. The
+     * first exception thrown by a ParsedClassProcessor is recorded, and thrown by scan() once the parser threads
+     * have finished. No more classes are passed to the ParsedClassProcessors after an exception.
+     */
+    private void addClassInfoUnlinked(final ClassInfoUnlinked classInfoUnlinked,
+            final Queue<ClassInfoUnlinked> classInfoUnlinkedOut) {
+        classInfoUnlinkedOut.add(classInfoUnlinked);
+        for (final ParsedClassProcessor parsedClassProcessor : parsedClassProcessors) {
+            if (parsedClassProcessorException.get() != null) {
+                break;
+            }
+            try {
+                parsedClassProcessor.processParsedClass(classInfoUnlinked);
+            } catch (final RuntimeException e) {
+                parsedClassProcessorException.compareAndSet(null, new RuntimeException(
+                        "Exception while processing parsed class " + classInfoUnlinked.className, e));
+            }
+        }
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     /**
@@ -214,87 +351,332 @@ public class RecursiveScanner {
     private static class ClassfileResource {
         final File classpathElt;
         final String relativePath;
-
-        public ClassfileResource(final File classpathElt, final String relativePath) {
+        /** The open zipfile that contains the resource, or null if the classpath element is a directory. */
+        final SharedZipFile sharedZipFile;
+        /** The index of the resource's entry within sharedZipFile. */
+        final int zipEntryIdx;
+        /** The scan cache entry to add the parser output to, or null if the parser output is not cached. */
+        final ScanCache.CachedJar cachedJar;
+        /** The ScannedFile to record the parser output in for rescan(), or null if not called by rescan(). */
+        final ScannedFile scannedFile;
+
+        public ClassfileResource(final File classpathElt, final String relativePath,
+                final SharedZipFile sharedZipFile, final int zipEntryIdx, final ScanCache.CachedJar cachedJar,
+                final ScannedFile scannedFile) {
             this.classpathElt = classpathElt;
             this.relativePath = relativePath;
+            this.sharedZipFile = sharedZipFile;
+            this.zipEntryIdx = zipEntryIdx;
+            this.cachedJar = cachedJar;
+            this.scannedFile = scannedFile;
+        }
+
+        public ClassfileResource(final File classpathElt, final String relativePath,
+                final ScannedFile scannedFile) {
+            this(classpathElt, relativePath, null, -1, null, scannedFile);
         }
     }
 
+    /**
+     * A whitelisted file found by rescan(), and the parser output for the file if it is a classfile, so that the
+     * next call to rescan() can reuse the parser output (and skip calling FileMatchProcessors) if the file has not
+     * changed. A file is considered unchanged if its last modified time and size are unchanged. The last modified
+     * time and size of a file within a jarfile are those of the jarfile.
+     */
+    private static class ScannedFile {
+        final long lastModified;
+        final long size;
+        /** True once the file has been scanned (and parsed, if it is a classfile). */
+        boolean scanned;
+        /** The parser output, or null if the file is not a classfile, or the classfile could not be parsed. */
+        ClassInfoUnlinked classInfoUnlinked;
+
+        public ScannedFile(final long lastModified, final long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /** Mark the file as scanned. Called by the parser threads for classfiles. */
+        public void setScanned(final ClassInfoUnlinked classInfoUnlinked) {
+            this.classInfoUnlinked = classInfoUnlinked;
+            this.scanned = true;
+        }
+    }
+
+    /**
+     * Record a whitelisted file found during a call to rescan(). Returns the ScannedFile from the previous call to
+     * rescan() if the file has not changed since then, otherwise a new ScannedFile. Returns null if the scan was
+     * not started by rescan().
+     */
+    private ScannedFile addScannedFile(final File classpathElt, final String relativePath,
+            final long lastModified, final long size) {
+        if (scannedFiles == null) {
+            return null;
+        }
+        Map<String, ScannedFile> eltScannedFiles = scannedFiles.get(classpathElt);
+        if (eltScannedFiles == null) {
+            scannedFiles.put(classpathElt, eltScannedFiles = new HashMap<>());
+        }
+        final Map<String, ScannedFile> prevEltScannedFiles = prevScannedFiles == null ? null
+                : prevScannedFiles.get(classpathElt);
+        final ScannedFile prevScannedFile = prevEltScannedFiles == null ? null
+                : prevEltScannedFiles.get(relativePath);
+        final ScannedFile scannedFile = prevScannedFile != null && prevScannedFile.lastModified == lastModified
+                && prevScannedFile.size == size && prevScannedFile.scanned ? prevScannedFile
+                        : new ScannedFile(lastModified, size);
+        eltScannedFiles.put(relativePath, scannedFile);
+        return scannedFile;
+    }
+
+    /**
+     * A reference-counted zipfile, shared between the classpath walker and all parser threads, so that each jar is
+     * opened (and its central directory is read) only once per scan, rather than once each time a parser thread
+     * switches to reading from a different jar. The walker holds one reference while it is scanning the jar's
+     * entries, and each ClassfileResource queued for parsing holds one reference. The zipfile is closed when the
+     * last reference is released.
+     * 
+     * The zipfile is read using MappedZipFile if possible, otherwise using java.util.zip.ZipFile. Entries are
+     * accessed by index in either case.
+     */
+    private static class SharedZipFile {
+        private final MappedZipFile mappedZipFile;
+        private final ZipFile zipFile;
+        private final ZipEntry[] zipEntries;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+        private final AtomicBoolean readByParser = new AtomicBoolean();
+
+        public SharedZipFile(final MappedZipFile mappedZipFile) {
+            this.mappedZipFile = mappedZipFile;
+            this.zipFile = null;
+            this.zipEntries = null;
+        }
+
+        public SharedZipFile(final ZipFile zipFile) {
+            this.mappedZipFile = null;
+            this.zipFile = zipFile;
+            this.zipEntries = Collections.list(zipFile.entries()).toArray(new ZipEntry[0]);
+        }
+
+        /** The number of entries in the zipfile. */
+        public int size() {
+            return mappedZipFile != null ? mappedZipFile.size() : zipEntries.length;
+        }
+
+        /** The name of the entry with the given index. */
+        public String getName(final int entryIdx) {
+            return mappedZipFile != null ? mappedZipFile.getName(entryIdx) : zipEntries[entryIdx].getName();
+        }
+
+        /**
+         * Returns false if the entry with the given index is definitely not whitelisted. Only memory-mapped
+         * zipfiles can be tested without decoding the entry name, otherwise true is returned.
+         */
+        public boolean mayBeWhitelisted(final int entryIdx, final ScanSpec scanSpec) {
+            return mappedZipFile == null || scanSpec.zipEntryMayBeWhitelisted(mappedZipFile, entryIdx);
+        }
+
+        /**
+         * Called when a parser thread switches to reading classfiles from this zipfile. Returns true if another
+         * parser thread (or this one, before switching to another zipfile) has already read from it, i.e. if the
+         * zipfile would have had to be opened again if it were not shared.
+         */
+        public boolean switchedToByParser() {
+            return readByParser.getAndSet(true);
+        }
+
+        /** Returns true if the entry with the given index is a directory. */
+        public boolean isDirectory(final int entryIdx) {
+            return mappedZipFile != null ? mappedZipFile.isDirectory(entryIdx) : zipEntries[entryIdx].isDirectory();
+        }
+
+        /** Returns true if the name of the entry with the given index is equal to the given UTF-8 encoded name. */
+        public boolean nameEquals(final int entryIdx, final byte[] name) {
+            if (mappedZipFile != null) {
+                return mappedZipFile.nameEquals(entryIdx, name);
+            }
+            String entryName = zipEntries[entryIdx].getName();
+            if (entryName.startsWith("/")) {
+                // Match the memory-mapped zipfile, which ignores a leading slash
+                entryName = entryName.substring(1);
+            }
+            // (A UTF-8 encoded name has at least as many bytes as chars, so longer names can't be equal)
+            return entryName.length() <= name.length
+                    && Arrays.equals(entryName.getBytes(StandardCharsets.UTF_8), name);
+        }
+
+        /** The CRC-32 checksum of the entry with the given index, or -1 if not known. */
+        public long getCrc(final int entryIdx) {
+            return mappedZipFile != null ? mappedZipFile.getCrc(entryIdx) : zipEntries[entryIdx].getCrc();
+        }
+
+        /** The uncompressed size of the entry with the given index. */
+        public long getSize(final int entryIdx) {
+            return mappedZipFile != null ? mappedZipFile.getSize(entryIdx) : zipEntries[entryIdx].getSize();
+        }
+
+        /**
+         * Open the entry with the given index. If the zipfile is memory mapped, the returned InputStream is only
+         * valid until the next call with the same EntryReader.
+         */
+        public InputStream getInputStream(final int entryIdx, final MappedZipFile.EntryReader entryReader)
+                throws IOException {
+            return mappedZipFile != null ? mappedZipFile.getInputStream(entryIdx, entryReader)
+                    : zipFile.getInputStream(zipEntries[entryIdx]);
+        }
+
+        /**
+         * Get the contents of the entry with the given index. The returned ByteBuffer is only valid until the next
+         * call with the same EntryReader.
+         */
+        public ByteBuffer getEntryBytes(final int entryIdx, final MappedZipFile.EntryReader entryReader)
+                throws IOException {
+            if (mappedZipFile != null) {
+                return mappedZipFile.getEntryBytes(entryIdx, entryReader);
+            }
+            final long size = zipEntries[entryIdx].getSize();
+            if (size < 0L || size > Integer.MAX_VALUE) {
+                throw new IOException("Unknown or unsupported size for zipfile entry " + getName(entryIdx));
+            }
+            try (InputStream inputStream = zipFile.getInputStream(zipEntries[entryIdx])) {
+                return entryReader.readFully(inputStream, (int) size, getName(entryIdx));
+            }
+        }
+
+        /** Add a reference to the zipfile. */
+        public SharedZipFile acquire() {
+            refCount.incrementAndGet();
+            return this;
+        }
+
+        /** Release a reference to the zipfile, closing the zipfile if this was the last reference. */
+        public void release() {
+            if (refCount.decrementAndGet() == 0) {
+                if (mappedZipFile != null) {
+                    mappedZipFile.close();
+                } else {
+                    try {
+                        zipFile.close();
+                    } catch (final IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+
+    /** Sentinel placed on the classfileResourcesToScan queue once the classpath walk has completed. */
+    private static final ClassfileResource END_OF_STREAM = new ClassfileResource(null, null, null);
+
     /**
      * Class for calling ClassfileBinaryParser in parallel for classfile resources. Consumes ClassfileResource
      * objects from the classfileResourcesToScan queue and produces ClassInfoUnlinked objects, placing them in the
-     * classInfoUnlinkedOut queue.
+     * classInfoUnlinkedOut queue. Blocks waiting for more work while the classpath walk is still running, and
+     * terminates once END_OF_STREAM is reached. Run by a thread started by the ParserThreadPool, or by a
+     * caller-supplied ExecutorService.
      */
-    private class ClassfileBinaryParserCaller extends Thread {
-        private final Queue<ClassfileResource> classpathResources;
+    private class ClassfileBinaryParserCaller implements Runnable {
+        private final ParserThreadPool parserThreadPool;
+        private final BlockingQueue<ClassfileResource> classpathResources;
         private final Queue<ClassInfoUnlinked> classInfoUnlinkedOut;
-        private final ConcurrentHashMap<String, String> stringInternMap;
+        private final SymbolTable symbolTable;
         private final DeferredLog log;
-
-        public ClassfileBinaryParserCaller(final Queue<ClassfileResource> classfileResourcesToScan,
-                final Queue<ClassInfoUnlinked> classInfoUnlinkedOut,
-                final ConcurrentHashMap<String, String> stringInternMap, final DeferredLog log) {
-            this.classpathResources = classfileResourcesToScan;
-            this.classInfoUnlinkedOut = classInfoUnlinkedOut;
-            this.stringInternMap = stringInternMap;
+        /** If false, this parser is never retired by the ParserThreadPool before END_OF_STREAM is reached. */
+        private final boolean canRetire;
+
+        public ClassfileBinaryParserCaller(final ParserThreadPool parserThreadPool, final DeferredLog log,
+                final boolean canRetire) {
+            this.parserThreadPool = parserThreadPool;
+            this.classpathResources = parserThreadPool.classfileResourcesToScan;
+            this.classInfoUnlinkedOut = parserThreadPool.classInfoUnlinkedOut;
+            this.symbolTable = parserThreadPool.symbolTable;
             this.log = log;
-            // Kill this thread if the main thread dies unexpectedly
-            setDaemon(true);
+            this.canRetire = canRetire;
+        }
+
+        /**
+         * Parse a classfile. If the parser is going to read the whole classfile anyway (i.e. if class annotations
+         * or methods, which are stored at the end of the classfile, are needed), the whole classfile is read into a
+         * ByteBuffer or mapped, and parsed without any buffer refills. Otherwise the classfile is parsed from an
+         * InputStream, so that the parser can stop reading (and inflating) the classfile once it has read the parts
+         * it needs.
+         */
+        private ClassInfoUnlinked parseClassfile(final ClassfileResource classfileResource,
+                final ClassfileBinaryParser classfileBinaryParser, final MappedZipFile.EntryReader entryReader)
+                throws IOException {
+            final SharedZipFile sharedZipFile = classfileResource.sharedZipFile;
+            final int zipEntryIdx = classfileResource.zipEntryIdx;
+            final File classfile = sharedZipFile != null ? null
+                    : new File(classfileResource.classpathElt.getPath() + File.separator
+                            + (File.separatorChar == '/' ? classfileResource.relativePath
+                                    : classfileResource.relativePath.replace('/', File.separatorChar)));
+            // (The size of an entry read with ZipFile may not be known in advance)
+            if ((scanSpec.parseClassAnnotations() || scanSpec.enableMethodInfo)
+                    && (sharedZipFile == null || sharedZipFile.getSize(zipEntryIdx) >= 0)) {
+                final ByteBuffer classfileBytes = sharedZipFile != null
+                        ? sharedZipFile.getEntryBytes(zipEntryIdx, entryReader) : readFile(classfile, entryReader);
+                return classfileBinaryParser.readClassInfoFromClassfileHeader(classfileBytes,
+                        classfileResource.relativePath, classNameToStaticFinalFieldsToMatch, symbolTable);
+            }
+            try (InputStream inputStream = sharedZipFile != null
+                    ? sharedZipFile.getInputStream(zipEntryIdx, entryReader) : new FileInputStream(classfile)) {
+                return classfileBinaryParser.readClassInfoFromClassfileHeader(inputStream,
+                        classfileResource.relativePath, classNameToStaticFinalFieldsToMatch, symbolTable);
+            }
         }
 
         @Override
         public void run() {
-            ZipFile currentlyOpenZipFile = null;
-            try {
+            if (!parserThreadPool.parserStarted()) {
+                // Parsing has already finished
+                return;
+            }
+            // Set to true if this parser is retired by the ParserThreadPool before the end of the stream
+            boolean retired = false;
+            try (MappedZipFile.EntryReader entryReader = new MappedZipFile.EntryReader()) {
+                final ThreadMXBean threadMXBean = parserThreadPool.threadMXBean;
+                long wallTimeNanos = 0L, cpuTimeNanos = 0L;
+                int numClassfilesSinceAdjust = 0;
                 ClassfileResource prevClassfileResource = null;
                 // Reuse one ClassfileBinaryParser for all classfiles parsed by a given thread, to avoid
                 // the overhead of re-allocating buffers between classfiles.
                 final ClassfileBinaryParser classfileBinaryParser = new ClassfileBinaryParser(scanSpec, log);
                 for (ClassfileResource classfileResource; (classfileResource = classpathResources
-                        .poll()) != null; prevClassfileResource = classfileResource) {
-                    final long fileStartTime = System.nanoTime();
-                    final boolean classfileResourceIsJar = classfileResource.classpathElt.isFile();
-                    // Compare classpath element of current resource to that of previous resource
-                    if (prevClassfileResource == null
-                            || classfileResource.classpathElt != prevClassfileResource.classpathElt) {
-                        // Classpath element has changed
-                        if (currentlyOpenZipFile != null) {
-                            // Close previous zipfile, if one is open
-                            try {
-                                currentlyOpenZipFile.close();
-                            } catch (final IOException e) {
-                                // Ignore
-                            }
-                            currentlyOpenZipFile = null;
+                        .take()) != END_OF_STREAM; prevClassfileResource = classfileResource) {
+                    if (isScanCancelled()) {
+                        // Skip the remaining classfiles, since the results of the scan will be discarded
+                        if (classfileResource.sharedZipFile != null) {
+                            classfileResource.sharedZipFile.release();
                         }
-                        if (classfileResourceIsJar) {
-                            // Open a new zipfile, if new resource is a jar
-                            try {
-                                currentlyOpenZipFile = new ZipFile(classfileResource.classpathElt);
-                            } catch (final IOException e) {
-                                if (FastClasspathScanner.verbose) {
-                                    log.log(2, "Exception while trying to open " + classfileResource.classpathElt
-                                            + ": " + e);
-                                }
-                                continue;
-                            }
+                        continue;
+                    }
+                    final long fileStartTime = System.nanoTime();
+                    final long fileStartCpuTime = threadMXBean == null ? 0L
+                            : threadMXBean.getCurrentThreadCpuTime();
+                    final SharedZipFile sharedZipFile = classfileResource.sharedZipFile;
+                    if (sharedZipFile != null && (prevClassfileResource == null
+                            || classfileResource.classpathElt != prevClassfileResource.classpathElt)) {
+                        // Switched to a different jar -- the zipfile is already open, so it doesn't have to be
+                        // reopened by this thread. (The first switch to each jar isn't counted, since the jar
+                        // would have had to be opened once anyway.)
+                        if (sharedZipFile.switchedToByParser()) {
+                            numZipFileOpensSaved.incrementAndGet();
                         }
                     }
-                    // Get input stream from classpath element and relative path
-                    try (InputStream inputStream = classfileResourceIsJar
-                            ? currentlyOpenZipFile
-                                    .getInputStream(currentlyOpenZipFile.getEntry(classfileResource.relativePath))
-                            : new FileInputStream(classfileResource.classpathElt.getPath() + File.separator
-                                    + (File.separatorChar == '/' ? classfileResource.relativePath
-                                            : classfileResource.relativePath.replace('/', File.separatorChar)))) {
+                    try {
                         // Parse classpath binary format, creating a ClassInfoUnlinked object
-                        final ClassInfoUnlinked thisClassInfoUnlinked = classfileBinaryParser
-                                .readClassInfoFromClassfileHeader(inputStream, classfileResource.relativePath,
-                                        classNameToStaticFinalFieldsToMatch, stringInternMap);
+                        final ClassInfoUnlinked thisClassInfoUnlinked = parseClassfile(classfileResource,
+                                classfileBinaryParser, entryReader);
+                        numClassfilesParsed.incrementAndGet();
+                        if (classfileResource.cachedJar != null) {
+                            classfileResource.cachedJar.addParsedClassfile(classfileResource.relativePath,
+                                    thisClassInfoUnlinked);
+                        }
+                        if (classfileResource.scannedFile != null) {
+                            classfileResource.scannedFile.setScanned(thisClassInfoUnlinked);
+                        }
                         // If class was successfully read, add new ClassInfoUnlinked object to output queue
                         if (thisClassInfoUnlinked != null) {
-                            classInfoUnlinkedOut.add(thisClassInfoUnlinked);
+                            addClassInfoUnlinked(thisClassInfoUnlinked, classInfoUnlinkedOut);
                             // Log info about class
                             thisClassInfoUnlinked.logClassInfo(log);
                         }
@@ -304,23 +686,221 @@ public class RecursiveScanner {
                             log.log(2,
                                     "Exception while trying to open " + classfileResource.relativePath + ": " + e);
                         }
+                    } finally {
+                        if (sharedZipFile != null) {
+                            sharedZipFile.release();
+                        }
                     }
+                    final long fileEndTime = System.nanoTime();
                     if (FastClasspathScanner.verbose) {
                         log.log(3, "Parsed classfile " + classfileResource.relativePath,
-                                System.nanoTime() - fileStartTime);
+                                fileEndTime - fileStartTime);
+                    }
+                    if (threadMXBean != null) {
+                        // Measure the time spent opening, reading and parsing the classfile, and the CPU time
+                        // used (the difference is the time spent waiting for I/O)
+                        wallTimeNanos += fileEndTime - fileStartTime;
+                        cpuTimeNanos += threadMXBean.getCurrentThreadCpuTime() - fileStartCpuTime;
+                        if (++numClassfilesSinceAdjust == ADJUST_NUM_THREADS_INTERVAL) {
+                            retired = parserThreadPool.adjustNumThreads(wallTimeNanos, cpuTimeNanos, canRetire,
+                                    log);
+                            if (retired) {
+                                break;
+                            }
+                            wallTimeNanos = cpuTimeNanos = 0L;
+                            numClassfilesSinceAdjust = 0;
+                        }
                     }
                 }
+            } catch (final InterruptedException e) {
+                // Scan was aborted
+                Thread.currentThread().interrupt();
             } finally {
-                if (currentlyOpenZipFile != null) {
-                    // Close last zipfile
+                if (!retired) {
+                    // Put END_OF_STREAM back on the queue, so that the other parser threads also terminate
+                    classpathResources.add(END_OF_STREAM);
+                }
+                parserThreadPool.parserFinished();
+            }
+        }
+    }
+
+    /**
+     * The ClassfileBinaryParserCaller threads for one scan. Parsers are run on threads started by the pool, or on a
+     * caller-supplied ExecutorService. If the number of threads is set in the ScanSpec, that number of parsers is
+     * started. Otherwise the pool starts with one parser per processor, and the number of parsers is adjusted as
+     * the scan proceeds: the ideal number of threads for a mix of I/O and computation is approximately
+     * numProcessors * (1 + waitTime / computeTime), so each parser periodically reports the time it spent reading
+     * and parsing classfiles, and the CPU time it used, and parsers are added (if there is a backlog of classfiles
+     * waiting to be parsed) or retired to approach the ideal number.
+     * 
+     * Once the classpath walk is complete, the thread that started the scan also parses classfiles until the queue
+     * is empty, so that parsing completes even if the ExecutorService is saturated, or never runs the parsers at all
+     * (e.g. if the scan itself is running on the only thread of the ExecutorService).
+     */
+    private class ParserThreadPool {
+        private final BlockingQueue<ClassfileResource> classfileResourcesToScan;
+        private final Queue<ClassInfoUnlinked> classInfoUnlinkedOut;
+        private final SymbolTable symbolTable;
+        private final ExecutorService executorService;
+        private final int numProcessors = Runtime.getRuntime().availableProcessors();
+        private final int initialNumThreads;
+        private final int maxNumThreads;
+
+        /** Used to measure per-thread CPU time in automatic mode, or null if the number of threads is fixed. */
+        final ThreadMXBean threadMXBean;
+
+        /** The log for each parser that has been created, in order of creation. */
+        private final List<DeferredLog> logs = new ArrayList<>();
+        /** The number of parsers that have been started and have not been retired. */
+        private int numActiveThreads;
+        private int peakNumActiveThreads;
+        /** The number of parsers that are currently running. */
+        private int numRunningParsers;
+        /** Set to true once parsing has finished, so that parsers that start running after this don't run. */
+        private boolean finished;
+
+        /** Exponentially-decaying totals of the time reported by parser threads. */
+        private long totalWallTimeNanos, totalCpuTimeNanos;
+
+        public ParserThreadPool(final BlockingQueue<ClassfileResource> classfileResourcesToScan,
+                final Queue<ClassInfoUnlinked> classInfoUnlinkedOut,
+                final SymbolTable symbolTable, final ExecutorService executorService) {
+            this.classfileResourcesToScan = classfileResourcesToScan;
+            this.classInfoUnlinkedOut = classInfoUnlinkedOut;
+            this.symbolTable = symbolTable;
+            this.executorService = executorService;
+            ThreadMXBean mxBean = null;
+            if (scanSpec.numThreads > 0) {
+                initialNumThreads = maxNumThreads = scanSpec.numThreads;
+            } else {
+                initialNumThreads = numProcessors;
+                maxNumThreads = numProcessors * MAX_THREADS_PER_PROCESSOR;
+                mxBean = ManagementFactory.getThreadMXBean();
+                if (!mxBean.isCurrentThreadCpuTimeSupported() || !mxBean.isThreadCpuTimeEnabled()) {
+                    // Can't measure CPU time, so the number of threads can't be adapted
+                    mxBean = null;
+                }
+            }
+            threadMXBean = mxBean;
+        }
+
+        /** Start a new parser. */
+        private synchronized void startParser() {
+            final DeferredLog log = new DeferredLog();
+            final ClassfileBinaryParserCaller parser = new ClassfileBinaryParserCaller(this, log,
+                    /* canRetire = */ true);
+            logs.add(log);
+            numActiveThreads++;
+            peakNumActiveThreads = Math.max(peakNumActiveThreads, numActiveThreads);
+            if (executorService == null) {
+                final Thread thread = new Thread(parser);
+                // Kill this thread if the main thread dies unexpectedly
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                try {
+                    executorService.execute(parser);
+                } catch (final RejectedExecutionException e) {
+                    // The classfiles will be parsed by the thread that started the scan
+                    numActiveThreads--;
+                }
+            }
+        }
+
+        /** Start the initial set of parsers. */
+        public synchronized void start() {
+            for (int i = 0; i < initialNumThreads; i++) {
+                startParser();
+            }
+        }
+
+        /** Called when a parser starts running. Returns false if the parser should not run. */
+        private synchronized boolean parserStarted() {
+            if (finished) {
+                return false;
+            }
+            numRunningParsers++;
+            return true;
+        }
+
+        /** Called when a parser that started running has terminated. */
+        private synchronized void parserFinished() {
+            numRunningParsers--;
+            notifyAll();
+        }
+
+        /**
+         * Called periodically by each parser in automatic mode, to report the time spent parsing classfiles and the
+         * CPU time used since the last report. Starts another parser if more threads are needed, and returns true if
+         * the calling parser should be retired because there are too many threads (if canRetire is true).
+         */
+        public synchronized boolean adjustNumThreads(final long wallTimeNanos, final long cpuTimeNanos,
+                final boolean canRetire, final DeferredLog log) {
+            totalWallTimeNanos = totalWallTimeNanos - (totalWallTimeNanos >> 2) + wallTimeNanos;
+            totalCpuTimeNanos = totalCpuTimeNanos - (totalCpuTimeNanos >> 2) + cpuTimeNanos;
+            if (totalCpuTimeNanos <= 0L) {
+                return false;
+            }
+            // If there are more active threads (including the thread walking the classpath) than processors,
+            // threads also spend time waiting for a processor, which should not be counted as I/O wait time
+            final double cpuContention = Math.max(1.0, (numActiveThreads + 1) / (double) numProcessors);
+            final double waitToComputeRatio = Math.max(0.0,
+                    (totalWallTimeNanos - totalCpuTimeNanos * cpuContention) / totalCpuTimeNanos);
+            final int targetNumThreads = Math.max(1,
+                    Math.min(maxNumThreads, (int) Math.round(numProcessors * (1.0 + waitToComputeRatio))));
+            if (numActiveThreads < targetNumThreads && classfileResourcesToScan.size() > numActiveThreads) {
+                startParser();
+                if (FastClasspathScanner.verbose) {
+                    log.log(2, "Increased number of parser threads to " + numActiveThreads);
+                }
+            } else if (canRetire && numActiveThreads > targetNumThreads + 1) {
+                // Only retire a thread if there is more than one thread too many, to avoid thrashing
+                numActiveThreads--;
+                if (FastClasspathScanner.verbose) {
+                    log.log(2, "Decreased number of parser threads to " + numActiveThreads);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Called by the thread that started the scan, after END_OF_STREAM has been queued. Parses any remaining
+         * classfiles on the calling thread, then waits for all running parsers to terminate, and flushes their logs.
+         */
+        public void finish() {
+            final DeferredLog log = new DeferredLog();
+            synchronized (this) {
+                logs.add(log);
+            }
+            new ClassfileBinaryParserCaller(this, log, /* canRetire = */ false).run();
+            boolean interrupted = false;
+            synchronized (this) {
+                finished = true;
+                while (numRunningParsers > 0) {
                     try {
-                        currentlyOpenZipFile.close();
-                    } catch (final IOException e) {
-                        // Ignore
+                        wait();
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
                     }
-                    currentlyOpenZipFile = null;
                 }
             }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            // Dump out any log output that was added by the parsers
+            for (int i = 0; i < logs.size(); i++) {
+                if (FastClasspathScanner.verbose) {
+                    Log.log(1, "Parallel scan logs from thread " + i + ":");
+                }
+                logs.get(i).flush();
+            }
+        }
+
+        /** The maximum number of parser threads that were active at the same time. */
+        public synchronized int getPeakNumThreads() {
+            return peakNumActiveThreads;
         }
     }
 
@@ -352,50 +932,271 @@ public class RecursiveScanner {
     // -------------------------------------------------------------------------------------------------------------
 
     /**
-     * Scan a directory for matching file path patterns.
+     * A whitelisted file or a subdirectory found by a ScanDirTask. Exactly one of file and subdirTask is non-null.
      */
-    private void scanDir(final File classpathElt, final File dir, final int ignorePrefixLen,
-            boolean inWhitelistedPath, final boolean scanTimestampsOnly,
-            final Queue<ClassfileResource> classfileResourcesToScanOut) {
-        if (FastClasspathScanner.verbose) {
-            Log.log(3, "Scanning directory: " + dir);
-        }
-        updateLastModifiedTimestamp(dir.lastModified());
-        numDirsScanned.incrementAndGet();
-
-        final String dirPath = dir.getPath();
-        final String dirRelativePath = ignorePrefixLen > dirPath.length() ? "/" //
-                : dirPath.substring(ignorePrefixLen).replace(File.separatorChar, '/') + "/";
-        final ScanSpecPathMatch matchStatus = scanSpec.pathWhitelistMatchStatus(dirRelativePath);
-        if (matchStatus == ScanSpecPathMatch.NOT_WITHIN_WHITELISTED_PATH
-                || matchStatus == ScanSpecPathMatch.WITHIN_BLACKLISTED_PATH) {
-            // Reached a non-whitelisted or blacklisted path -- stop the recursive scan
-            if (FastClasspathScanner.verbose) {
-                Log.log(3, "Reached non-whitelisted (or blacklisted) directory: " + dirRelativePath);
+    private static class WalkedDirEntry {
+        /** The whitelisted file, or null if this entry is a subdirectory. */
+        final File file;
+
+        /** The path of the file relative to the classpath element. */
+        final String relativePath;
+
+        /**
+         * The file key of the file if available, otherwise its canonical path, or null if neither could be
+         * determined.
+         */
+        final Object fileIdentity;
+
+        /** The last modified timestamp of the file. */
+        final long lastModified;
+
+        /** The size of the file, or -1 if the size has not been read yet. */
+        final long size;
+
+        /** The task that walked the subdirectory, or null if this entry is a file. */
+        final ScanDirTask subdirTask;
+
+        public WalkedDirEntry(final File file, final String relativePath, final Object fileIdentity,
+                final long lastModified, final long size) {
+            this.file = file;
+            this.relativePath = relativePath;
+            this.fileIdentity = fileIdentity;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.subdirTask = null;
+        }
+
+        public WalkedDirEntry(final ScanDirTask subdirTask) {
+            this.file = null;
+            this.relativePath = null;
+            this.fileIdentity = null;
+            this.lastModified = 0L;
+            this.size = -1L;
+            this.subdirTask = subdirTask;
+        }
+    }
+
+    /**
+     * The state of a parallel walk of a directory tree. ScanDirTasks never block waiting for other tasks: each task
+     * lists one directory, and submits a new task for each whitelisted subdirectory. Tasks are queued in taskQueue,
+     * and for each task queued, a request to run one task from the queue is submitted to the executor. The thread
+     * that started the walk also runs queued tasks while it waits for the walk to complete, so the walk completes
+     * even if the executor is saturated, or never runs the requests at all (e.g. if the walk was started by the
+     * only thread of the executor).
+     */
+    private static class DirWalk {
+        private final Executor executor;
+        private final LinkedBlockingDeque<Runnable> taskQueue = new LinkedBlockingDeque<>();
+        private final AtomicInteger numPendingTasks = new AtomicInteger();
+        private final AtomicLong maxLastModified = new AtomicLong();
+        private volatile RuntimeException exception;
+
+        /** Placed at the head of taskQueue once all tasks have completed. */
+        private static final Runnable WALK_COMPLETE = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        /** Run one task from the task queue, if any task is queued. */
+        private final Runnable runQueuedTask = new Runnable() {
+            @Override
+            public void run() {
+                final Runnable task = taskQueue.pollFirst();
+                if (task == WALK_COMPLETE) {
+                    taskQueue.addFirst(task);
+                } else if (task != null) {
+                    runTask(task);
+                }
             }
-            return;
-        } else if (matchStatus == ScanSpecPathMatch.WITHIN_WHITELISTED_PATH) {
-            // Reached a whitelisted path -- can start scanning directories and files from this point
-            inWhitelistedPath = true;
+        };
+
+        public DirWalk(final Executor executor) {
+            this.executor = executor;
         }
 
-        final long startTime = System.nanoTime();
-        final File[] filesInDir = dir.listFiles();
-        if (filesInDir == null) {
+        /** Queue a task, and ask the executor to run it. */
+        public void submit(final Runnable task) {
+            numPendingTasks.incrementAndGet();
+            // Tasks are run in LIFO order, which gives a roughly depth-first walk and keeps the queue short
+            taskQueue.addFirst(task);
+            try {
+                executor.execute(runQueuedTask);
+            } catch (final RejectedExecutionException e) {
+                // The task will be run by the thread waiting for the walk to complete
+            }
+        }
+
+        private void runTask(final Runnable task) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            } finally {
+                if (numPendingTasks.decrementAndGet() == 0) {
+                    taskQueue.addFirst(WALK_COMPLETE);
+                }
+            }
+        }
+
+        /** Record the last modified timestamp of a directory. */
+        public void updateLastModified(final long lastModified) {
+            for (long curr; lastModified > (curr = maxLastModified.get());) {
+                if (maxLastModified.compareAndSet(curr, lastModified)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Submit the root task of the walk, then help to run queued tasks until all tasks have completed. Returns the
+         * latest last modified timestamp of any directory in the walk.
+         */
+        public long walk(final Runnable rootTask) {
+            submit(rootTask);
+            try {
+                for (Runnable task; (task = taskQueue.takeFirst()) != WALK_COMPLETE;) {
+                    runTask(task);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while walking directories", e);
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            return maxLastModified.get();
+        }
+    }
+
+    /**
+     * Walks a directory, and submits a ScanDirTask to the DirWalk for each whitelisted subdirectory, so that
+     * directories are walked in parallel. All the filesystem calls (listing, stat, file identification) are
+     * performed in the walk, but the walk itself has no side effects: whitelisted files and subdirectory tasks are
+     * recorded in directory listing order, so that classpath masking can be applied afterwards by mergeWalkedDir()
+     * in exactly the same order as a sequential depth-first walk.
+     * 
+     * If ScanSpec.nioDirectoryTraversal is true, the attributes of each directory entry are read with a single
+     * Files.readAttributes() call, rather than with separate calls to File.isDirectory(), File.isFile(),
+     * File.lastModified() and File.length().
+     */
+    private class ScanDirTask implements Runnable {
+        private final DirWalk dirWalk;
+        private final File classpathElt;
+        private final File dir;
+        /** The last modified timestamp of dir, or -1 if it has not been read yet. */
+        private final long dirLastModified;
+        private final int ignorePrefixLen;
+        private final boolean parentInWhitelistedPath;
+
+        private String dirRelativePath;
+        private ScanSpecPathMatch matchStatus;
+        private boolean inWhitelistedPath;
+
+        /** The whitelisted files and subdirectories of this directory, in directory listing order. */
+        final List<WalkedDirEntry> entries = new ArrayList<>();
+
+        /** Log entries for this directory, flushed in walk order by mergeWalkedDir(). */
+        final DeferredLog log = new DeferredLog();
+
+        /** The time taken to walk this directory. */
+        long walkTimeNanos;
+
+        public ScanDirTask(final DirWalk dirWalk, final File classpathElt, final File dir,
+                final long dirLastModified, final int ignorePrefixLen, final boolean parentInWhitelistedPath) {
+            this.dirWalk = dirWalk;
+            this.classpathElt = classpathElt;
+            this.dir = dir;
+            this.dirLastModified = dirLastModified;
+            this.ignorePrefixLen = ignorePrefixLen;
+            this.parentInWhitelistedPath = parentInWhitelistedPath;
+        }
+
+        @Override
+        public void run() {
+            if (isScanCancelled()) {
+                return;
+            }
             if (FastClasspathScanner.verbose) {
-                Log.log(4, "Invalid directory " + dir);
+                log.log(3, "Scanning directory: " + dir);
+            }
+            dirWalk.updateLastModified(dirLastModified >= 0L ? dirLastModified : dir.lastModified());
+            numDirsScanned.incrementAndGet();
+
+            final String dirPath = dir.getPath();
+            dirRelativePath = ignorePrefixLen > dirPath.length() ? "/" //
+                    : dirPath.substring(ignorePrefixLen).replace(File.separatorChar, '/') + "/";
+            matchStatus = scanSpec.pathWhitelistMatchStatus(dirRelativePath);
+            inWhitelistedPath = parentInWhitelistedPath;
+            if (matchStatus == ScanSpecPathMatch.NOT_WITHIN_WHITELISTED_PATH
+                    || matchStatus == ScanSpecPathMatch.WITHIN_BLACKLISTED_PATH) {
+                // Reached a non-whitelisted or blacklisted path -- stop the recursive scan
+                if (FastClasspathScanner.verbose) {
+                    log.log(3, "Reached non-whitelisted (or blacklisted) directory: " + dirRelativePath);
+                }
+                return;
+            } else if (matchStatus == ScanSpecPathMatch.WITHIN_WHITELISTED_PATH) {
+                // Reached a whitelisted path -- can start scanning directories and files from this point
+                inWhitelistedPath = true;
+            }
+
+            final long startTime = System.nanoTime();
+            if (classpathWatcher != null) {
+                // Watch the directory before listing it, so that no subsequent change can be missed
+                classpathWatcher.watchDir(classpathElt, dir, dirRelativePath, inWhitelistedPath);
             }
-            return;
+            if (scanSpec.nioDirectoryTraversal) {
+                try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir.toPath())) {
+                    for (final Path pathInDir : dirStream) {
+                        BasicFileAttributes attrs;
+                        try {
+                            // Follows symlinks, like File.isDirectory() and File.isFile()
+                            attrs = Files.readAttributes(pathInDir, BasicFileAttributes.class);
+                        } catch (final IOException | SecurityException e) {
+                            // e.g. a broken symlink -- File.isDirectory() and File.isFile() would return false
+                            continue;
+                        }
+                        addEntry(pathInDir.toFile(), attrs);
+                    }
+                } catch (final IOException | SecurityException | InvalidPathException e) {
+                    if (FastClasspathScanner.verbose) {
+                        log.log(4, "Invalid directory " + dir);
+                    }
+                    return;
+                }
+            } else {
+                final File[] filesInDir = dir.listFiles();
+                if (filesInDir == null) {
+                    if (FastClasspathScanner.verbose) {
+                        log.log(4, "Invalid directory " + dir);
+                    }
+                    return;
+                }
+                for (final File fileInDir : filesInDir) {
+                    addEntry(fileInDir, /* attrs = */ null);
+                }
+            }
+            walkTimeNanos = System.nanoTime() - startTime;
         }
-        for (final File fileInDir : filesInDir) {
-            if (fileInDir.isDirectory()) {
-                if (inWhitelistedPath //
-                        || matchStatus == ScanSpecPathMatch.ANCESTOR_OF_WHITELISTED_PATH) {
-                    // Recurse into subdirectory
-                    scanDir(classpathElt, fileInDir, ignorePrefixLen, inWhitelistedPath, scanTimestampsOnly,
-                            classfileResourcesToScanOut);
+
+        /**
+         * Record an entry of this directory if it is a whitelisted file, or submit a task to walk it if it is a
+         * subdirectory that may contain whitelisted files. If attrs is null, the attributes of the entry are read
+         * using java.io.File.
+         */
+        private void addEntry(final File fileInDir, final BasicFileAttributes attrs) {
+            if (attrs != null ? attrs.isDirectory() : fileInDir.isDirectory()) {
+                if (inWhitelistedPath || matchStatus == ScanSpecPathMatch.ANCESTOR_OF_WHITELISTED_PATH) {
+                    // Walk subdirectory in parallel
+                    final ScanDirTask subdirTask = new ScanDirTask(dirWalk, classpathElt, fileInDir,
+                            attrs != null ? attrs.lastModifiedTime().toMillis() : -1L, ignorePrefixLen,
+                            inWhitelistedPath);
+                    entries.add(new WalkedDirEntry(subdirTask));
+                    dirWalk.submit(subdirTask);
                 }
-            } else if (fileInDir.isFile()) {
+            } else if (attrs != null ? attrs.isRegularFile() : fileInDir.isFile()) {
                 final String fileInDirRelativePath = dirRelativePath.isEmpty() || "/".equals(dirRelativePath)
                         ? fileInDir.getName() : dirRelativePath + fileInDir.getName();
 
@@ -405,90 +1206,194 @@ public class RecursiveScanner {
                         || !scanSpec.isSpecificallyWhitelistedClass(fileInDirRelativePath))) {
                     // Ignore files that are siblings of specifically-whitelisted files, but that are not
                     // themselves specifically whitelisted
-                    continue;
+                    return;
                 }
 
-                // Make sure file with same absolute path or same relative path hasn't been scanned before.
-                // (N.B. don't inline these two different calls to previouslyScanned() into a single expression
-                // using "||", because they have intentional side effects)
-                final boolean subFilePreviouslyScannedCanonical = previouslyScanned(fileInDir);
-                final boolean subFilePreviouslyScannedRelative = previouslyScanned(fileInDirRelativePath);
-                if (subFilePreviouslyScannedRelative || subFilePreviouslyScannedCanonical) {
-                    if (FastClasspathScanner.verbose) {
-                        Log.log(3, "Reached duplicate path, ignoring: " + fileInDirRelativePath);
+                // Identify the file here, in parallel, so that mergeWalkedDir() only has to check for duplicates.
+                // The file key is read along with the other attributes, and unlike the canonical path, does not
+                // require each component of the path to be resolved.
+                Object fileIdentity = attrs != null ? attrs.fileKey() : null;
+                if (fileIdentity == null) {
+                    try {
+                        fileIdentity = fileInDir.getCanonicalPath();
+                    } catch (final IOException | SecurityException e) {
+                        fileIdentity = null;
                     }
-                    continue;
                 }
+                entries.add(new WalkedDirEntry(fileInDir, fileInDirRelativePath, fileIdentity,
+                        attrs != null ? attrs.lastModifiedTime().toMillis() : fileInDir.lastModified(),
+                        attrs != null ? attrs.size() : -1L));
+            }
+        }
+    }
 
-                if (FastClasspathScanner.verbose) {
-                    Log.log(3, "Found whitelisted file: " + fileInDirRelativePath);
-                }
-                updateLastModifiedTimestamp(fileInDir.lastModified());
+    /** Files at least this large are memory-mapped by readFile(), rather than being read into a reused buffer. */
+    private static final int MIN_MAPPED_FILE_SIZE = 64 * 1024;
 
-                if (!scanTimestampsOnly) {
-                    boolean matchedFile = false;
+    /**
+     * Read the contents of a file for a FileMatchBufferProcessorWrapper. Large files are memory-mapped; small files
+     * (for which mapping costs more than copying) are read into the buffer of the EntryReader, so that no memory is
+     * allocated for them. The returned ByteBuffer is only valid until the next call with the same EntryReader.
+     */
+    private static ByteBuffer readFile(final File file, final MappedZipFile.EntryReader entryReader)
+            throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = fileChannel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File larger than 2GB, cannot read contents into a ByteBuffer: " + file);
+            } else if (size >= MIN_MAPPED_FILE_SIZE) {
+                return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            } else {
+                return entryReader.readFully(Channels.newInputStream(fileChannel), (int) size, file.getPath());
+            }
+        }
+    }
 
-                    // Store relative paths of any classfiles encountered
-                    if (fileInDirRelativePath.endsWith(".class")) {
-                        matchedFile = true;
-                        classfileResourcesToScanOut.add(new ClassfileResource(classpathElt, fileInDirRelativePath));
-                        numClassfilesScanned.incrementAndGet();
-                    }
+    /**
+     * Apply classpath masking to the files found by a ScanDirTask and its subdirectory tasks, and call file
+     * MatchProcessors on any matches.
+     */
+    private void mergeWalkedDir(final File classpathElt, final ScanDirTask walkedDir,
+            final boolean scanTimestampsOnly, final Queue<ClassfileResource> classfileResourcesToScanOut,
+            final Queue<ClassInfoUnlinked> classInfoUnlinkedOut) {
+        walkedDir.log.flush();
+        for (final WalkedDirEntry entry : walkedDir.entries) {
+            if (entry.subdirTask != null) {
+                mergeWalkedDir(classpathElt, entry.subdirTask, scanTimestampsOnly, classfileResourcesToScanOut,
+                        classInfoUnlinkedOut);
+                continue;
+            }
+            final File fileInDir = entry.file;
+            final String fileInDirRelativePath = entry.relativePath;
+
+            // Make sure the same file (possibly reached through a symlink) or a file with the same relative path
+            // hasn't been scanned before.
+            // (N.B. don't inline these two different calls to previouslyScanned() into a single expression
+            // using "||", because they have intentional side effects)
+            final boolean subFilePreviouslyScannedIdentity = entry.fileIdentity == null
+                    || !previouslyScannedFileIdentities.add(entry.fileIdentity);
+            final boolean subFilePreviouslyScannedRelative = previouslyScanned(fileInDirRelativePath);
+            if (subFilePreviouslyScannedRelative || subFilePreviouslyScannedIdentity) {
+                if (FastClasspathScanner.verbose) {
+                    Log.log(3, "Reached duplicate path, ignoring: " + fileInDirRelativePath);
+                }
+                continue;
+            }
 
-                    // Match file paths against path patterns
-                    for (final FilePathTesterAndMatchProcessorWrapper fileMatcher : //
-                    filePathTestersAndMatchProcessorWrappers) {
-                        if (fileMatcher.filePathTester.filePathMatches(classpathElt, fileInDirRelativePath)) {
-                            // File's relative path matches.
-                            matchedFile = true;
-                            final long fileStartTime = System.nanoTime();
-                            try (FileInputStream inputStream = new FileInputStream(fileInDir)) {
-                                fileMatcher.fileMatchProcessorWrapper.processMatch(classpathElt,
-                                        fileInDirRelativePath, inputStream, fileInDir.length());
-                            } catch (final Exception e) {
-                                throw new RuntimeException(
-                                        "Exception while processing match " + fileInDirRelativePath, e);
-                            }
-                            if (FastClasspathScanner.verbose) {
-                                Log.log(4, "Processed file match " + fileInDirRelativePath,
-                                        System.nanoTime() - fileStartTime);
-                            }
+            if (FastClasspathScanner.verbose) {
+                Log.log(3, "Found whitelisted file: " + fileInDirRelativePath);
+            }
+            updateLastModifiedTimestamp(entry.lastModified);
+
+            if (!scanTimestampsOnly) {
+                boolean matchedFile = false;
+
+                // If called by rescan(), check if the file has changed since the previous call to rescan()
+                final ScannedFile scannedFile = addScannedFile(classpathElt, fileInDirRelativePath,
+                        entry.lastModified, entry.size);
+                final boolean unchanged = scannedFile != null && scannedFile.scanned;
+
+                // Store relative paths of any classfiles encountered
+                if (fileInDirRelativePath.endsWith(".class")) {
+                    matchedFile = true;
+                    if (unchanged) {
+                        // Reuse the parser output from the previous call to rescan()
+                        if (scannedFile.classInfoUnlinked != null) {
+                            addClassInfoUnlinked(scannedFile.classInfoUnlinked, classInfoUnlinkedOut);
                         }
+                    } else {
+                        classfileResourcesToScanOut
+                                .add(new ClassfileResource(classpathElt, fileInDirRelativePath, scannedFile));
                     }
-                    if (matchedFile) {
-                        numFilesScanned.incrementAndGet();
+                    numClassfilesScanned.incrementAndGet();
+                }
+
+                // Match file paths against path patterns (unless the file was already matched by the previous call
+                // to rescan(), and has not changed since then)
+                for (final FilePathTesterAndMatchProcessorWrapper fileMatcher : //
+                filePathTestersAndMatchProcessorWrappers) {
+                    if (!unchanged && fileMatcher.filePathTester.filePathMatches(classpathElt,
+                            fileInDirRelativePath)) {
+                        // File's relative path matches.
+                        matchedFile = true;
+                        final long fileSize = entry.size;
+                        fileMatchDispatcher.dispatch(fileMatcher,
+                                new FileMatchDispatcher.FileMatch(fileInDirRelativePath) {
+                                    @Override
+                                    public void processMatch(final MappedZipFile.EntryReader entryReader)
+                                            throws Exception {
+                                        final FileMatchProcessorWrapper wrapper = //
+                                                fileMatcher.fileMatchProcessorWrapper;
+                                        if (wrapper instanceof FileMatchBufferProcessorWrapper) {
+                                            ((FileMatchBufferProcessorWrapper) wrapper).processMatch(classpathElt,
+                                                    fileInDirRelativePath, readFile(fileInDir, entryReader));
+                                        } else {
+                                            try (FileInputStream inputStream = new FileInputStream(fileInDir)) {
+                                                wrapper.processMatch(classpathElt, fileInDirRelativePath,
+                                                        inputStream,
+                                                        fileSize >= 0L ? fileSize : fileInDir.length());
+                                            }
+                                        }
+                                    }
+                                });
                     }
                 }
+                if (scannedFile != null && !unchanged && !fileInDirRelativePath.endsWith(".class")) {
+                    scannedFile.setScanned(null);
+                }
+                if (matchedFile) {
+                    numFilesScanned.incrementAndGet();
+                }
             }
         }
-        if (FastClasspathScanner.verbose) {
-            Log.log(3, "Scanned directory " + dir + " and subdirectories", System.nanoTime() - startTime);
+        if (FastClasspathScanner.verbose && walkedDir.walkTimeNanos > 0L) {
+            Log.log(3, "Scanned directory " + walkedDir.dir, walkedDir.walkTimeNanos);
         }
     }
 
     // -------------------------------------------------------------------------------------------------------------
 
     /**
-     * Scan a zipfile for matching file path patterns.
+     * Open a zipfile, memory-mapping it if possible, and falling back to ZipFile if memory mapping is disabled or
+     * the zipfile is not supported by MappedZipFile. Returns null if the zipfile could not be opened.
      */
-    private void scanZipfile(final File classpathElt, final ZipFile zipFile,
-            final Queue<ClassfileResource> classfileResourcesToScanOut) {
+    private SharedZipFile openZipFile(final File classpathElt, final DeferredLog log) {
+        if (scanSpec.memoryMapJars) {
+            try {
+                return new SharedZipFile(new MappedZipFile(classpathElt));
+            } catch (final IOException e) {
+                if (FastClasspathScanner.verbose) {
+                    log.log(3, "Could not memory-map " + classpathElt + ", falling back to ZipFile: " + e);
+                }
+            }
+        }
+        try {
+            return new SharedZipFile(new ZipFile(classpathElt));
+        } catch (final IOException e) {
+            if (FastClasspathScanner.verbose) {
+                log.log(2, "Exception while trying to open " + classpathElt + ": " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Find the whitelisted entries of a zipfile, and record them in the ClasspathEltScan. Classpath masking is
+     * applied later, by mergeZipfile().
+     */
+    private void findWhitelistedZipEntries(final ClasspathEltScan eltScan) {
+        final File classpathElt = eltScan.classpathElt;
+        final SharedZipFile sharedZipFile = eltScan.sharedZipFile;
         if (FastClasspathScanner.verbose) {
-            Log.log(3, "Scanning jarfile: " + classpathElt);
+            eltScan.log.log(3, "Scanning jarfile: " + classpathElt);
         }
         final long startTime = System.nanoTime();
         String prevParentRelativePath = null;
         ScanSpecPathMatch prevParentMatchStatus = null;
-        for (final Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
-            final ZipEntry zipEntry = entries.nextElement();
-            String relativePath = zipEntry.getName();
-            if (relativePath.startsWith("/")) {
-                // Shouldn't happen with the standard Java zipfile implementation (but just to be safe)
-                relativePath = relativePath.substring(1);
-            }
-
+        int scanIndexEntryIdx = -1;
+        for (int zipEntryIdx = 0, numEntries = sharedZipFile.size(); zipEntryIdx < numEntries; zipEntryIdx++) {
             // Ignore directory entries, they are not needed
-            final boolean isDir = zipEntry.isDirectory();
+            final boolean isDir = sharedZipFile.isDirectory(zipEntryIdx);
             if (isDir) {
                 if (prevParentMatchStatus == ScanSpecPathMatch.WITHIN_WHITELISTED_PATH) {
                     numJarfileDirsScanned.incrementAndGet();
@@ -499,14 +1404,26 @@ public class RecursiveScanner {
                 continue;
             }
 
-            // Only accept first instance of a given relative path within classpath.
-            if (previouslyScanned(relativePath)) {
-                if (FastClasspathScanner.verbose) {
-                    Log.log(3, "Reached duplicate relative path, ignoring: " + relativePath);
-                }
+            // Look for the scan index before applying the whitelist, since the index is usually not within a
+            // whitelisted path (but it may be, e.g. if there is no whitelist)
+            if (scanSpec.useScanIndexes && scanIndexEntryIdx < 0
+                    && sharedZipFile.nameEquals(zipEntryIdx, ScanIndex.INDEX_PATH_BYTES)) {
+                scanIndexEntryIdx = zipEntryIdx;
+            }
+
+            // Skip entries that cannot be whitelisted without decoding their names into Strings. (Entries
+            // outside the whitelist are never scanned in any classpath element, so it is not necessary to
+            // record their relative paths for classpath masking.)
+            if (!sharedZipFile.mayBeWhitelisted(zipEntryIdx, scanSpec)) {
                 continue;
             }
 
+            String relativePath = sharedZipFile.getName(zipEntryIdx);
+            if (relativePath.startsWith("/")) {
+                // Shouldn't happen with the standard Java zipfile implementation (but just to be safe)
+                relativePath = relativePath.substring(1);
+            }
+
             // Get match status of the parent directory if this zipentry file's relative path
             // (or reuse the last match status for speed, if the directory name hasn't changed). 
             final int lastSlashIdx = relativePath.lastIndexOf("/");
@@ -518,52 +1435,321 @@ public class RecursiveScanner {
             prevParentMatchStatus = parentMatchStatus;
 
             // Class can only be scanned if it's within a whitelisted path subtree, or if it is a classfile
-            // that has been specifically-whitelisted
+            // that has been specifically-whitelisted. (Entries that are not whitelisted don't need to be recorded
+            // for classpath masking, since the same relative path is not whitelisted in any classpath element.)
             if (parentMatchStatus != ScanSpecPathMatch.WITHIN_WHITELISTED_PATH
                     && (parentMatchStatus != ScanSpecPathMatch.AT_WHITELISTED_CLASS_PACKAGE
                             || !scanSpec.isSpecificallyWhitelistedClass(relativePath))) {
                 continue;
             }
 
+            eltScan.addZipEntry(zipEntryIdx, relativePath);
+        }
+        if (scanIndexEntryIdx >= 0 && !eltScan.zipEntryRelativePaths.isEmpty()) {
+            try (MappedZipFile.EntryReader entryReader = new MappedZipFile.EntryReader();
+                    InputStream inputStream = sharedZipFile.getInputStream(scanIndexEntryIdx, entryReader)) {
+                eltScan.scanIndex = ScanIndex.read(inputStream, scanSpec, classNameToStaticFinalFieldsToMatch,
+                        eltScan.symbolTable);
+                if (FastClasspathScanner.verbose) {
+                    eltScan.log.log(3, "Read scan index with " + eltScan.scanIndex.size() + " classfiles");
+                }
+            } catch (final IOException | RuntimeException e) {
+                if (FastClasspathScanner.verbose) {
+                    eltScan.log.log(3, "Could not read scan index in " + classpathElt + ": " + e);
+                }
+            }
+        }
+        if (FastClasspathScanner.verbose) {
+            eltScan.log.log(4, "Scanned jarfile " + classpathElt, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Apply classpath masking to the whitelisted zipfile entries found by a ClasspathEltScan, and call file
+     * MatchProcessors on any matches.
+     */
+    private void mergeZipfile(final ClasspathEltScan eltScan,
+            final Queue<ClassfileResource> classfileResourcesToScanOut,
+            final Queue<ClassInfoUnlinked> classInfoUnlinkedOut) {
+        final File classpathElt = eltScan.classpathElt;
+        final SharedZipFile sharedZipFile = eltScan.sharedZipFile;
+        final ScanIndex scanIndex = eltScan.scanIndex;
+        final ScanCache.CachedJar cachedJar = eltScan.cachedJar;
+        for (int i = 0, n = eltScan.zipEntryRelativePaths.size(); i < n; i++) {
+            final int zipEntryIdx = eltScan.zipEntryIdxs[i];
+            final String relativePath = eltScan.zipEntryRelativePaths.get(i);
+
+            // Only accept first instance of a given relative path within classpath.
+            if (previouslyScanned(relativePath)) {
+                if (FastClasspathScanner.verbose) {
+                    Log.log(3, "Reached duplicate relative path, ignoring: " + relativePath);
+                }
+                continue;
+            }
+
             if (FastClasspathScanner.verbose) {
                 Log.log(3, "Found whitelisted file in jarfile: " + relativePath);
             }
 
             boolean matchedFile = false;
 
+            // If called by rescan(), check if the jarfile has changed since the previous call to rescan()
+            final ScannedFile scannedFile = addScannedFile(classpathElt, relativePath, eltScan.lastModified,
+                    eltScan.jarSize);
+            final boolean unchanged = scannedFile != null && scannedFile.scanned;
+
             // Store relative paths of any classfiles encountered
             if (relativePath.endsWith(".class")) {
                 matchedFile = true;
-                classfileResourcesToScanOut.add(new ClassfileResource(classpathElt, relativePath));
+                if (unchanged) {
+                    // Reuse the parser output from the previous call to rescan()
+                    if (scannedFile.classInfoUnlinked != null) {
+                        addClassInfoUnlinked(scannedFile.classInfoUnlinked, classInfoUnlinkedOut);
+                    }
+                } else if (scanIndex != null
+                        && scanIndex.contains(relativePath, sharedZipFile.getCrc(zipEntryIdx))) {
+                    // Use the parser output from the scan index built into the jarfile
+                    final ClassInfoUnlinked indexedClassInfoUnlinked = scanIndex.get(relativePath);
+                    if (indexedClassInfoUnlinked != null) {
+                        addClassInfoUnlinked(indexedClassInfoUnlinked, classInfoUnlinkedOut);
+                    }
+                    if (scannedFile != null) {
+                        scannedFile.setScanned(indexedClassInfoUnlinked);
+                    }
+                    numClassfilesReadFromScanIndex.incrementAndGet();
+                } else if (cachedJar != null && cachedJar.contains(relativePath)) {
+                    // Use the cached parser output, rather than parsing the classfile again
+                    final ClassInfoUnlinked cachedClassInfoUnlinked = cachedJar.get(relativePath);
+                    if (cachedClassInfoUnlinked != null) {
+                        addClassInfoUnlinked(cachedClassInfoUnlinked, classInfoUnlinkedOut);
+                    }
+                    if (scannedFile != null) {
+                        scannedFile.setScanned(cachedClassInfoUnlinked);
+                    }
+                } else {
+                    classfileResourcesToScanOut.add(new ClassfileResource(classpathElt, relativePath,
+                            sharedZipFile.acquire(), zipEntryIdx, cachedJar, scannedFile));
+                }
                 numClassfilesScanned.incrementAndGet();
             }
 
-            // Match file paths against path patterns
+            // Match file paths against path patterns (unless the file was already matched by the previous call
+            // to rescan(), and the jarfile has not changed since then)
             for (final FilePathTesterAndMatchProcessorWrapper fileMatcher : //
             filePathTestersAndMatchProcessorWrappers) {
-                if (fileMatcher.filePathTester.filePathMatches(classpathElt, relativePath)) {
-                    // File's relative path matches.
-                    try {
-                        matchedFile = true;
-                        final long fileStartTime = System.nanoTime();
-                        try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
-                            fileMatcher.fileMatchProcessorWrapper.processMatch(classpathElt, relativePath,
-                                    inputStream, zipEntry.getSize());
+                if (!unchanged && fileMatcher.filePathTester.filePathMatches(classpathElt, relativePath)) {
+                    // File's relative path matches. The zipfile is kept open until the match has been processed.
+                    matchedFile = true;
+                    final SharedZipFile matchedZipFile = sharedZipFile.acquire();
+                    fileMatchDispatcher.dispatch(fileMatcher, new FileMatchDispatcher.FileMatch(relativePath) {
+                        @Override
+                        public void processMatch(final MappedZipFile.EntryReader entryReader) throws Exception {
+                            final FileMatchProcessorWrapper wrapper = fileMatcher.fileMatchProcessorWrapper;
+                            if (wrapper instanceof FileMatchBufferProcessorWrapper) {
+                                ((FileMatchBufferProcessorWrapper) wrapper).processMatch(classpathElt, relativePath,
+                                        matchedZipFile.getEntryBytes(zipEntryIdx, entryReader));
+                            } else {
+                                try (InputStream inputStream = matchedZipFile.getInputStream(zipEntryIdx,
+                                        entryReader)) {
+                                    wrapper.processMatch(classpathElt, relativePath, inputStream,
+                                            matchedZipFile.getSize(zipEntryIdx));
+                                }
+                            }
                         }
-                        if (FastClasspathScanner.verbose) {
-                            Log.log(4, "Processed file match " + relativePath, System.nanoTime() - fileStartTime);
+
+                        @Override
+                        public void release() {
+                            matchedZipFile.release();
                         }
-                    } catch (final Exception e) {
-                        throw new RuntimeException("Exception while processing match " + relativePath, e);
-                    }
+                    });
                 }
             }
+            if (scannedFile != null && !unchanged && !relativePath.endsWith(".class")) {
+                scannedFile.setScanned(null);
+            }
             if (matchedFile) {
                 numJarfileFilesScanned.incrementAndGet();
             }
         }
-        if (FastClasspathScanner.verbose) {
-            Log.log(4, "Scanned jarfile " + classpathElt, System.nanoTime() - startTime);
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Scans one classpath element (a directory or a jarfile), finding its whitelisted files, but without applying
+     * classpath masking or calling any MatchProcessors, so that classpath elements can be scanned concurrently. The
+     * results are then merged into the scan in classpath order by mergeClasspathElt(), so that classpath masking
+     * gives the same results as scanning the classpath elements one after another.
+     * 
+     * A ClasspathEltScan runs at most once: either on the executor, or on the thread that merges the results, if
+     * the executor has not started it by the time its results are needed.
+     */
+    private class ClasspathEltScan implements Runnable {
+        final File classpathElt;
+        final boolean isDirectory;
+        private final Executor executor;
+        private final boolean scanTimestampsOnly;
+        private final ScanCache scanCache;
+        final SymbolTable symbolTable;
+
+        /** Set once the scan is started, or once the scan is released before being started. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private RuntimeException exception;
+
+        /** Log entries for the scan, flushed in classpath order by mergeClasspathElt(). */
+        final DeferredLog log = new DeferredLog();
+        long scanTimeNanos;
+
+        /** The root directory task, if this classpath element is a directory. */
+        ScanDirTask rootDirTask;
+        /** The latest last modified timestamp of the directories or the jarfile. */
+        long lastModified;
+        /** The size of the jarfile. */
+        long jarSize;
+
+        /** The opened jarfile, or null if this classpath element is a directory, or could not be opened. */
+        SharedZipFile sharedZipFile;
+        /** The indices and relative paths of the whitelisted entries of the jarfile. */
+        int[] zipEntryIdxs = new int[16];
+        final List<String> zipEntryRelativePaths = new ArrayList<>();
+        /** The scan index built into the jarfile, or null if the jarfile does not contain a scan index. */
+        ScanIndex scanIndex;
+        /** The cached parser output for the jarfile, or null if the scan cache is not enabled. */
+        ScanCache.CachedJar cachedJar;
+
+        public ClasspathEltScan(final File classpathElt, final boolean isDirectory, final Executor executor,
+                final boolean scanTimestampsOnly, final ScanCache scanCache,
+                final SymbolTable symbolTable) {
+            this.classpathElt = classpathElt;
+            this.isDirectory = isDirectory;
+            this.executor = executor;
+            this.scanTimestampsOnly = scanTimestampsOnly;
+            this.scanCache = scanCache;
+            this.symbolTable = symbolTable;
+        }
+
+        void addZipEntry(final int zipEntryIdx, final String relativePath) {
+            final int n = zipEntryRelativePaths.size();
+            if (n == zipEntryIdxs.length) {
+                zipEntryIdxs = Arrays.copyOf(zipEntryIdxs, n * 2);
+            }
+            zipEntryIdxs[n] = zipEntryIdx;
+            zipEntryRelativePaths.add(relativePath);
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                // Already run, or released
+                return;
+            }
+            final long startTime = System.nanoTime();
+            try {
+                if (isScanCancelled()) {
+                    // Don't start scanning a classpath element after the scan has been cancelled
+                    return;
+                }
+                if (isDirectory) {
+                    // Walk the directory tree in parallel
+                    final DirWalk dirWalk = new DirWalk(executor);
+                    rootDirTask = new ScanDirTask(dirWalk, classpathElt, classpathElt,
+                            /* dirLastModified = */ -1L, /* ignorePrefixLen = */ classpathElt.getPath().length() + 1,
+                            /* inWhitelistedPath = */ false);
+                    lastModified = dirWalk.walk(rootDirTask);
+                } else {
+                    // Use the timestamp of the jar/zipfile as the timestamp for all files,
+                    // since the timestamps within the zip directory may be unreliable.
+                    lastModified = classpathElt.lastModified();
+                    if (!scanTimestampsOnly) {
+                        if (classpathWatcher != null) {
+                            classpathWatcher.watchJar(classpathElt);
+                        }
+                        jarSize = classpathElt.length();
+                        // Don't actually scan the contents of the zipfile if we're only scanning timestamps,
+                        // since only the timestamp of the zipfile itself will be used.
+                        sharedZipFile = openZipFile(classpathElt, log);
+                        if (sharedZipFile != null) {
+                            findWhitelistedZipEntries(this);
+                            if (scanCache != null && !zipEntryRelativePaths.isEmpty()) {
+                                cachedJar = scanCache.load(classpathElt, symbolTable, log);
+                            }
+                        }
+                    }
+                }
+            } catch (final RuntimeException e) {
+                exception = e;
+            } finally {
+                scanTimeNanos = System.nanoTime() - startTime;
+                completed.countDown();
+            }
+        }
+
+        /** Wait for the scan to complete, running it on the calling thread if it has not been started. */
+        private void awaitCompletion() {
+            run();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    completed.await();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Wait for the scan to complete, and throw any exception thrown by the scan. */
+        public void getResults() {
+            awaitCompletion();
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        /**
+         * Release the jarfile opened by the scan, if any. If the scan has not been started, prevents it from being
+         * run.
+         */
+        public void release() {
+            if (claimed.compareAndSet(false, true)) {
+                // Prevent the scan from running
+                return;
+            }
+            awaitCompletion();
+            if (sharedZipFile != null) {
+                sharedZipFile.release();
+                sharedZipFile = null;
+            }
+        }
+    }
+
+    /**
+     * Apply classpath masking to the files found by a ClasspathEltScan, and call file MatchProcessors on any
+     * matches. Called for each classpath element in classpath order.
+     */
+    private void mergeClasspathElt(final ClasspathEltScan eltScan, final boolean scanTimestampsOnly,
+            final Queue<ClassfileResource> classfileResourcesToScanOut,
+            final Queue<ClassInfoUnlinked> classInfoUnlinkedOut) {
+        final long mergeStartTime = System.nanoTime();
+        eltScan.log.flush();
+        updateLastModifiedTimestamp(eltScan.lastModified);
+        if (eltScan.isDirectory) {
+            // Call FileMatchProcessors on any matches, and store relative paths of all whitelisted classfiles
+            mergeWalkedDir(eltScan.classpathElt, eltScan.rootDirTask, scanTimestampsOnly,
+                    classfileResourcesToScanOut, classInfoUnlinkedOut);
+        } else {
+            numJarfilesScanned.incrementAndGet();
+            if (eltScan.sharedZipFile != null) {
+                mergeZipfile(eltScan, classfileResourcesToScanOut, classInfoUnlinkedOut);
+            }
+        }
+        if (FastClasspathScanner.verbose && (eltScan.isDirectory || !scanTimestampsOnly)) {
+            Log.log(2, "Scanned classpath " + (eltScan.isDirectory ? "directory " : "jarfile ")
+                    + eltScan.classpathElt, eltScan.scanTimeNanos + System.nanoTime() - mergeStartTime);
         }
     }
 
@@ -575,12 +1761,21 @@ public class RecursiveScanner {
      * @param scanTimestampsOnly
      *            If true, scans the classpath for matching files, and calls any match processors if a match is
      *            identified. If false, only scans timestamps of files.
+     * @param executorService
+     *            The ExecutorService to walk directories and parse classfiles on, or null to use threads owned by
+     *            the scanner.
+     * @param rescan
+     *            If true, reuses the parser output from the previous call with rescan set to true for files that
+     *            have not changed, and only calls file MatchProcessors for files that are new or have changed.
      */
-    private synchronized void scan(final boolean scanTimestampsOnly) {
+    private synchronized void scan(final boolean scanTimestampsOnly, final ExecutorService executorService,
+            final boolean rescan) {
         if (FastClasspathScanner.verbose) {
             Log.log("FastClasspathScanner version " + FastClasspathScanner.getVersion());
         }
         final long scanStart = System.nanoTime();
+        // Take a snapshot of the facts that are parsed, in case the ScanSpec is changed during or after the scan
+        final ScanSpec.ParsedFacts scanParsedFacts = scanSpec.getParsedFacts();
         // Get classpath elements
         final List<File> uniqueClasspathElts = classpathFinder.getUniqueClasspathElements();
         if (FastClasspathScanner.verbose) {
@@ -589,6 +1784,7 @@ public class RecursiveScanner {
 
         // Initialize scan
         previouslyScannedCanonicalPaths.clear();
+        previouslyScannedFileIdentities.clear();
         previouslyScannedRelativePaths.clear();
         numDirsScanned.set(0);
         numFilesScanned.set(0);
@@ -596,136 +1792,197 @@ public class RecursiveScanner {
         numJarfileFilesScanned.set(0);
         numJarfilesScanned.set(0);
         numClassfilesScanned.set(0);
+        parsedClassProcessorException.set(null);
         if (!scanTimestampsOnly) {
             classNameToClassInfo.clear();
+            // (Classfiles are not parsed when only timestamps are scanned, so the parsing statistics of the
+            // last full scan are kept)
+            numZipFileOpensSaved.set(0);
+            numClassfilesParsed.set(0);
+            numClassfilesReadFromScanIndex.set(0);
+            numScanCacheHits = 0;
+            numScanCacheMisses = 0;
+            // Keep the files found by the previous call to rescan(), so that they can be reused if unchanged (and
+            // if the settings that affect the parser output have not changed)
+            final String parserSettingsKey = rescan
+                    ? ScanCache.getParserSettingsKey(scanSpec, classNameToStaticFinalFieldsToMatch) : null;
+            prevScannedFiles = rescan && parserSettingsKey.equals(scannedFilesParserSettingsKey) ? scannedFiles
+                    : null;
+            scannedFiles = rescan ? new HashMap<File, Map<String, ScannedFile>>() : null;
+            scannedFilesParserSettingsKey = parserSettingsKey;
+
+            // Watch the directories and jarfiles found by this scan, replacing the watcher for the previous scan
+            stopWatchingClasspath();
+            if (scanSpec.watchClasspath) {
+                try {
+                    classpathWatcher = new ClasspathWatcher(scanSpec, classpathChangeListeners);
+                } catch (final IOException e) {
+                    if (FastClasspathScanner.verbose) {
+                        Log.log(1, "Could not watch classpath for changes: " + e);
+                    }
+                }
+            }
         }
 
         if (FastClasspathScanner.verbose) {
             Log.log(1, "Starting scan" + (scanTimestampsOnly ? " (scanning classpath timestamps only)" : ""));
         }
+        fileMatchDispatcher = new FileMatchDispatcher(scanTimestampsOnly ? 0 : scanSpec.numFileMatchThreads,
+                scanSpec.orderedFileMatches);
 
-        // Iterate through path elements and recursively scan within each directory and jar for matching paths
-        final Queue<ClassfileResource> classfileResourcesToScan = new ConcurrentLinkedQueue<>();
-        for (final File classpathElt : uniqueClasspathElts) {
-            final long eltStartTime = System.nanoTime();
-            final String path = classpathElt.getPath();
-            // ClasspathFinder determines that anything that is not a directory is a jarfile
-            final boolean isDirectory = classpathElt.isDirectory(), isJar = !isDirectory;
-            if (previouslyScanned(classpathElt)) {
-                if (FastClasspathScanner.verbose) {
-                    Log.log(3, "Reached duplicate classpath entry, ignoring: " + classpathElt);
-                }
-                continue;
-            }
-            if (FastClasspathScanner.verbose) {
-                Log.log(2, "Found " + (isDirectory ? "directory" : "jar") + " on classpath: " + path);
-            }
-
-            if (isDirectory && scanSpec.scanNonJars) {
-
-                // ---------------------------------------------------------------------------------------------
-                // Scan within a directory tree and call file MatchProcessors on any matches
-                // ---------------------------------------------------------------------------------------------
-
-                // Scan dirs recursively, looking for matching paths; call FileMatchProcessors on any matches.
-                // Also store relative paths of all whitelisted classfiles in whitelistedClassfileRelativePaths.
-                scanDir(classpathElt, classpathElt, /* ignorePrefixLen = */ path.length() + 1,
-                        /* inWhitelistedPath = */ false, scanTimestampsOnly, classfileResourcesToScan);
+        // -----------------------------------------------------------------------------------------------------
+        // Start the classfile parser threads before walking the classpath, so that classfile binaries are parsed
+        // as soon as the walk finds them, overlapping directory/jar I/O with parsing. The parser threads consume
+        // ClassfileResource objects from the classfileResourcesToScan queue until END_OF_STREAM is reached, and
+        // populate the classInfoUnlinked queue with the ClassInfoUnlinked object for each classfile.
+        // -----------------------------------------------------------------------------------------------------
 
+        final BlockingQueue<ClassfileResource> classfileResourcesToScan = new LinkedBlockingQueue<>();
+        final Queue<ClassInfoUnlinked> classInfoUnlinked = new ConcurrentLinkedQueue<>();
+        final SymbolTable symbolTable = new SymbolTable();
+        // Only timestamps are needed if scanTimestampsOnly is true, so there's nothing to parse
+        final ParserThreadPool parserThreadPool = scanTimestampsOnly ? null
+                : new ParserThreadPool(classfileResourcesToScan, classInfoUnlinked, symbolTable,
+                        executorService);
+        // Classfiles in jarfiles that are in the scan cache are not parsed again
+        final ScanCache scanCache = scanTimestampsOnly || scanSpec.scanCacheDir == null ? null
+                : new ScanCache(scanSpec.scanCacheDir, scanSpec, classNameToStaticFinalFieldsToMatch);
+        final long parseStartTime = System.nanoTime();
+        final int numWalkThreads = scanSpec.numThreads > 0 ? scanSpec.numThreads
+                : Runtime.getRuntime().availableProcessors();
+        try {
+            if (parserThreadPool != null) {
                 if (FastClasspathScanner.verbose) {
-                    Log.log(2, "Scanned classpath directory " + classpathElt, System.nanoTime() - eltStartTime);
+                    Log.log(1, "Starting parallel scan of classfile binaries");
                 }
+                // Start ClassfileBinaryParserCaller threads that consume entries from the classfileResourcesToScan
+                // queue and create objects in the classInfoUnlinked queue. Each thread has its own logger, so that
+                // log output is not interleaved.
+                parserThreadPool.start();
+            }
 
-            } else if (isJar && scanSpec.scanJars) {
-
-                // ---------------------------------------------------------------------------------------------
-                // Scan within a jar/zipfile and call file MatchProcessors on any matches
-                // ---------------------------------------------------------------------------------------------
-
-                if (!scanSpec.jarIsWhitelisted(classpathElt.getName())) {
+            // Find the classpath elements to scan
+            final List<ClasspathEltScan> classpathEltScans = new ArrayList<>();
+            // Classpath elements (and directories within them) are scanned in parallel on the caller-supplied
+            // ExecutorService, or otherwise by a work-stealing pool
+            final ForkJoinPool forkJoinPool = executorService != null || uniqueClasspathElts.isEmpty() ? null
+                    : new ForkJoinPool(numWalkThreads);
+            final Executor walkExecutor = executorService != null ? executorService : forkJoinPool;
+            try {
+                for (final File classpathElt : uniqueClasspathElts) {
+                    final String path = classpathElt.getPath();
+                    // ClasspathFinder determines that anything that is not a directory is a jarfile
+                    final boolean isDirectory = classpathElt.isDirectory(), isJar = !isDirectory;
+                    if (previouslyScanned(classpathElt)) {
+                        if (FastClasspathScanner.verbose) {
+                            Log.log(3, "Reached duplicate classpath entry, ignoring: " + classpathElt);
+                        }
+                        continue;
+                    }
                     if (FastClasspathScanner.verbose) {
-                        Log.log(3, "Skipping jarfile that did not match whitelist/blacklist criteria: "
-                                + classpathElt.getName());
+                        Log.log(2, "Found " + (isDirectory ? "directory" : "jar") + " on classpath: " + path);
                     }
-                    continue;
-                }
-
-                // Use the timestamp of the jar/zipfile as the timestamp for all files,
-                // since the timestamps within the zip directory may be unreliable.
-                updateLastModifiedTimestamp(classpathElt.lastModified());
-                numJarfilesScanned.incrementAndGet();
-
-                if (!scanTimestampsOnly) {
-                    // Don't actually scan the contents of the zipfile if we're only scanning timestamps,
-                    // since only the timestamp of the zipfile itself will be used.
-                    try (ZipFile zipFile = new ZipFile(classpathElt)) {
-                        scanZipfile(classpathElt, zipFile, classfileResourcesToScan);
-                    } catch (final IOException e) {
-                        // Ignore, can only be thrown by zipFile.close() 
+                    if (isDirectory && scanSpec.scanNonJars) {
+                        classpathEltScans.add(new ClasspathEltScan(classpathElt, /* isDirectory = */ true,
+                                walkExecutor, scanTimestampsOnly, scanCache, symbolTable));
+                    } else if (isJar && scanSpec.scanJars) {
+                        if (!scanSpec.jarIsWhitelisted(classpathElt.getName())) {
+                            if (FastClasspathScanner.verbose) {
+                                Log.log(3, "Skipping jarfile that did not match whitelist/blacklist criteria: "
+                                        + classpathElt.getName());
+                            }
+                            continue;
+                        }
+                        classpathEltScans.add(new ClasspathEltScan(classpathElt, /* isDirectory = */ false,
+                                walkExecutor, scanTimestampsOnly, scanCache, symbolTable));
+                    } else {
+                        if (FastClasspathScanner.verbose) {
+                            Log.log(2, "Skipping classpath element " + path);
+                        }
                     }
+                }
 
-                    if (FastClasspathScanner.verbose) {
-                        Log.log(2, "Scanned classpath jarfile " + classpathElt, System.nanoTime() - eltStartTime);
+                // Scan classpath elements concurrently, and merge the results in classpath order, so that only the
+                // first file with a given relative path is visible (classpath masking). Merging applies masking,
+                // calls any FileMatchProcessors, and feeds classfiles to the parser threads. To limit the number of
+                // jarfiles that are open at the same time, scans are only started up to a fixed number of classpath
+                // elements ahead of the element being merged.
+                final int maxScansAhead = 2 * numWalkThreads;
+                int numScansStarted = 0;
+                for (int i = 0; i < classpathEltScans.size(); i++) {
+                    for (; numScansStarted < classpathEltScans.size()
+                            && numScansStarted <= i + maxScansAhead; numScansStarted++) {
+                        try {
+                            walkExecutor.execute(classpathEltScans.get(numScansStarted));
+                        } catch (final RejectedExecutionException e) {
+                            // The scan will be run by this thread when its results are needed
+                        }
                     }
+                    final ClasspathEltScan eltScan = classpathEltScans.get(i);
+                    eltScan.getResults();
+                    // The scan of this classpath element may have been cut short if the scan was cancelled
+                    checkScanCancelled();
+                    mergeClasspathElt(eltScan, scanTimestampsOnly, classfileResourcesToScan, classInfoUnlinked);
+                    eltScan.release();
                 }
-
-            } else {
-                if (FastClasspathScanner.verbose) {
-                    Log.log(2, "Skipping classpath element " + path);
+                // Wait for any FileMatchProcessors running on worker threads to finish
+                fileMatchDispatcher.finish();
+            } finally {
+                // Release any jarfiles that were opened but not merged (if the scan was aborted), and prevent any
+                // scans that have not started from running
+                for (final ClasspathEltScan eltScan : classpathEltScans) {
+                    eltScan.release();
+                }
+                if (forkJoinPool != null) {
+                    forkJoinPool.shutdown();
+                }
+            }
+        } finally {
+            // Signal the end of the stream of classfile resources to the parser threads. (This is done even if
+            // the walk threw an exception, so that the parser threads can terminate.)
+            classfileResourcesToScan.add(END_OF_STREAM);
+            // Parse any remaining classfiles, and wait for parser termination
+            if (parserThreadPool != null) {
+                parserThreadPool.finish();
+            }
+            // Release any zipfile references held by resources that were not parsed (if the scan was aborted)
+            for (ClassfileResource classfileResource; (classfileResource = classfileResourcesToScan
+                    .poll()) != null;) {
+                if (classfileResource.sharedZipFile != null) {
+                    classfileResource.sharedZipFile.release();
                 }
             }
+            prevScannedFiles = null;
+            // Release any file matches that were not processed (if the scan was aborted)
+            fileMatchDispatcher.abort();
+            fileMatchDispatcher = null;
         }
-
-        // ---------------------------------------------------------------------------------------------
-        // Parse classfile binary format for all classfiles found in this classpath element,
-        // and populate classNameToClassInfo with ClassInfo objects for each classfile and the
-        // classes they reference (as superclasses, interfaces etc.).
-        // ---------------------------------------------------------------------------------------------
-
-        if (FastClasspathScanner.verbose) {
-            Log.log(1, "Starting parallel scan of classfile binaries");
+        // Don't save the scan cache or build the class graph if parsing was cut short
+        checkScanCancelled();
+        // Don't save the scan cache or build the class graph if a ParsedClassProcessor failed
+        final RuntimeException parsedClassProcessorFailure = parsedClassProcessorException.get();
+        if (parsedClassProcessorFailure != null) {
+            throw parsedClassProcessorFailure;
         }
-        final long parseStartTime = System.nanoTime();
 
-        // Create one logger per thread, so that log output is not interleaved
-        final DeferredLog[] logs = new DeferredLog[NUM_THREADS];
-        for (int i = 0; i < NUM_THREADS; i++) {
-            logs[i] = new DeferredLog();
+        if (FastClasspathScanner.verbose && parserThreadPool != null) {
+            Log.log(1, "Zipfile opens saved by sharing jars between parser threads: " + numZipFileOpensSaved);
+            Log.log(1, "Maximum number of parser threads: " + parserThreadPool.getPeakNumThreads());
         }
 
-        // Scan classfiles in parallel
-        final Queue<ClassInfoUnlinked> classInfoUnlinked = new ConcurrentLinkedQueue<>();
-        final ConcurrentHashMap<String, String> stringInternMap = new ConcurrentHashMap<>();
-        final Thread[] threads = new Thread[NUM_THREADS];
-        try {
-            for (int i = 0; i < NUM_THREADS; i++) {
-                // Create and start a new ClassfileBinaryParserCaller thread that consumes entries from
-                // the classfileResourcesToScan queue and creates objects in the classInfoUnlinked queue
-                threads[i] = this.new ClassfileBinaryParserCaller(classfileResourcesToScan, classInfoUnlinked,
-                        stringInternMap, logs[i]);
-                threads[i].start();
-            }
-        } finally {
-            // Wait for thread termination
-            for (int i = 0; i < NUM_THREADS; i++) {
-                if (threads[i] != null) {
-                    try {
-                        threads[i].join();
-                        threads[i] = null;
-                    } catch (final InterruptedException e) {
-                        // Can safely ignore this, the interrupted flag is not being set anywhere
-                    }
-                }
-                // Dump out any log output that was added by this thread
-                if (FastClasspathScanner.verbose) {
-                    Log.log(1, "Parallel scan logs from thread " + i + ":");
-                }
-                logs[i].flush();
-            }
+        if (FastClasspathScanner.verbose && parserThreadPool != null) {
+            Log.log(1, "Finished parallel scan of classfile binaries", System.nanoTime() - parseStartTime);
         }
 
-        if (FastClasspathScanner.verbose) {
-            Log.log(1, "Finished parallel scan of classfile binaries", System.nanoTime() - parseStartTime);
+        if (scanCache != null) {
+            // Write the parser output for jarfiles that were not in the cache, or that had changed
+            final long cacheStartTime = System.nanoTime();
+            numScanCacheHits = scanCache.save();
+            numScanCacheMisses = scanCache.size() - numScanCacheHits;
+            if (FastClasspathScanner.verbose) {
+                Log.log(1, "Scan cache hits: " + numScanCacheHits + "; misses: " + numScanCacheMisses,
+                        System.nanoTime() - cacheStartTime);
+            }
         }
 
         // -----------------------------------------------------------------------------------------------------
@@ -744,6 +2001,7 @@ public class RecursiveScanner {
         if (!scanTimestampsOnly) {
             // Build class, interface and annotation graph out of all the ClassInfo objects.
             classGraphBuilder = new ClassGraphBuilder(classNameToClassInfo);
+            parsedFacts = scanParsedFacts;
 
             // Call any class, interface and annotation MatchProcessors
             for (final ClassMatcher classMatcher : classMatchers) {
@@ -806,7 +2064,69 @@ public class RecursiveScanner {
      *            identified. If false, only scans timestamps of files.
      */
     public void scan() {
-        scan(/* scanTimestampsOnly = */false);
+        scan(/* scanTimestampsOnly = */false, /* executorService = */ null, /* rescan = */ false);
+    }
+
+    /**
+     * Scan the classpath, walking directories and parsing classfiles on the given ExecutorService, and call any
+     * MatchProcessors on files or classes that match. The ExecutorService is not shut down after the scan.
+     */
+    public void scan(final ExecutorService executorService) {
+        if (executorService == null) {
+            throw new IllegalArgumentException("executorService cannot be null");
+        }
+        scan(/* scanTimestampsOnly = */false, executorService, /* rescan = */ false);
+    }
+
+    /**
+     * Scan the classpath, and call any MatchProcessors on files or classes that match, like scan(), but stop the
+     * scan by throwing a CancellationException once the cancelled flag is set, or once System.nanoTime() reaches
+     * the deadline. Directory walker and classfile parser threads check for cancellation between files, and the
+     * results of a cancelled scan are discarded before the class graph is built.
+     * 
+     * @param cancelled
+     *            The flag to set to cancel the scan.
+     * @param deadlineNanos
+     *            The value of System.nanoTime() at which to cancel the scan, or null if there is no deadline.
+     */
+    public synchronized void scan(final AtomicBoolean cancelled, final Long deadlineNanos) {
+        scanCancelled = cancelled;
+        scanDeadlineNanos = deadlineNanos;
+        try {
+            scan(/* scanTimestampsOnly = */false, /* executorService = */ null, /* rescan = */ false);
+        } finally {
+            scanCancelled = null;
+            scanDeadlineNanos = null;
+        }
+    }
+
+    /** Returns true if the current scan has been cancelled, or if its deadline has been reached. */
+    private boolean isScanCancelled() {
+        final AtomicBoolean cancelled = scanCancelled;
+        final Long deadlineNanos = scanDeadlineNanos;
+        return (cancelled != null && cancelled.get())
+                || (deadlineNanos != null && System.nanoTime() - deadlineNanos >= 0L);
+    }
+
+    /** Throw a CancellationException if the current scan has been cancelled. Called by the merge thread. */
+    private void checkScanCancelled() {
+        if (isScanCancelled()) {
+            // Don't reuse the partial results of this scan in the next call to rescan()
+            scannedFiles = null;
+            scannedFilesParserSettingsKey = null;
+            throw new CancellationException("Scan was cancelled");
+        }
+    }
+
+    /**
+     * Scan the classpath, and call any MatchProcessors on files or classes that match, like scan(), but reuse the
+     * parser output from the previous call to rescan() for classfiles that have not changed since then, and only
+     * call file MatchProcessors for files that are new or have changed. Classpath elements are still walked, to
+     * find new and changed files, but only new and changed classfiles are read and parsed. The first call to
+     * rescan() (or the first call after a call to scan()) scans the whole classpath.
+     */
+    public void rescan() {
+        scan(/* scanTimestampsOnly = */false, /* executorService = */ null, /* rescan = */ true);
     }
 
     // -------------------------------------------------------------------------------------------------------------
@@ -819,6 +2139,43 @@ public class RecursiveScanner {
         return classGraphBuilder;
     }
 
+    /**
+     * Get the facts that the classfile parser read during the last full scan (the ScanSpec may have been changed
+     * since then), or null if a scan has not yet been completed.
+     */
+    public ScanSpec.ParsedFacts getParsedFacts() {
+        return parsedFacts;
+    }
+
+    /**
+     * Get the number of times during the last scan that a parser thread switched to reading classfiles from a
+     * different jar without having to reopen the jar, because each jar is opened only once and shared between
+     * parser threads.
+     */
+    public int getNumZipFileOpensSaved() {
+        return numZipFileOpensSaved.get();
+    }
+
+    /** Get the number of jarfiles whose classfiles were all loaded from the scan cache during the last scan. */
+    public int getNumScanCacheHits() {
+        return numScanCacheHits;
+    }
+
+    /** Get the number of jarfiles that had classfiles that were not in the scan cache during the last scan. */
+    public int getNumScanCacheMisses() {
+        return numScanCacheMisses;
+    }
+
+    /** Get the number of classfiles that were read and parsed during the last scan. */
+    public int getNumClassfilesParsed() {
+        return numClassfilesParsed.get();
+    }
+
+    /** Get the number of classfiles whose parser output was read from a scan index during the last scan. */
+    public int getNumClassfilesReadFromScanIndex() {
+        return numClassfilesReadFromScanIndex.get();
+    }
+
     // -------------------------------------------------------------------------------------------------------------
 
     /** Update the last modified timestamp, given the timestamp of a Path. */
@@ -831,14 +2188,18 @@ public class RecursiveScanner {
      * Returns true if the classpath contents have been changed since scan() was last called. Only considers
      * classpath prefixes whitelisted in the call to the constructor. Returns true if scan() has not yet been run.
      * Much faster than standard classpath scanning, because only timestamps are checked, and jarfiles don't have to
-     * be opened.
+     * be opened. If the classpath is being watched, returns true if a change has been reported since the last call
+     * to scan() or to this method, without checking timestamps.
      */
     public boolean classpathContentsModifiedSinceScan() {
         final long oldLastModified = this.lastModified;
+        final ClasspathWatcher watcher = classpathWatcher;
         if (oldLastModified == 0) {
             return true;
+        } else if (watcher != null) {
+            return watcher.getAndClearModified();
         } else {
-            scan(/* scanTimestampsOnly = */true);
+            scan(/* scanTimestampsOnly = */true, /* executorService = */ null, /* rescan = */ false);
             final long newLastModified = this.lastModified;
             return newLastModified > oldLastModified;
         }
@@ -855,4 +2216,12 @@ public class RecursiveScanner {
     public long classpathContentsLastModifiedTime() {
         return this.lastModified;
     }
+
+    /** Stop watching the directories and jarfiles found by the last scan for changes, if they are being watched. */
+    public synchronized void stopWatchingClasspath() {
+        if (classpathWatcher != null) {
+            classpathWatcher.close();
+            classpathWatcher = null;
+        }
+    }
 }
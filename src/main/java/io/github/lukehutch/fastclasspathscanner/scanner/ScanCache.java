@@ -0,0 +1,660 @@
+package io.github.lukehutch.fastclasspathscanner.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.AnnotationInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.ClassInfoUnlinked;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.FieldInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.MethodInfo;
+import io.github.lukehutch.fastclasspathscanner.utils.Log;
+import io.github.lukehutch.fastclasspathscanner.utils.Log.DeferredLog;
+import io.github.lukehutch.fastclasspathscanner.utils.SymbolTable;
+
+/**
+ * A persistent cache of the ClassInfoUnlinked objects produced by parsing the classfiles of jarfiles, so that
+ * jarfiles that have not changed since a previous scan do not have to be decompressed and parsed again. Each
+ * jarfile has its own cache file in the cache directory. A cache file records the canonical path, size and last
+ * modified time of the jarfile, and the scan settings that affect the output of the classfile parser, and is
+ * ignored if any of these has changed.
+ * 
+ * Cache files only contain the classfiles of a jarfile that have been parsed in some scan (classfiles masked by
+ * an earlier classpath element are not parsed), so any classfiles that are missing from the cache file are parsed,
+ * and the cache file is then rewritten.
+ */
+class ScanCache {
+    private static final int MAGIC = 0x46435343; // "FCSC"
+    private static final int FORMAT_VERSION = 4;
+    private static final String CACHE_FILE_EXTENSION = ".fcscache";
+
+    /**
+     * The maximum length of an array read from a cache or index file, so that a corrupt file can't cause a huge
+     * allocation. (Truncated files are detected by DataInputStream.readFully() throwing EOFException.)
+     */
+    private static final int MAX_LENGTH = 1 << 24;
+
+    /** Tags for the types of static final field constant values. */
+    private static final byte INTEGER = 'I', LONG = 'J', FLOAT = 'F', DOUBLE = 'D', STRING = 'T', BYTE = 'B',
+            CHARACTER = 'C', SHORT = 'S', BOOLEAN = 'Z';
+
+    private final File cacheDir;
+
+    /** Identifies the settings that affect the output of the classfile parser. */
+    private final String parserSettingsKey;
+
+    /** The jarfiles opened during this scan. */
+    private final List<CachedJar> cachedJars = Collections.synchronizedList(new ArrayList<CachedJar>());
+
+    public ScanCache(final File cacheDir, final ScanSpec scanSpec,
+            final Map<String, HashSet<String>> classNameToStaticFinalFieldsToMatch) {
+        this.cacheDir = cacheDir;
+        this.parserSettingsKey = getParserSettingsKey(scanSpec, classNameToStaticFinalFieldsToMatch);
+    }
+
+    /**
+     * Returns a string identifying all the settings that affect the output of the classfile parser, including the
+     * static final fields to match.
+     */
+    static String getParserSettingsKey(final ScanSpec scanSpec,
+            final Map<String, HashSet<String>> classNameToStaticFinalFieldsToMatch) {
+        // Sort the static final fields to match, so that the key doesn't depend on hash order
+        final TreeMap<String, TreeSet<String>> staticFinalFieldsToMatch = new TreeMap<>();
+        for (final Entry<String, HashSet<String>> ent : classNameToStaticFinalFieldsToMatch.entrySet()) {
+            staticFinalFieldsToMatch.put(ent.getKey(), new TreeSet<>(ent.getValue()));
+        }
+        return scanSpec.getClassfileParserSettingsKey() + ";staticFinalFieldsToMatch=" + staticFinalFieldsToMatch;
+    }
+
+    /** The parser output for the classfiles of one jarfile. */
+    static class CachedJar {
+        private final File jarFile;
+        private final String canonicalPath;
+        private final long size;
+        private final long lastModified;
+
+        /** True if the parser output was loaded from a valid cache file. */
+        private boolean loaded;
+
+        /** True if classfiles have been parsed during this scan, so the cache file needs to be rewritten. */
+        private volatile boolean modified;
+
+        /** The ClassInfoUnlinked object for each classfile in the cache, indexed by relative path. */
+        private final ConcurrentHashMap<String, ClassInfoUnlinked> relativePathToClassInfoUnlinked = //
+                new ConcurrentHashMap<>();
+
+        /** The relative paths of classfiles in the cache that could not be parsed. */
+        private final Set<String> unparseableClassfiles = Collections
+                .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private CachedJar(final File jarFile, final String canonicalPath, final long size,
+                final long lastModified) {
+            this.jarFile = jarFile;
+            this.canonicalPath = canonicalPath;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /** Returns true if the parser output for the classfile is in the cache. */
+        public boolean contains(final String relativePath) {
+            return relativePathToClassInfoUnlinked.containsKey(relativePath)
+                    || unparseableClassfiles.contains(relativePath);
+        }
+
+        /**
+         * Returns the cached ClassInfoUnlinked object for the classfile, or null if the classfile could not be
+         * parsed (or is not in the cache).
+         */
+        public ClassInfoUnlinked get(final String relativePath) {
+            return relativePathToClassInfoUnlinked.get(relativePath);
+        }
+
+        /**
+         * Add the output of the parser for a classfile to the cache. classInfoUnlinked is null if the classfile
+         * could not be parsed. Called by the parser threads.
+         */
+        public void addParsedClassfile(final String relativePath, final ClassInfoUnlinked classInfoUnlinked) {
+            if (classInfoUnlinked != null) {
+                relativePathToClassInfoUnlinked.put(relativePath, classInfoUnlinked);
+            } else {
+                unparseableClassfiles.add(relativePath);
+            }
+            modified = true;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /** Get the cache file for a jarfile, named after the jarfile and a hash of its canonical path. */
+    private File getCacheFile(final File jarFile, final String canonicalPath) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-1")
+                    .digest(canonicalPath.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder buf = new StringBuilder(jarFile.getName()).append('-');
+            for (int i = 0; i < 8; i++) {
+                buf.append(Character.forDigit((hash[i] >> 4) & 0xf, 16))
+                        .append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return new File(cacheDir, buf.append(CACHE_FILE_EXTENSION).toString());
+        } catch (final NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Load the cached parser output for a jarfile, if the cache file is valid. Returns a CachedJar that is empty
+     * if there is no valid cache file, or null if the jarfile can't be identified.
+     */
+    public CachedJar load(final File jarFile, final SymbolTable symbolTable,
+            final DeferredLog log) {
+        final CachedJar cachedJar;
+        try {
+            cachedJar = new CachedJar(jarFile, jarFile.getCanonicalPath(), jarFile.length(),
+                    jarFile.lastModified());
+        } catch (final IOException | SecurityException e) {
+            return null;
+        }
+        cachedJars.add(cachedJar);
+        final File cacheFile = getCacheFile(jarFile, cachedJar.canonicalPath);
+        if (!cacheFile.exists()) {
+            return cachedJar;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !cachedJar.canonicalPath.equals(readString(in)) || in.readLong() != cachedJar.size
+                    || in.readLong() != cachedJar.lastModified || !parserSettingsKey.equals(readString(in))) {
+                if (FastClasspathScanner.verbose) {
+                    log.log(3, "Scan cache file " + cacheFile + " is out of date");
+                }
+                return cachedJar;
+            }
+            final int numStrings = readLength(in);
+            final String[] strings = new String[numStrings];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(in);
+            }
+            for (int i = 0, n = readVarint(in); i < n; i++) {
+                cachedJar.unparseableClassfiles.add(strings[readVarint(in)]);
+            }
+            for (int i = 0, n = readVarint(in); i < n; i++) {
+                final String relativePath = strings[readVarint(in)];
+                cachedJar.relativePathToClassInfoUnlinked.put(relativePath,
+                        readClassInfoUnlinked(in, strings, symbolTable, /* scanSpec = */ null));
+            }
+            cachedJar.loaded = true;
+            if (FastClasspathScanner.verbose) {
+                log.log(3, "Loaded " + cachedJar.relativePathToClassInfoUnlinked.size()
+                        + " classes from scan cache file " + cacheFile);
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (FastClasspathScanner.verbose) {
+                log.log(3, "Could not read scan cache file " + cacheFile + ": " + e);
+            }
+            cachedJar.relativePathToClassInfoUnlinked.clear();
+            cachedJar.unparseableClassfiles.clear();
+        }
+        return cachedJar;
+    }
+
+    /**
+     * Write the cache files of any jarfiles that had classfiles parsed during the scan, or that had no valid cache
+     * file. Returns the number of jarfiles whose parser output was loaded entirely from the cache.
+     */
+    public int save() {
+        int numHits = 0;
+        synchronized (cachedJars) {
+            for (final CachedJar cachedJar : cachedJars) {
+                if (cachedJar.loaded && !cachedJar.modified) {
+                    numHits++;
+                } else {
+                    try {
+                        save(cachedJar);
+                    } catch (final IOException | SecurityException e) {
+                        if (FastClasspathScanner.verbose) {
+                            Log.log(2, "Could not write scan cache file for " + cachedJar.jarFile + ": " + e);
+                        }
+                    }
+                }
+            }
+        }
+        return numHits;
+    }
+
+    /** The number of jarfiles whose parser output was looked up in the cache. */
+    public int size() {
+        return cachedJars.size();
+    }
+
+    /** Write the cache file for a jarfile, replacing the previous cache file atomically. */
+    private void save(final CachedJar cachedJar) throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+            throw new IOException("Could not create directory " + cacheDir);
+        }
+        // Build the string table
+        final Map<String, Integer> stringToIdx = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        for (final String relativePath : cachedJar.unparseableClassfiles) {
+            addString(relativePath, stringToIdx, strings);
+        }
+        for (final Entry<String, ClassInfoUnlinked> ent : cachedJar.relativePathToClassInfoUnlinked.entrySet()) {
+            addString(ent.getKey(), stringToIdx, strings);
+            addStrings(ent.getValue(), stringToIdx, strings);
+        }
+
+        final File cacheFile = getCacheFile(cachedJar.jarFile, cachedJar.canonicalPath);
+        final File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, cachedJar.canonicalPath);
+                out.writeLong(cachedJar.size);
+                out.writeLong(cachedJar.lastModified);
+                writeString(out, parserSettingsKey);
+                writeVarint(out, strings.size());
+                for (final String string : strings) {
+                    writeString(out, string);
+                }
+                writeVarint(out, cachedJar.unparseableClassfiles.size());
+                for (final String relativePath : cachedJar.unparseableClassfiles) {
+                    writeVarint(out, stringToIdx.get(relativePath));
+                }
+                writeVarint(out, cachedJar.relativePathToClassInfoUnlinked.size());
+                for (final Entry<String, ClassInfoUnlinked> ent : cachedJar.relativePathToClassInfoUnlinked
+                        .entrySet()) {
+                    writeVarint(out, stringToIdx.get(ent.getKey()));
+                    writeClassInfoUnlinked(out, ent.getValue(), stringToIdx);
+                }
+            }
+            try {
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    static void writeClassInfoUnlinked(final DataOutputStream out, final ClassInfoUnlinked c,
+            final Map<String, Integer> stringToIdx) throws IOException {
+        writeVarint(out, stringToIdx.get(c.className));
+        out.writeByte((c.isInterface ? 1 : 0) | (c.isAnnotation ? 2 : 0) | (c.superclassName != null ? 4 : 0));
+        if (c.superclassName != null) {
+            writeVarint(out, stringToIdx.get(c.superclassName));
+        }
+        writeStringIdxs(out, c.implementedInterfaces, stringToIdx);
+        writeStringIdxs(out, c.annotations, stringToIdx);
+        writeStringIdxs(out, c.fieldTypes, stringToIdx);
+        if (c.staticFinalFieldValues == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, c.staticFinalFieldValues.size());
+            for (final Entry<String, Object> ent : c.staticFinalFieldValues.entrySet()) {
+                writeVarint(out, stringToIdx.get(ent.getKey()));
+                final Object value = ent.getValue();
+                if (value instanceof Integer) {
+                    out.writeByte(INTEGER);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(LONG);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Float) {
+                    out.writeByte(FLOAT);
+                    out.writeFloat((Float) value);
+                } else if (value instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble((Double) value);
+                } else if (value instanceof String) {
+                    out.writeByte(STRING);
+                    writeString(out, (String) value);
+                } else if (value instanceof Byte) {
+                    out.writeByte(BYTE);
+                    out.writeByte((Byte) value);
+                } else if (value instanceof Character) {
+                    out.writeByte(CHARACTER);
+                    out.writeChar((Character) value);
+                } else if (value instanceof Short) {
+                    out.writeByte(SHORT);
+                    out.writeShort((Short) value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte(BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else {
+                    throw new IOException("Unknown constant value type " + value.getClass().getName());
+                }
+            }
+        }
+        if (c.methodInfo == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, c.methodInfo.size());
+            for (final MethodInfo methodInfo : c.methodInfo) {
+                writeVarint(out, stringToIdx.get(methodInfo.methodName));
+                writeVarint(out, stringToIdx.get(methodInfo.typeDescriptor));
+                writeVarint(out, methodInfo.modifiers);
+                writeStringIdxs(out, methodInfo.annotationNames, stringToIdx);
+                writeAnnotationInfo(out, methodInfo.annotationInfo, stringToIdx);
+            }
+        }
+        if (c.fieldInfo == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, c.fieldInfo.size());
+            for (final FieldInfo fieldInfo : c.fieldInfo) {
+                writeVarint(out, stringToIdx.get(fieldInfo.fieldName));
+                writeVarint(out, stringToIdx.get(fieldInfo.typeDescriptor));
+                writeVarint(out, fieldInfo.modifiers);
+                writeStringIdxs(out, fieldInfo.annotationNames, stringToIdx);
+                writeAnnotationInfo(out, fieldInfo.annotationInfo, stringToIdx);
+            }
+        }
+        writeAnnotationInfo(out, c.annotationInfo, stringToIdx);
+    }
+
+    /** Write the names and raw bytes of a list of annotations. */
+    private static void writeAnnotationInfo(final DataOutputStream out, final List<AnnotationInfo> annotationInfo,
+            final Map<String, Integer> stringToIdx) throws IOException {
+        if (annotationInfo == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, annotationInfo.size());
+            for (final AnnotationInfo ai : annotationInfo) {
+                writeVarint(out, stringToIdx.get(ai.annotationName));
+                writeVarint(out, ai.rawBytes.length);
+                out.write(ai.rawBytes);
+            }
+        }
+    }
+
+    /**
+     * Read a ClassInfoUnlinked object written by writeClassInfoUnlinked(). If scanSpec is non-null, the names of
+     * blacklisted superclasses, interfaces, annotations and field types are dropped, as the classfile parser would
+     * have done, and so are the methods, fields and annotation parameter values if method info, field info or
+     * annotation info is not enabled.
+     */
+    static ClassInfoUnlinked readClassInfoUnlinked(final DataInputStream in, final String[] strings,
+            final SymbolTable symbolTable, final ScanSpec scanSpec) throws IOException {
+        final String className = strings[readVarint(in)];
+        final int flags = in.readByte();
+        final ClassInfoUnlinked c = new ClassInfoUnlinked(className, (flags & 1) != 0, (flags & 2) != 0,
+                symbolTable);
+        if ((flags & 4) != 0) {
+            final String superclassName = strings[readVarint(in)];
+            if (scanSpec == null || scanSpec.classIsNotBlacklisted(superclassName)) {
+                c.addSuperclass(superclassName);
+            }
+        }
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String interfaceName = strings[readVarint(in)];
+            if (scanSpec == null || scanSpec.classIsNotBlacklisted(interfaceName)) {
+                c.addImplementedInterface(interfaceName);
+            }
+        }
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String annotationName = strings[readVarint(in)];
+            if (scanSpec == null || scanSpec.classIsNotBlacklisted(annotationName)) {
+                c.addAnnotation(annotationName);
+            }
+        }
+        readFieldTypes(in, strings, c, scanSpec);
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String fieldName = strings[readVarint(in)];
+            final byte tag = in.readByte();
+            final Object value;
+            switch (tag) {
+            case INTEGER:
+                value = in.readInt();
+                break;
+            case LONG:
+                value = in.readLong();
+                break;
+            case FLOAT:
+                value = in.readFloat();
+                break;
+            case DOUBLE:
+                value = in.readDouble();
+                break;
+            case STRING:
+                value = readString(in);
+                break;
+            case BYTE:
+                value = in.readByte();
+                break;
+            case CHARACTER:
+                value = in.readChar();
+                break;
+            case SHORT:
+                value = in.readShort();
+                break;
+            case BOOLEAN:
+                value = in.readBoolean();
+                break;
+            default:
+                throw new IOException("Unknown constant value tag " + tag);
+            }
+            c.addFieldConstantValue(fieldName, value);
+        }
+        final boolean addMethodInfo = scanSpec == null || scanSpec.enableMethodInfo;
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String methodName = strings[readVarint(in)];
+            final String typeDescriptor = strings[readVarint(in)];
+            final int modifiers = readVarint(in);
+            final List<String> annotationNames = readAnnotationNames(in, strings, scanSpec);
+            final List<AnnotationInfo> annotationInfo = readAnnotationInfo(in, strings, symbolTable, scanSpec);
+            if (addMethodInfo) {
+                c.addMethodInfo(methodName, typeDescriptor, modifiers, annotationNames, annotationInfo);
+            }
+        }
+        final boolean addFieldInfo = scanSpec == null || scanSpec.enableFieldInfo;
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String fieldName = strings[readVarint(in)];
+            final String typeDescriptor = strings[readVarint(in)];
+            final int modifiers = readVarint(in);
+            final List<String> annotationNames = readAnnotationNames(in, strings, scanSpec);
+            final List<AnnotationInfo> annotationInfo = readAnnotationInfo(in, strings, symbolTable, scanSpec);
+            if (addFieldInfo) {
+                c.addFieldInfo(fieldName, typeDescriptor, modifiers, annotationNames, annotationInfo);
+            }
+        }
+        final List<AnnotationInfo> annotationInfo = readAnnotationInfo(in, strings, symbolTable, scanSpec);
+        if (annotationInfo != null) {
+            for (final AnnotationInfo ai : annotationInfo) {
+                c.addAnnotationInfo(ai);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Read a list of annotations written by writeAnnotationInfo(), dropping any that are blacklisted. Returns null
+     * if the list is empty, or if annotation info is not enabled.
+     */
+    private static List<AnnotationInfo> readAnnotationInfo(final DataInputStream in, final String[] strings,
+            final SymbolTable symbolTable, final ScanSpec scanSpec) throws IOException {
+        List<AnnotationInfo> annotationInfo = null;
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String annotationName = strings[readVarint(in)];
+            final byte[] rawBytes = new byte[readLength(in)];
+            in.readFully(rawBytes);
+            if (scanSpec == null || (scanSpec.enableAnnotationInfo && scanSpec.classIsNotBlacklisted(annotationName))) {
+                if (annotationInfo == null) {
+                    annotationInfo = new ArrayList<>(2);
+                }
+                annotationInfo.add(new AnnotationInfo(symbolTable.intern(annotationName), rawBytes));
+            }
+        }
+        return annotationInfo;
+    }
+
+    /** Read a list of the names of the annotations on a method or field, dropping any that are blacklisted. */
+    private static List<String> readAnnotationNames(final DataInputStream in, final String[] strings,
+            final ScanSpec scanSpec) throws IOException {
+        final List<String> annotationNames = new ArrayList<>();
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String annotationName = strings[readVarint(in)];
+            if (scanSpec == null || scanSpec.classIsNotBlacklisted(annotationName)) {
+                annotationNames.add(annotationName);
+            }
+        }
+        return annotationNames;
+    }
+
+    /**
+     * Read a list of field type names, adding any that are not blacklisted to the ClassInfoUnlinked object. If the
+     * ClassInfoUnlinked object is null, the list is skipped.
+     */
+    static void readFieldTypes(final DataInputStream in, final String[] strings, final ClassInfoUnlinked c,
+            final ScanSpec scanSpec) throws IOException {
+        for (int i = 0, n = readVarint(in); i < n; i++) {
+            final String fieldTypeName = strings[readVarint(in)];
+            if (c != null && (scanSpec == null || scanSpec.classIsNotBlacklisted(fieldTypeName))) {
+                c.addFieldType(fieldTypeName);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    static void addString(final String string, final Map<String, Integer> stringToIdx,
+            final List<String> strings) {
+        if (string != null && !stringToIdx.containsKey(string)) {
+            stringToIdx.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    static void addStrings(final Iterable<String> iterable, final Map<String, Integer> stringToIdx,
+            final List<String> strings) {
+        if (iterable != null) {
+            for (final String string : iterable) {
+                addString(string, stringToIdx, strings);
+            }
+        }
+    }
+
+    /** Add the strings that writeClassInfoUnlinked() writes for a ClassInfoUnlinked object to the string table. */
+    static void addStrings(final ClassInfoUnlinked c, final Map<String, Integer> stringToIdx,
+            final List<String> strings) {
+        addString(c.className, stringToIdx, strings);
+        addString(c.superclassName, stringToIdx, strings);
+        addStrings(c.implementedInterfaces, stringToIdx, strings);
+        addStrings(c.annotations, stringToIdx, strings);
+        addStrings(c.fieldTypes, stringToIdx, strings);
+        if (c.staticFinalFieldValues != null) {
+            addStrings(c.staticFinalFieldValues.keySet(), stringToIdx, strings);
+        }
+        if (c.methodInfo != null) {
+            for (final MethodInfo methodInfo : c.methodInfo) {
+                addString(methodInfo.methodName, stringToIdx, strings);
+                addString(methodInfo.typeDescriptor, stringToIdx, strings);
+                addStrings(methodInfo.annotationNames, stringToIdx, strings);
+                addAnnotationInfoStrings(methodInfo.annotationInfo, stringToIdx, strings);
+            }
+        }
+        if (c.fieldInfo != null) {
+            for (final FieldInfo fieldInfo : c.fieldInfo) {
+                addString(fieldInfo.fieldName, stringToIdx, strings);
+                addString(fieldInfo.typeDescriptor, stringToIdx, strings);
+                addStrings(fieldInfo.annotationNames, stringToIdx, strings);
+                addAnnotationInfoStrings(fieldInfo.annotationInfo, stringToIdx, strings);
+            }
+        }
+        addAnnotationInfoStrings(c.annotationInfo, stringToIdx, strings);
+    }
+
+    private static void addAnnotationInfoStrings(final List<AnnotationInfo> annotationInfo,
+            final Map<String, Integer> stringToIdx, final List<String> strings) {
+        if (annotationInfo != null) {
+            for (final AnnotationInfo ai : annotationInfo) {
+                addString(ai.annotationName, stringToIdx, strings);
+            }
+        }
+    }
+
+    static void writeStringIdxs(final DataOutputStream out, final Collection<String> collection,
+            final Map<String, Integer> stringToIdx) throws IOException {
+        if (collection == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, collection.size());
+            for (final String string : collection) {
+                writeVarint(out, stringToIdx.get(string));
+            }
+        }
+    }
+
+    /** Write a string as its UTF-8 length followed by its UTF-8 bytes (unlike writeUTF, has no length limit). */
+    static void writeString(final DataOutputStream out, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Read the length of an array, checking that it is not larger than MAX_LENGTH. */
+    static int readLength(final DataInputStream in) throws IOException {
+        final int len = readVarint(in);
+        if (len > MAX_LENGTH) {
+            throw new IOException("Invalid length " + len);
+        }
+        return len;
+    }
+
+    static void writeVarint(final DataOutputStream out, final int value) throws IOException {
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            out.writeByte(0x80 | (v & 0x7f));
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarint(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid length");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.scanner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.ClassInfoUnlinked;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassfileBinaryParser;
+import io.github.lukehutch.fastclasspathscanner.utils.Log.DeferredLog;
+import io.github.lukehutch.fastclasspathscanner.utils.SymbolTable;
+
+/**
+ * A scan index, built from the classfiles of a module at build time and stored in the module's jarfile, so that
+ * the classfiles of the jarfile do not have to be decompressed and parsed at runtime.
+ * 
+ * The index is built by running this class's main method over the classes directory of the module after
+ * compilation (e.g. in the Maven "process-classes" phase), which writes the index to INDEX_PATH within the classes
+ * directory, so that it is packaged into the jarfile:
+ * 
+ * <pre>
+ * java -cp fast-classpath-scanner.jar io.github.lukehutch.fastclasspathscanner.scanner.ScanIndex target/classes
+ * </pre>
+ * 
+ * The index holds the classfile parser output for every classfile, obtained without blacklisting any classes, and
+ * the CRC-32 checksum of each classfile. At runtime, blacklisted class names are removed from the indexed parser
+ * output, which then gives the same result as parsing the classfile. Classfiles whose checksum does not match the
+ * checksum of the zipfile entry (i.e. classfiles that changed after the index was built), and classes that have
+ * static final fields to match, are parsed as usual.
+ */
+public final class ScanIndex {
+    /** The path of the scan index within the classes directory or jarfile. */
+    public static final String INDEX_PATH = "META-INF/fast-classpath-scanner/scan-index";
+
+    /** INDEX_PATH as UTF-8 bytes, for comparing against zipfile entry names. */
+    static final byte[] INDEX_PATH_BYTES = INDEX_PATH.getBytes(StandardCharsets.UTF_8);
+
+    private static final int MAGIC = 0x46435349; // "FCSI"
+    private static final int FORMAT_VERSION = 4;
+
+    /** The CRC-32 checksum of each indexed classfile, indexed by relative path. */
+    private final Map<String, Integer> relativePathToCrc = new HashMap<>();
+
+    /** The ClassInfoUnlinked object for each classfile that could be parsed, indexed by relative path. */
+    private final Map<String, ClassInfoUnlinked> relativePathToClassInfoUnlinked = new HashMap<>();
+
+    private ScanIndex() {
+    }
+
+    /**
+     * Returns true if the parser output for the classfile is in the index, and the index was built from a
+     * classfile with the given CRC-32 checksum.
+     */
+    public boolean contains(final String relativePath, final long crc) {
+        final Integer indexedCrc = relativePathToCrc.get(relativePath);
+        return indexedCrc != null && crc >= 0 && indexedCrc == (int) crc;
+    }
+
+    /**
+     * Returns the indexed ClassInfoUnlinked object for the classfile, or null if the classfile could not be parsed
+     * (or is not in the index).
+     */
+    public ClassInfoUnlinked get(final String relativePath) {
+        return relativePathToClassInfoUnlinked.get(relativePath);
+    }
+
+    /** The number of classfiles in the index. */
+    public int size() {
+        return relativePathToCrc.size();
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Read a scan index, removing blacklisted class names from the indexed parser output as specified by the
+     * ScanSpec. Classes that have static final fields to match are not read, so that they are parsed instead.
+     */
+    static ScanIndex read(final InputStream inputStream, final ScanSpec scanSpec,
+            final Map<String, HashSet<String>> classNameToStaticFinalFieldsToMatch,
+            final SymbolTable symbolTable) throws IOException {
+        final DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a scan index");
+        }
+        final int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported scan index format version " + formatVersion);
+        }
+        final int numStrings = ScanCache.readLength(in);
+        final String[] strings = new String[numStrings];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = ScanCache.readString(in);
+        }
+        final ScanIndex scanIndex = new ScanIndex();
+        for (int i = 0, n = ScanCache.readVarint(in); i < n; i++) {
+            scanIndex.relativePathToCrc.put(strings[ScanCache.readVarint(in)], in.readInt());
+        }
+        for (int i = 0, n = ScanCache.readVarint(in); i < n; i++) {
+            final String relativePath = strings[ScanCache.readVarint(in)];
+            final int crc = in.readInt();
+            final ClassInfoUnlinked classInfoUnlinked = ScanCache.readClassInfoUnlinked(in, strings,
+                    symbolTable, scanSpec);
+            // Field types of fields that are only scanned if field visibility is ignored
+            final ClassInfoUnlinked hiddenFieldTypes = scanSpec.ignoreFieldVisibility ? classInfoUnlinked : null;
+            ScanCache.readFieldTypes(in, strings, hiddenFieldTypes, scanSpec);
+            if (!classNameToStaticFinalFieldsToMatch.containsKey(classInfoUnlinked.className)) {
+                scanIndex.relativePathToCrc.put(relativePath, crc);
+                scanIndex.relativePathToClassInfoUnlinked.put(relativePath, classInfoUnlinked);
+            }
+        }
+        return scanIndex;
+    }
+
+    // -------------------------------------------------------------------------------------------------------------
+
+    /** Find the relative paths of the classfiles in a directory tree. */
+    private static void findClassfiles(final File dir, final String relativePath,
+            final TreeMap<String, File> relativePathToFileOut) throws IOException {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list directory " + dir);
+        }
+        for (final File file : files) {
+            final String fileRelativePath = relativePath + file.getName();
+            if (file.isDirectory()) {
+                findClassfiles(file, fileRelativePath + "/", relativePathToFileOut);
+            } else if (fileRelativePath.endsWith(".class")) {
+                relativePathToFileOut.put(fileRelativePath, file);
+            }
+        }
+    }
+
+    /**
+     * Build the scan index for the classfiles in a classes directory, and write it to the given file.
+     * 
+     * @return The number of classfiles that were indexed.
+     */
+    public static int build(final File classesDir, final File indexFile) throws IOException {
+        final TreeMap<String, File> relativePathToFile = new TreeMap<>();
+        findClassfiles(classesDir, "", relativePathToFile);
+
+        // Parse each classfile without blacklisting any classes, once with the default field visibility and once
+        // ignoring field visibility, so that blacklisting and field visibility can be applied at runtime (methods,
+        // fields and annotation parameter values are also indexed, and are dropped at runtime if they are not
+        // enabled)
+        final DeferredLog log = new DeferredLog();
+        final ScanSpec scanSpec = new ScanSpec(new String[] { "!!" });
+        scanSpec.enableMethodInfo = true;
+        scanSpec.enableFieldInfo = true;
+        scanSpec.enableAnnotationInfo = true;
+        final ScanSpec scanSpecAllFields = new ScanSpec(new String[] { "!!" });
+        scanSpecAllFields.ignoreFieldVisibility = true;
+        final ClassfileBinaryParser parser = new ClassfileBinaryParser(scanSpec, log);
+        final ClassfileBinaryParser parserAllFields = new ClassfileBinaryParser(scanSpecAllFields, log);
+        final Map<String, HashSet<String>> noStaticFinalFieldsToMatch = Collections.emptyMap();
+        final SymbolTable symbolTable = new SymbolTable();
+        final Map<String, Integer> relativePathToCrc = new HashMap<>();
+        final List<String> unparseableClassfiles = new ArrayList<>();
+        final Map<String, ClassInfoUnlinked> relativePathToClassInfoUnlinked = new TreeMap<>();
+        final Map<String, List<String>> relativePathToHiddenFieldTypes = new HashMap<>();
+        for (final Entry<String, File> ent : relativePathToFile.entrySet()) {
+            final String relativePath = ent.getKey();
+            final byte[] classfileBytes = Files.readAllBytes(ent.getValue().toPath());
+            final CRC32 crc = new CRC32();
+            crc.update(classfileBytes);
+            relativePathToCrc.put(relativePath, (int) crc.getValue());
+            final ClassInfoUnlinked classInfoUnlinked = parser.readClassInfoFromClassfileHeader(
+                    ByteBuffer.wrap(classfileBytes), relativePath, noStaticFinalFieldsToMatch,
+                    symbolTable);
+            if (classInfoUnlinked == null) {
+                unparseableClassfiles.add(relativePath);
+                continue;
+            }
+            relativePathToClassInfoUnlinked.put(relativePath, classInfoUnlinked);
+            final ClassInfoUnlinked classInfoUnlinkedAllFields = parserAllFields.readClassInfoFromClassfileHeader(
+                    ByteBuffer.wrap(classfileBytes), relativePath, noStaticFinalFieldsToMatch,
+                    symbolTable);
+            final List<String> hiddenFieldTypes = new ArrayList<>();
+            if (classInfoUnlinkedAllFields != null && classInfoUnlinkedAllFields.fieldTypes != null) {
+                for (final String fieldType : classInfoUnlinkedAllFields.fieldTypes) {
+                    if (classInfoUnlinked.fieldTypes == null || !classInfoUnlinked.fieldTypes.contains(fieldType)) {
+                        hiddenFieldTypes.add(fieldType);
+                    }
+                }
+            }
+            relativePathToHiddenFieldTypes.put(relativePath, hiddenFieldTypes);
+        }
+        log.flush();
+
+        // Build the string table
+        final Map<String, Integer> stringToIdx = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        for (final String relativePath : unparseableClassfiles) {
+            ScanCache.addString(relativePath, stringToIdx, strings);
+        }
+        for (final Entry<String, ClassInfoUnlinked> ent : relativePathToClassInfoUnlinked.entrySet()) {
+            ScanCache.addString(ent.getKey(), stringToIdx, strings);
+            ScanCache.addStrings(ent.getValue(), stringToIdx, strings);
+            ScanCache.addStrings(relativePathToHiddenFieldTypes.get(ent.getKey()), stringToIdx, strings);
+        }
+
+        final File indexDir = indexFile.getParentFile();
+        if (indexDir != null && !indexDir.isDirectory() && !indexDir.mkdirs() && !indexDir.isDirectory()) {
+            throw new IOException("Could not create directory " + indexDir);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            ScanCache.writeVarint(out, strings.size());
+            for (final String string : strings) {
+                ScanCache.writeString(out, string);
+            }
+            ScanCache.writeVarint(out, unparseableClassfiles.size());
+            for (final String relativePath : unparseableClassfiles) {
+                ScanCache.writeVarint(out, stringToIdx.get(relativePath));
+                out.writeInt(relativePathToCrc.get(relativePath));
+            }
+            ScanCache.writeVarint(out, relativePathToClassInfoUnlinked.size());
+            for (final Entry<String, ClassInfoUnlinked> ent : relativePathToClassInfoUnlinked.entrySet()) {
+                ScanCache.writeVarint(out, stringToIdx.get(ent.getKey()));
+                out.writeInt(relativePathToCrc.get(ent.getKey()));
+                ScanCache.writeClassInfoUnlinked(out, ent.getValue(), stringToIdx);
+                ScanCache.writeStringIdxs(out, relativePathToHiddenFieldTypes.get(ent.getKey()), stringToIdx);
+            }
+        }
+        return relativePathToFile.size();
+    }
+
+    /**
+     * Build the scan index for a classes directory. Usage: ScanIndex &lt;classes-dir&gt; [&lt;index-file&gt;],
+     * where index-file defaults to INDEX_PATH within classes-dir.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java " + ScanIndex.class.getName() + " <classes-dir> [<index-file>]");
+            System.exit(1);
+        }
+        final File classesDir = new File(args[0]);
+        final File indexFile = args.length > 1 ? new File(args[1]) : new File(classesDir, INDEX_PATH);
+        final int numClassfiles = build(classesDir, indexFile);
+        System.out.println("Indexed " + numClassfiles + " classfiles in " + indexFile);
+    }
+}
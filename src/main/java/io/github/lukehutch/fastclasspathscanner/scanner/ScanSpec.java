@@ -1,11 +1,15 @@
 package io.github.lukehutch.fastclasspathscanner.scanner;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
 import io.github.lukehutch.fastclasspathscanner.utils.Log;
+import io.github.lukehutch.fastclasspathscanner.utils.MappedZipFile;
 
 public class ScanSpec {
     /** Whitelisted package paths with "/" appended, or the empty list if all packages are whitelisted. */
@@ -41,6 +45,15 @@ public class ScanSpec {
     /** Blacklisted jarfile names containing a glob('*') character, converted to a regexp. (Leaf filename only.) */
     private final ArrayList<Pattern> blacklistedJarPatterns = new ArrayList<>();
 
+    /** UTF-8 encoded blacklisted path prefixes, for matching against the raw bytes of zipfile entry names. */
+    private final byte[][] blacklistedPathPrefixBytes;
+
+    /**
+     * UTF-8 encoded whitelisted path prefixes and parent paths of specifically-whitelisted classes, for matching
+     * against the raw bytes of zipfile entry names.
+     */
+    private final byte[][] whitelistedPathPrefixBytes;
+
     /** True if jarfiles should be scanned. */
     public final boolean scanJars;
 
@@ -67,6 +80,89 @@ public class ScanSpec {
      */
     public boolean ignoreFieldVisibility = false;
 
+    /**
+     * If true, jarfiles are memory-mapped and read with MappedZipFile, falling back to ZipFile for jarfiles that
+     * MappedZipFile does not support. If false, jarfiles are always read with ZipFile.
+     */
+    public boolean memoryMapJars = true;
+
+    /**
+     * If true, directories are listed using java.nio.file, and the attributes of each directory entry (type, size
+     * and last modified time) are read with a single call. If false, directories are listed using java.io.File, and
+     * each attribute is read with a separate call.
+     */
+    public boolean nioDirectoryTraversal = true;
+
+    /**
+     * The number of threads to use for parsing classfiles and walking directories in parallel, or 0 to choose the
+     * number of threads automatically, and adjust it during the scan.
+     */
+    public int numThreads = 0;
+
+    /**
+     * The number of worker threads to call FileMatchProcessors on, or 0 to call them on the thread that merges the
+     * results of the scan, which stalls the scan while each FileMatchProcessor runs.
+     */
+    public int numFileMatchThreads = 0;
+
+    /**
+     * If true, each FileMatchProcessor is called for one file at a time, in classpath order, even if
+     * numFileMatchThreads is greater than 0. If false, a FileMatchProcessor may be called concurrently for
+     * different files, in any order.
+     */
+    public boolean orderedFileMatches = true;
+
+    /**
+     * If true, the classfile parser only reads the parts of each classfile that are needed by the registered class
+     * matchers (see requireClassAnnotations and requireFieldTypes), and stops reading each classfile as soon as it
+     * has read them. The class hierarchy is always read. If false, all classfile facts are read.
+     */
+    public boolean parseOnlyRequiredFacts = false;
+
+    /** True if a registered class matcher needs the annotations on each class. */
+    public boolean requireClassAnnotations = false;
+
+    /** True if a registered class matcher needs the types of the fields of each class. */
+    public boolean requireFieldTypes = false;
+
+    /**
+     * If true, the classfile parser reads the name, type descriptor, access flags and annotations of each method,
+     * so that methods can be looked up by annotation. If false, the methods of each class are skipped.
+     */
+    public boolean enableMethodInfo = false;
+
+    /**
+     * If true, the classfile parser reads the name, type descriptor, access flags and annotations of each field
+     * (whatever its visibility), so that fields can be looked up by annotation. If false, field annotations are
+     * skipped.
+     */
+    public boolean enableFieldInfo = false;
+
+    /**
+     * If true, the raw bytes of each annotation that is read (on classes, and on methods and fields if method info
+     * or field info is enabled) are kept, so that the parameter values of the annotation can be decoded on demand.
+     * If false, annotation parameter values are skipped.
+     */
+    public boolean enableAnnotationInfo = false;
+
+    /**
+     * The directory to store the persistent scan cache in, or null if the results of parsing the classfiles in
+     * jarfiles should not be cached between scans.
+     */
+    public File scanCacheDir = null;
+
+    /**
+     * If true, the parser output for the classfiles in a jarfile is read from the scan index built into the jarfile
+     * by ScanIndex at build time, if present, rather than parsing the classfiles.
+     */
+    public boolean useScanIndexes = true;
+
+    /**
+     * If true, the directories and jarfiles found by each scan are watched for changes using a WatchService, rather
+     * than detecting changes by walking the classpath again.
+     */
+    public boolean watchClasspath = false;
+
     public ScanSpec(final String[] scanSpecs) {
         final HashSet<String> uniqueWhitelistedPathPrefixes = new HashSet<>();
         final HashSet<String> uniqueBlacklistedPathPrefixes = new HashSet<>();
@@ -189,6 +285,17 @@ public class ScanSpec {
         this.scanJars = scanJars;
         this.scanNonJars = scanNonJars;
 
+        blacklistedPathPrefixBytes = new byte[blacklistedPathPrefixes.size()][];
+        for (int i = 0; i < blacklistedPathPrefixBytes.length; i++) {
+            blacklistedPathPrefixBytes[i] = blacklistedPathPrefixes.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        final ArrayList<String> whitelistedPrefixes = new ArrayList<>(whitelistedPathPrefixes);
+        whitelistedPrefixes.addAll(specificallyWhitelistedClassParentRelativePaths);
+        whitelistedPathPrefixBytes = new byte[whitelistedPrefixes.size()][];
+        for (int i = 0; i < whitelistedPathPrefixBytes.length; i++) {
+            whitelistedPathPrefixBytes[i] = whitelistedPrefixes.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
         if (FastClasspathScanner.verbose) {
             Log.log("Whitelisted relative path prefixes:  " + whitelistedPathPrefixes);
             if (!blacklistedPathPrefixes.isEmpty()) {
@@ -268,6 +375,27 @@ public class ScanSpec {
         return ScanSpecPathMatch.NOT_WITHIN_WHITELISTED_PATH;
     }
 
+    /**
+     * Fast conservative test of whether a zipfile entry could be within a whitelisted path, performed on the raw
+     * bytes of the entry name, so that the entry name does not need to be decoded into a String for the (usually
+     * very large number of) entries that are not whitelisted. Returns false if the entry is definitely not
+     * whitelisted, or if it is blacklisted. If true is returned, pathWhitelistMatchStatus() still needs to be called
+     * on the parent path of the entry.
+     */
+    public boolean zipEntryMayBeWhitelisted(final MappedZipFile zipFile, final int entryIdx) {
+        for (final byte[] blacklistedPrefix : blacklistedPathPrefixBytes) {
+            if (zipFile.nameStartsWith(entryIdx, blacklistedPrefix)) {
+                return false;
+            }
+        }
+        for (final byte[] whitelistedPrefix : whitelistedPathPrefixBytes) {
+            if (zipFile.nameStartsWith(entryIdx, whitelistedPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns true if the given relative path (for a classfile name, including ".class") matches a
      * specifically-whitelisted (and non-blacklisted) classfile's relative path.
@@ -277,6 +405,56 @@ public class ScanSpec {
                 && !specificallyBlacklistedClassRelativePaths.contains(relativePath));
     }
 
+    /**
+     * Returns a string identifying the settings that affect the output of the classfile parser (the class blacklist
+     * and field visibility), so that cached parser output can be discarded if these settings change.
+     */
+    public String getClassfileParserSettingsKey() {
+        return "blacklistedPackagePrefixes=" + new TreeSet<>(blacklistedPackagePrefixes)
+                + ";specificallyBlacklistedClassNames=" + new TreeSet<>(specificallyBlacklistedClassNames)
+                + ";ignoreFieldVisibility=" + ignoreFieldVisibility
+                + ";parseClassAnnotations=" + parseClassAnnotations()
+                + ";parseFieldTypes=" + parseFieldTypes()
+                + ";enableMethodInfo=" + enableMethodInfo
+                + ";enableFieldInfo=" + enableFieldInfo
+                + ";enableAnnotationInfo=" + enableAnnotationInfo;
+    }
+
+    /** Returns true if the classfile parser should read the annotations on each class. */
+    public boolean parseClassAnnotations() {
+        return !parseOnlyRequiredFacts || requireClassAnnotations;
+    }
+
+    /** Returns true if the classfile parser should read the types of the fields of each class. */
+    public boolean parseFieldTypes() {
+        return !parseOnlyRequiredFacts || requireFieldTypes;
+    }
+
+    /**
+     * The facts that the classfile parser was set to read during a scan. The ScanSpec may be changed after the
+     * scan, so this snapshot is used to check whether a query can be answered from the results of the scan.
+     */
+    public static class ParsedFacts {
+        public final boolean classAnnotations;
+        public final boolean fieldTypes;
+        public final boolean methodInfo;
+        public final boolean fieldInfo;
+        public final boolean annotationInfo;
+
+        private ParsedFacts(final ScanSpec scanSpec) {
+            this.classAnnotations = scanSpec.parseClassAnnotations();
+            this.fieldTypes = scanSpec.parseFieldTypes();
+            this.methodInfo = scanSpec.enableMethodInfo;
+            this.fieldInfo = scanSpec.enableFieldInfo;
+            this.annotationInfo = scanSpec.enableAnnotationInfo;
+        }
+    }
+
+    /** Returns a snapshot of the facts that the classfile parser is currently set to read. */
+    public ParsedFacts getParsedFacts() {
+        return new ParsedFacts(this);
+    }
+
     /** Returns true if the class is not specifically blacklisted, and is not within a blacklisted package. */
     public boolean classIsNotBlacklisted(final String className) {
         if (specificallyBlacklistedClassNames.contains(className)) {
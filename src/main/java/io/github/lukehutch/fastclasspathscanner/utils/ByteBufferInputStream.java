@@ -0,0 +1,72 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/** An InputStream that reads from a ByteBuffer, without copying the contents of the buffer. */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    /** Read from the remaining bytes of the buffer. (The position of the buffer is advanced as bytes are read.) */
+    public ByteBufferInputStream(final ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        final int numBytesToRead = Math.min(len, buf.remaining());
+        if (numBytesToRead == 0) {
+            return -1;
+        }
+        buf.get(bytes, off, numBytesToRead);
+        return numBytesToRead;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final int numBytesToSkip = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + numBytesToSkip);
+        return numBytesToSkip;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.utils;
+
+/**
+ * A memory-compact set of relative paths, used for classpath masking. Rather than storing a String object and a
+ * hash table entry for each path, paths are encoded into a single byte array, and indexed by an open-addressing
+ * hash table of longs, each holding the hash of a path and the offset of the path in the byte array. Paths with
+ * equal hashes are compared byte by byte, so hash collisions never cause two different paths to be treated as the
+ * same path. Not threadsafe.
+ */
+public class CompactPathSet {
+    private static final int INITIAL_TABLE_SIZE = 1 << 10;
+    private static final int INITIAL_PATH_BYTES_SIZE = 1 << 14;
+
+    /**
+     * The hash table. Each non-zero slot holds the hash of a path in the upper 32 bits, and the offset of the path
+     * in pathBytes plus one in the lower 32 bits. The size of the table is always a power of two.
+     */
+    private long[] table;
+
+    /** The encoded paths, each preceded by its encoded length as a varint. */
+    private byte[] pathBytes;
+    private int pathBytesLen;
+
+    /** The number of paths in the set. */
+    private int size;
+
+    /** The encoding of the path currently being added. */
+    private byte[] encodedPath = new byte[256];
+
+    public CompactPathSet() {
+        clear();
+    }
+
+    /** Add a path to the set. Returns true if the path was added; false if it was already in the set. */
+    public boolean add(final String path) {
+        final int encodedLen = encode(path);
+        final int hash = hash(path);
+        final int mask = table.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            final long slot = table[i];
+            if (slot == 0L) {
+                final int offset = store(encodedLen);
+                table[i] = ((long) hash << 32) | (offset + 1L);
+                if (++size > table.length >> 1) {
+                    resize();
+                }
+                return true;
+            } else if ((int) (slot >>> 32) == hash && storedPathEquals((int) slot - 1, encodedLen)) {
+                return false;
+            }
+        }
+    }
+
+    /** The number of paths in the set. */
+    public int size() {
+        return size;
+    }
+
+    /** Clear the set, and release the memory used to store paths. */
+    public void clear() {
+        table = new long[INITIAL_TABLE_SIZE];
+        pathBytes = new byte[INITIAL_PATH_BYTES_SIZE];
+        pathBytesLen = 0;
+        size = 0;
+    }
+
+    /** Spread the bits of String.hashCode(), since the low bits are used to index the table. */
+    private static int hash(final String path) {
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Encode a path into encodedPath, and return the encoded length. Each char is encoded separately as one to
+     * three bytes, in the same way as UTF-8 encodes a char below U+10000, so the encoding of a path is unique (and
+     * paths are usually ASCII, taking one byte per char).
+     */
+    private int encode(final String path) {
+        final int numChars = path.length();
+        if (encodedPath.length < numChars * 3) {
+            encodedPath = new byte[Math.max(numChars * 3, encodedPath.length * 2)];
+        }
+        final byte[] buf = encodedPath;
+        int len = 0;
+        for (int i = 0; i < numChars; i++) {
+            final char c = path.charAt(i);
+            if (c < 0x80) {
+                buf[len++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[len++] = (byte) (0xc0 | (c >> 6));
+                buf[len++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                buf[len++] = (byte) (0xe0 | (c >> 12));
+                buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[len++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return len;
+    }
+
+    /** Append the encoded path to pathBytes, and return its offset. */
+    private int store(final int encodedLen) {
+        // Up to 5 bytes for the varint length
+        final long requiredLen = (long) pathBytesLen + 5 + encodedLen;
+        if (requiredLen > pathBytes.length) {
+            if (requiredLen > Integer.MAX_VALUE - 8) {
+                throw new RuntimeException("Too many paths");
+            }
+            final byte[] newPathBytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max(requiredLen, pathBytes.length * 2L))];
+            System.arraycopy(pathBytes, 0, newPathBytes, 0, pathBytesLen);
+            pathBytes = newPathBytes;
+        }
+        final int offset = pathBytesLen;
+        int len = encodedLen;
+        while (len >= 0x80) {
+            pathBytes[pathBytesLen++] = (byte) (0x80 | (len & 0x7f));
+            len >>>= 7;
+        }
+        pathBytes[pathBytesLen++] = (byte) len;
+        System.arraycopy(encodedPath, 0, pathBytes, pathBytesLen, encodedLen);
+        pathBytesLen += encodedLen;
+        return offset;
+    }
+
+    /** Returns true if the path stored at the given offset is equal to the encoded path. */
+    private boolean storedPathEquals(final int offset, final int encodedLen) {
+        int pos = offset;
+        int storedLen = 0;
+        for (int shift = 0;; shift += 7) {
+            final byte b = pathBytes[pos++];
+            storedLen |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (storedLen != encodedLen) {
+            return false;
+        }
+        for (int i = 0; i < encodedLen; i++) {
+            if (pathBytes[pos + i] != encodedPath[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Double the size of the hash table. */
+    private void resize() {
+        final long[] newTable = new long[table.length * 2];
+        final int mask = newTable.length - 1;
+        for (final long slot : table) {
+            if (slot != 0L) {
+                int i = (int) (slot >>> 32) & mask;
+                while (newTable[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                newTable[i] = slot;
+            }
+        }
+        table = newTable;
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal read-only zipfile reader that memory-maps the zipfile and parses the central directory directly,
+ * rather than going through java.util.zip.ZipFile. STORED entries are served as zero-copy slices of the mapped
+ * file, and DEFLATED entries are inflated into buffers that are reused between entries (see EntryReader), so
+ * reading a jar requires very few allocations or syscalls.
+ * 
+ * Zip64 files, files larger than 2GB, encrypted entries and compression methods other than STORED and DEFLATED
+ * are not supported -- an IOException is thrown in these cases, and the caller should fall back to ZipFile.
+ * 
+ * Entries are identified by their index in the central directory, in the range [0, size()). All methods are
+ * thread-safe, as long as each thread uses its own EntryReader.
+ */
+public class MappedZipFile {
+    private final File file;
+
+    /** The mapped zipfile, in little endian byte order. Only ever read using absolute get methods. */
+    private ByteBuffer buf;
+
+    private final int numEntries;
+    private final int[] nameOffset;
+    private final int[] nameLen;
+    private final int[] compressionMethod;
+    private final int[] crc;
+    private final int[] compressedSize;
+    private final int[] uncompressedSize;
+    private final int[] localHeaderOffset;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_DIR_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIR_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    /** Memory-map the zipfile and read its central directory. */
+    public MappedZipFile(final File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            final long fileLen = channel.size();
+            if (fileLen > Integer.MAX_VALUE) {
+                throw new ZipException("Zipfile is too large to be memory-mapped: " + file);
+            }
+            // The mapping remains valid after the channel is closed
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLen).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Find the end of central directory record, which is followed by a comment of up to 64kB
+        final int len = buf.capacity();
+        int eocdPos = -1;
+        for (int i = len - EOCD_SIZE, minPos = Math.max(0, len - EOCD_SIZE - 0xffff); i >= minPos; i--) {
+            if (buf.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + getUnsignedShort(i + 20) == len) {
+                eocdPos = i;
+                break;
+            }
+        }
+        if (eocdPos < 0) {
+            throw new ZipException("Could not find end of central directory record: " + file);
+        }
+        if (eocdPos >= ZIP64_EOCD_LOCATOR_SIZE
+                && buf.getInt(eocdPos - ZIP64_EOCD_LOCATOR_SIZE) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+            throw new ZipException("Zip64 is not supported: " + file);
+        }
+        final int numEntriesInt = getUnsignedShort(eocdPos + 10);
+        final long centralDirSize = getUnsignedInt(eocdPos + 12);
+        final long centralDirOffset = getUnsignedInt(eocdPos + 16);
+        if (numEntriesInt == 0xffff || centralDirOffset == 0xffffffffL || centralDirSize > eocdPos) {
+            throw new ZipException("Zip64 is not supported: " + file);
+        }
+        // If the zipfile has been prepended with other data (e.g. a self-extracting archive stub), all offsets
+        // in the central directory are off by the length of the prepended data
+        final int centralDirPos = (int) (eocdPos - centralDirSize);
+        final int prefixLen = (int) (centralDirPos - centralDirOffset);
+        if (prefixLen < 0) {
+            throw new ZipException("Bad central directory offset: " + file);
+        }
+
+        // Read central directory
+        numEntries = numEntriesInt;
+        nameOffset = new int[numEntries];
+        nameLen = new int[numEntries];
+        compressionMethod = new int[numEntries];
+        crc = new int[numEntries];
+        compressedSize = new int[numEntries];
+        uncompressedSize = new int[numEntries];
+        localHeaderOffset = new int[numEntries];
+        int pos = centralDirPos;
+        for (int i = 0; i < numEntries; i++) {
+            if (pos + CENTRAL_DIR_HEADER_SIZE > eocdPos || buf.getInt(pos) != CENTRAL_DIR_HEADER_SIGNATURE) {
+                throw new ZipException("Bad central directory entry: " + file);
+            }
+            final int flags = getUnsignedShort(pos + 8);
+            if ((flags & 1) != 0) {
+                // Mark encrypted entries as unsupported
+                compressionMethod[i] = -1;
+            } else {
+                compressionMethod[i] = getUnsignedShort(pos + 10);
+            }
+            crc[i] = buf.getInt(pos + 16);
+            final long compressedLen = getUnsignedInt(pos + 20);
+            final long uncompressedLen = getUnsignedInt(pos + 24);
+            final long localHeaderPos = getUnsignedInt(pos + 42) + prefixLen;
+            if (compressedLen >= Integer.MAX_VALUE || uncompressedLen >= Integer.MAX_VALUE
+                    || localHeaderPos >= centralDirPos) {
+                throw new ZipException("Zip64 is not supported: " + file);
+            }
+            compressedSize[i] = (int) compressedLen;
+            uncompressedSize[i] = (int) uncompressedLen;
+            localHeaderOffset[i] = (int) localHeaderPos;
+            nameLen[i] = getUnsignedShort(pos + 28);
+            nameOffset[i] = pos + CENTRAL_DIR_HEADER_SIZE;
+            pos += CENTRAL_DIR_HEADER_SIZE + nameLen[i] + getUnsignedShort(pos + 30) + getUnsignedShort(pos + 32);
+        }
+        if (pos > eocdPos) {
+            throw new ZipException("Bad central directory entry: " + file);
+        }
+    }
+
+    private int getUnsignedShort(final int pos) {
+        return buf.getShort(pos) & 0xffff;
+    }
+
+    private long getUnsignedInt(final int pos) {
+        return buf.getInt(pos) & 0xffffffffL;
+    }
+
+    /** The number of entries in the zipfile. */
+    public int size() {
+        return numEntries;
+    }
+
+    /** Get the name of the entry with the given index. */
+    public String getName(final int entryIdx) {
+        final byte[] nameBytes = new byte[nameLen[entryIdx]];
+        final ByteBuffer dup = buf.duplicate();
+        dup.position(nameOffset[entryIdx]);
+        dup.get(nameBytes);
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns true if the name of the entry with the given index starts with the given UTF-8 encoded prefix,
+     * ignoring any leading '/' in the entry name. Compares the raw bytes of the name in the central directory,
+     * without decoding the name into a String.
+     */
+    public boolean nameStartsWith(final int entryIdx, final byte[] prefix) {
+        int off = nameOffset[entryIdx];
+        int len = nameLen[entryIdx];
+        if (len > 0 && buf.get(off) == '/') {
+            off++;
+            len--;
+        }
+        if (len < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(off + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the name of the entry with the given index is equal to the given UTF-8 encoded name, ignoring
+     * any leading '/' in the entry name.
+     */
+    public boolean nameEquals(final int entryIdx, final byte[] name) {
+        final int len = nameLen[entryIdx];
+        return (len == name.length || len == name.length + 1) && nameStartsWith(entryIdx, name)
+                && (len == name.length || buf.get(nameOffset[entryIdx]) == '/');
+    }
+
+    /** Returns true if the entry with the given index is a directory entry. */
+    public boolean isDirectory(final int entryIdx) {
+        return nameLen[entryIdx] > 0 && buf.get(nameOffset[entryIdx] + nameLen[entryIdx] - 1) == '/';
+    }
+
+    /** Get the CRC-32 checksum of the uncompressed contents of the entry with the given index. */
+    public long getCrc(final int entryIdx) {
+        return crc[entryIdx] & 0xffffffffL;
+    }
+
+    /** Get the uncompressed size of the entry with the given index. */
+    public long getSize(final int entryIdx) {
+        return uncompressedSize[entryIdx];
+    }
+
+    /**
+     * Get the contents of the entry with the given index. The contents of a STORED entry are returned as a slice of
+     * the mapped zipfile; the contents of a DEFLATED entry are inflated into the buffer of the EntryReader, so the
+     * returned ByteBuffer is only valid until the next call with the same EntryReader.
+     */
+    public ByteBuffer getEntryBytes(final int entryIdx, final EntryReader entryReader) throws IOException {
+        final ByteBuffer compressedBytes = getCompressedBytes(entryIdx);
+        switch (compressionMethod[entryIdx]) {
+        case STORED:
+            return compressedBytes;
+        case DEFLATED:
+            return entryReader.inflate(compressedBytes, uncompressedSize[entryIdx], getName(entryIdx), file);
+        default:
+            throw new ZipException("Unsupported compression method or encrypted entry " + getName(entryIdx)
+                    + " in " + file);
+        }
+    }
+
+    /**
+     * Get an InputStream for the entry with the given index. DEFLATED entries are inflated lazily as the
+     * InputStream is read, so a caller that stops reading early (e.g. the classfile parser, once it has read all
+     * the parts of the classfile it needs) does not pay for inflating the rest of the entry. The InputStream is
+     * only valid until the next call with the same EntryReader.
+     */
+    public InputStream getInputStream(final int entryIdx, final EntryReader entryReader) throws IOException {
+        if (compressionMethod[entryIdx] == DEFLATED) {
+            return entryReader.inflatingInputStream(getCompressedBytes(entryIdx), uncompressedSize[entryIdx],
+                    getName(entryIdx), file);
+        }
+        return new ByteBufferInputStream(getEntryBytes(entryIdx, entryReader));
+    }
+
+    /** Get a slice of the mapped zipfile containing the compressed contents of the entry with the given index. */
+    private ByteBuffer getCompressedBytes(final int entryIdx) throws IOException {
+        final int localHeaderPos = localHeaderOffset[entryIdx];
+        if (buf.getInt(localHeaderPos) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Bad local header for entry " + getName(entryIdx) + " in " + file);
+        }
+        // The name and extra field lengths in the local header can differ from those in the central directory
+        final int dataPos = localHeaderPos + LOCAL_HEADER_SIZE + getUnsignedShort(localHeaderPos + 26)
+                + getUnsignedShort(localHeaderPos + 28);
+        final int compressedLen = compressedSize[entryIdx];
+        if (dataPos + compressedLen > buf.capacity()) {
+            throw new ZipException("Truncated entry " + getName(entryIdx) + " in " + file);
+        }
+        final ByteBuffer compressedBytes = buf.duplicate();
+        compressedBytes.position(dataPos);
+        compressedBytes.limit(dataPos + compressedLen);
+        return compressedBytes.slice();
+    }
+
+    /**
+     * Release the mapped zipfile. (The mapped memory is actually released when the mapping is garbage collected.)
+     */
+    public void close() {
+        buf = null;
+    }
+
+    /**
+     * Buffers and Inflater that are reused for reading entries, to avoid re-allocating them for each entry. An
+     * EntryReader must only be used by one thread at a time, and should be closed after use to free the native
+     * resources of the Inflater.
+     */
+    public static class EntryReader implements AutoCloseable {
+        private Inflater inflater;
+        private byte[] compressedBuf = new byte[16384];
+        private byte[] uncompressedBuf = new byte[16384];
+
+        /** Copy the compressed bytes of an entry into compressedBuf, and reset the Inflater to read them. */
+        private void startInflating(final ByteBuffer compressedBytes) {
+            final int compressedLen = compressedBytes.remaining();
+            // Inflater with nowrap == true requires one extra dummy byte of input at the end of the stream
+            if (compressedBuf.length < compressedLen + 1) {
+                compressedBuf = new byte[Math.max(compressedBuf.length * 2, compressedLen + 1)];
+            }
+            compressedBytes.get(compressedBuf, 0, compressedLen);
+            compressedBuf[compressedLen] = 0;
+            if (inflater == null) {
+                inflater = new Inflater(/* nowrap = */ true);
+            } else {
+                inflater.reset();
+            }
+            inflater.setInput(compressedBuf, 0, compressedLen + 1);
+        }
+
+        private ByteBuffer inflate(final ByteBuffer compressedBytes, final int uncompressedLen,
+                final String entryName, final File file) throws IOException {
+            if (uncompressedBuf.length < uncompressedLen) {
+                uncompressedBuf = new byte[Math.max(uncompressedBuf.length * 2, uncompressedLen)];
+            }
+            startInflating(compressedBytes);
+            int uncompressedPos = 0;
+            try {
+                while (uncompressedPos < uncompressedLen) {
+                    final int numBytesInflated = inflater.inflate(uncompressedBuf, uncompressedPos,
+                            uncompressedLen - uncompressedPos);
+                    if (numBytesInflated == 0) {
+                        break;
+                    }
+                    uncompressedPos += numBytesInflated;
+                }
+            } catch (final DataFormatException e) {
+                throw new ZipException("Could not inflate entry " + entryName + " in " + file + ": " + e);
+            }
+            if (uncompressedPos != uncompressedLen) {
+                throw new ZipException("Truncated entry " + entryName + " in " + file);
+            }
+            return ByteBuffer.wrap(uncompressedBuf, 0, uncompressedLen);
+        }
+
+        /** Returns an InputStream that inflates the entry on demand, as it is read. */
+        private InputStream inflatingInputStream(final ByteBuffer compressedBytes, final int uncompressedLen,
+                final String entryName, final File file) {
+            startInflating(compressedBytes);
+            return new InputStream() {
+                private int remaining = uncompressedLen;
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    final int numBytesInflated;
+                    try {
+                        numBytesInflated = inflater.inflate(b, off, Math.min(len, remaining));
+                    } catch (final DataFormatException e) {
+                        throw new ZipException("Could not inflate entry " + entryName + " in " + file + ": " + e);
+                    }
+                    if (numBytesInflated == 0) {
+                        throw new ZipException("Truncated entry " + entryName + " in " + file);
+                    }
+                    remaining -= numBytesInflated;
+                    return numBytesInflated;
+                }
+
+                @Override
+                public int read() throws IOException {
+                    final byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int available() {
+                    return remaining;
+                }
+            };
+        }
+
+        /**
+         * Read the given number of bytes from an InputStream into the buffer of the EntryReader. The returned
+         * ByteBuffer is only valid until the next call with the same EntryReader.
+         */
+        public ByteBuffer readFully(final InputStream inputStream, final int len, final String name)
+                throws IOException {
+            if (uncompressedBuf.length < len) {
+                uncompressedBuf = new byte[Math.max(uncompressedBuf.length * 2, len)];
+            }
+            // InputStream.read() may return fewer bytes than requested, e.g. for compressed zipfile entries
+            for (int pos = 0; pos < len;) {
+                final int numBytesRead = inputStream.read(uncompressedBuf, pos, len - pos);
+                if (numBytesRead < 0) {
+                    throw new IOException("Could not read whole file " + name);
+                }
+                pos += numBytesRead;
+            }
+            return ByteBuffer.wrap(uncompressedBuf, 0, len);
+        }
+
+        /** Free the native resources of the Inflater. */
+        @Override
+        public void close() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of FastClasspathScanner.
+ * 
+ * Author: Luke Hutchison
+ * 
+ * Hosted at: https://github.com/lukehutch/fast-classpath-scanner
+ * 
+ * --
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Luke Hutchison
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without
+ * limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN
+ * AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.lukehutch.fastclasspathscanner.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent table of interned class names and other symbols, used to share one String object between all
+ * occurrences of the same name. Names can be looked up directly from the modified UTF-8 bytes in the classfile
+ * parser's buffer, optionally replacing '/' with '.' as part of the lookup, so a String is only allocated the first
+ * time a name is seen.
+ * 
+ * The hash of a symbol is String.hashCode() of the symbol (after '/' is replaced with '.'), so lookups from bytes
+ * and lookups from Strings find the same entries. Lookups are lock-free; adding a new symbol takes a lock.
+ */
+public class SymbolTable {
+    private static final int INITIAL_TABLE_SIZE = 1 << 12;
+
+    /** An immutable hash chain entry. */
+    private static class Symbol {
+        final int hash;
+        final String string;
+        final Symbol next;
+
+        Symbol(final int hash, final String string, final Symbol next) {
+            this.hash = hash;
+            this.string = string;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The hash table, with chained entries. The size of the table is always a power of two. When the table is
+     * resized, a new table is published, and lookups that miss in the old table retry with the lock held.
+     */
+    private volatile AtomicReferenceArray<Symbol> table = new AtomicReferenceArray<>(INITIAL_TABLE_SIZE);
+
+    /** The number of symbols in the table. Guarded by this. */
+    private int size;
+
+    /** Returns the interned copy of the given String, adding it to the table if this is the first time it is seen. */
+    public String intern(final String string) {
+        final int hash = string.hashCode();
+        final AtomicReferenceArray<Symbol> tab = table;
+        for (Symbol symbol = tab.get(hash & (tab.length() - 1)); symbol != null; symbol = symbol.next) {
+            if (symbol.hash == hash && (symbol.string == string || symbol.string.equals(string))) {
+                return symbol.string;
+            }
+        }
+        return add(hash, string);
+    }
+
+    /**
+     * Returns the interned String for len bytes of modified UTF-8, starting at bytes[start], optionally replacing
+     * '/' with '.'. Only allocates a String if this is the first time the name is seen. Returns null if the bytes
+     * contain non-ASCII characters, in which case the caller should decode them, and call intern(String) instead.
+     */
+    public String intern(final byte[] bytes, final int start, final int len, final boolean replaceSlashWithDot) {
+        int hash = 0;
+        for (int i = start, end = start + len; i < end; i++) {
+            final int c = bytes[i];
+            if (c < 0) {
+                // Multi-byte character
+                return null;
+            }
+            hash = 31 * hash + (replaceSlashWithDot && c == '/' ? '.' : c);
+        }
+        final AtomicReferenceArray<Symbol> tab = table;
+        for (Symbol symbol = tab.get(hash & (tab.length() - 1)); symbol != null; symbol = symbol.next) {
+            if (symbol.hash == hash && symbolEquals(symbol.string, bytes, start, len, replaceSlashWithDot)) {
+                return symbol.string;
+            }
+        }
+        final char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            final char c = (char) bytes[start + i];
+            chars[i] = replaceSlashWithDot && c == '/' ? '.' : c;
+        }
+        return add(hash, new String(chars));
+    }
+
+    /** Compare a symbol with a range of ASCII bytes, optionally replacing '/' with '.' in the bytes. */
+    private static boolean symbolEquals(final String symbol, final byte[] bytes, final int start, final int len,
+            final boolean replaceSlashWithDot) {
+        if (symbol.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            final char c = (char) bytes[start + i];
+            if (symbol.charAt(i) != (replaceSlashWithDot && c == '/' ? '.' : c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a String to the table, unless an equal String was added after the lock-free lookup missed, in which case
+     * that String is returned instead.
+     */
+    private synchronized String add(final int hash, final String string) {
+        AtomicReferenceArray<Symbol> tab = table;
+        int idx = hash & (tab.length() - 1);
+        for (Symbol symbol = tab.get(idx); symbol != null; symbol = symbol.next) {
+            if (symbol.hash == hash && symbol.string.equals(string)) {
+                return symbol.string;
+            }
+        }
+        if (++size > tab.length() - (tab.length() >> 2)) {
+            // Load factor exceeded 0.75 -- double the size of the table. Entries are immutable, so they are copied
+            // rather than moved, and lookups that are still using the old table see a consistent snapshot.
+            final AtomicReferenceArray<Symbol> newTab = new AtomicReferenceArray<>(tab.length() << 1);
+            final int newMask = newTab.length() - 1;
+            for (int i = 0; i < tab.length(); i++) {
+                for (Symbol symbol = tab.get(i); symbol != null; symbol = symbol.next) {
+                    final int newIdx = symbol.hash & newMask;
+                    newTab.set(newIdx, new Symbol(symbol.hash, symbol.string, newTab.get(newIdx)));
+                }
+            }
+            table = tab = newTab;
+            idx = hash & newMask;
+        }
+        tab.set(idx, new Symbol(hash, string, tab.get(idx)));
+        return string;
+    }
+
+    /** Returns the number of symbols in the table. */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -31,30 +31,81 @@ package io.github.lukehutch.fastclasspathscanner.test;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.StrictAssertions.assertThat;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 import org.junit.Test;
 
 import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.AnnotationInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassInfo.ClassInfoUnlinked;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.ClassfileBinaryParser;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.FieldInfo;
+import io.github.lukehutch.fastclasspathscanner.classfileparser.MethodInfo;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClassAnnotationMatchProcessor;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClassMatchProcessor;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ClasspathChangeListener;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchContentsBufferProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchContentsProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchContentsProcessorWithContext;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.FileMatchProcessor;
+import io.github.lukehutch.fastclasspathscanner.matchprocessor.ParsedClassProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.StaticFinalFieldMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.SubclassMatchProcessor;
 import io.github.lukehutch.fastclasspathscanner.matchprocessor.SubinterfaceMatchProcessor;
+import io.github.lukehutch.fastclasspathscanner.scanner.ScanIndex;
+import io.github.lukehutch.fastclasspathscanner.scanner.ScanSpec;
 import io.github.lukehutch.fastclasspathscanner.test.blacklisted.BlacklistedAnnotation;
 import io.github.lukehutch.fastclasspathscanner.test.blacklisted.BlacklistedInterface;
 import io.github.lukehutch.fastclasspathscanner.test.blacklisted.BlacklistedSubclass;
 import io.github.lukehutch.fastclasspathscanner.test.blacklisted.BlacklistedSubinterface;
 import io.github.lukehutch.fastclasspathscanner.test.blacklisted.BlacklistedSuperclass;
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotation;
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotationWithParams;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.Cls;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.ClsSub;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.ClsSubSub;
+import io.github.lukehutch.fastclasspathscanner.test.whitelisted.HasAnnotatedFields;
+import io.github.lukehutch.fastclasspathscanner.test.whitelisted.HasAnnotatedMethods;
+import io.github.lukehutch.fastclasspathscanner.test.whitelisted.HasAnnotationParams;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.HasFieldWithTypeCls.HasFieldWithTypeCls1;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.HasFieldWithTypeCls.HasFieldWithTypeCls2;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.HasFieldWithTypeCls.HasFieldWithTypeCls3;
@@ -76,6 +127,8 @@ import io.github.lukehutch.fastclasspathscanner.test.whitelisted.Whitelisted;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.WhitelistedInterface;
 import io.github.lukehutch.fastclasspathscanner.test.whitelisted.blacklistedsub.BlacklistedSub;
 import io.github.lukehutch.fastclasspathscanner.utils.HashClassfileContents;
+import io.github.lukehutch.fastclasspathscanner.utils.Log.DeferredLog;
+import io.github.lukehutch.fastclasspathscanner.utils.SymbolTable;
 
 public class FastClasspathScannerTest {
     private static final String ROOT_PACKAGE = FastClasspathScannerTest.class.getPackage().getName();
@@ -370,4 +423,1031 @@ public class FastClasspathScannerTest {
                         HasFieldWithTypeCls5.class.getName(), HasFieldWithTypeCls6.class.getName(),
                         HasFieldWithTypeCls7.class.getName());
     }
+
+    /**
+     * Create a temporary jarfile containing the classfiles in the whitelisted package, and a copy of
+     * file-content-test.txt in the same package.
+     */
+    /** Get the relative paths and contents of the classfiles in the whitelisted package, and a text file. */
+    private static Map<String, byte[]> getWhitelistedPackageEntries() throws Exception {
+        final String packagePath = WHITELIST_PACKAGE.replace('.', '/') + "/";
+        final File packageDir = new File(Cls.class.getResource("Cls.class").toURI()).getParentFile();
+        final Map<String, byte[]> entries = new TreeMap<>();
+        for (final File classfile : packageDir.listFiles()) {
+            if (classfile.getName().endsWith(".class")) {
+                entries.put(packagePath + classfile.getName(), Files.readAllBytes(classfile.toPath()));
+            }
+        }
+        entries.put(packagePath + "file-content-test.txt", Files.readAllBytes(
+                new File(FastClasspathScannerTest.class.getResource("/file-content-test.txt").toURI()).toPath()));
+        return entries;
+    }
+
+    private static File createJarOfWhitelistedPackage(final boolean compress) throws Exception {
+        return createJar(getWhitelistedPackageEntries(), compress);
+    }
+
+    private static File createJar(final Map<String, byte[]> entries, final boolean compress) throws Exception {
+        final File jarFile = File.createTempFile("whitelisted", ".jar");
+        jarFile.deleteOnExit();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            for (final Entry<String, byte[]> ent : entries.entrySet()) {
+                final byte[] contents = ent.getValue();
+                final ZipEntry zipEntry = new ZipEntry(ent.getKey());
+                if (!compress) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(contents);
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(contents.length);
+                    zipEntry.setCompressedSize(contents.length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zipOutputStream.putNextEntry(zipEntry);
+                zipOutputStream.write(contents);
+                zipOutputStream.closeEntry();
+            }
+        }
+        return jarFile;
+    }
+
+    @Test
+    public void scanJarSharedBetweenParserThreads() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        // Slow down the parser threads, so that more than one of them reads from the jar
+        final int numThreads = 4;
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .overrideClasspath(jarFile.getPath()).parallelism(numThreads)
+                .processParsedClasses(new ParsedClassProcessor() {
+                    @Override
+                    public void processParsedClass(final ClassInfoUnlinked classInfoUnlinked) {
+                        try {
+                            Thread.sleep(20);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }).scan();
+        assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                ClsSubSub.class.getName());
+        assertThat(scanner.getNumZipFileOpensSaved()).isGreaterThan(0);
+        // (The thread that started the scan also parses classfiles once the walk is complete)
+        assertThat(scanner.getNumZipFileOpensSaved()).isLessThanOrEqualTo(numThreads);
+
+        // The jar has to be opened once anyway, so a single parser thread saves no opens. (The parsers submitted
+        // to a single thread executor can't run until the scan running on that thread has finished, so all
+        // classfiles are parsed by the thread that started the scan.)
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> future = executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(jarFile.getPath())
+                            .scan(executorService).getNumZipFileOpensSaved();
+                }
+            });
+            assertThat(future.get(60, TimeUnit.SECONDS)).isEqualTo(0);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /** Scan the whitelisted package in a jar, and check that classes and file contents were read correctly. */
+    private static void scanJarOfWhitelistedPackage(final boolean compress, final boolean memoryMapJars)
+            throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(compress);
+        final AtomicBoolean readFileContents = new AtomicBoolean(false);
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .overrideClasspath(jarFile.getPath()).memoryMapJars(memoryMapJars)
+                .matchFilenamePathLeaf("file-content-test.txt", new FileMatchContentsProcessor() {
+                    @Override
+                    public void processMatch(final String relativePath, final byte[] contents) throws IOException {
+                        readFileContents.set("File contents".equals(new String(contents, "UTF-8")));
+                    }
+                }).scan();
+        assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                ClsSubSub.class.getName());
+        assertThat(scanner.getNamesOfClassesImplementing(Iface.class)).contains(Impl1.class.getName());
+        assertThat(readFileContents.get()).isTrue();
+    }
+
+    @Test
+    public void scanMemoryMappedJarWithDeflatedEntries() throws Exception {
+        scanJarOfWhitelistedPackage(/* compress = */ true, /* memoryMapJars = */ true);
+    }
+
+    @Test
+    public void scanMemoryMappedJarWithStoredEntries() throws Exception {
+        scanJarOfWhitelistedPackage(/* compress = */ false, /* memoryMapJars = */ true);
+    }
+
+    @Test
+    public void scanJarWithZipFile() throws Exception {
+        scanJarOfWhitelistedPackage(/* compress = */ true, /* memoryMapJars = */ false);
+    }
+
+    @Test
+    public void scanMemoryMappedJarWithSpecificallyWhitelistedClass() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        assertThat(new FastClasspathScanner("nonexistent.pkg", Cls.class.getName())
+                .overrideClasspath(jarFile.getPath()).scan().getNamesOfAllClasses())
+                        .containsOnly(Cls.class.getName());
+    }
+
+    @Test
+    public void scanMemoryMappedJarWithBlacklistedPackage() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        assertThat(new FastClasspathScanner(ROOT_PACKAGE, "-" + WHITELIST_PACKAGE)
+                .overrideClasspath(jarFile.getPath()).scan().getNamesOfAllClasses()).isEmpty();
+    }
+
+    @Test
+    public void scanWithFixedAndAutomaticParallelism() throws Exception {
+        final List<String> allClassesAutomatic = new FastClasspathScanner(WHITELIST_PACKAGE).parallelism(0).scan()
+                .getNamesOfAllClasses();
+        assertThat(allClassesAutomatic).contains(Cls.class.getName());
+        assertThat(new FastClasspathScanner(WHITELIST_PACKAGE).parallelism(1).scan().getNamesOfAllClasses())
+                .containsOnly(allClassesAutomatic.toArray());
+        assertThat(new FastClasspathScanner(WHITELIST_PACKAGE).parallelism(16).scan().getNamesOfAllClasses())
+                .containsOnly(allClassesAutomatic.toArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scanWithNegativeParallelism() throws Exception {
+        new FastClasspathScanner(WHITELIST_PACKAGE).parallelism(-1);
+    }
+
+    @Test
+    public void scanWithExecutorService() throws Exception {
+        final List<String> allClasses = new FastClasspathScanner(WHITELIST_PACKAGE).scan().getNamesOfAllClasses();
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE);
+            assertThat(scanner.scan(executorService).getNamesOfAllClasses()).containsOnly(allClasses.toArray());
+            // The executor can be reused for another scan
+            assertThat(scanner.scan(executorService).getNamesOfAllClasses()).containsOnly(allClasses.toArray());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void scanFromWithinSingleThreadExecutorService() throws Exception {
+        final List<String> allClasses = new FastClasspathScanner(WHITELIST_PACKAGE).scan().getNamesOfAllClasses();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            // The scan's own tasks can't run on the executor until the scan has finished, so the scan must not
+            // wait for them
+            final Future<List<String>> future = executorService.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return new FastClasspathScanner(WHITELIST_PACKAGE).scan(executorService).getNamesOfAllClasses();
+                }
+            });
+            assertThat(future.get(60, TimeUnit.SECONDS)).containsOnly(allClasses.toArray());
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /** Scan the whitelisted package using the given directory traversal mode. */
+    private static void scanWithDirectoryTraversal(final boolean nioDirectoryTraversal) throws Exception {
+        final long classfileLength = new File(Cls.class.getResource("Cls.class").toURI()).length();
+        final AtomicLong matchedLength = new AtomicLong(-1L);
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .nioDirectoryTraversal(nioDirectoryTraversal)
+                .matchFilenamePathLeaf("Cls.class", new FileMatchProcessor() {
+                    @Override
+                    public void processMatch(final String relativePath, final InputStream inputStream,
+                            final long lengthBytes) throws IOException {
+                        matchedLength.set(lengthBytes);
+                    }
+                }).scan();
+        assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                ClsSubSub.class.getName());
+        assertThat(matchedLength.get()).isEqualTo(classfileLength);
+    }
+
+    @Test
+    public void scanWithNioDirectoryTraversal() throws Exception {
+        scanWithDirectoryTraversal(/* nioDirectoryTraversal = */ true);
+    }
+
+    @Test
+    public void scanWithFileDirectoryTraversal() throws Exception {
+        scanWithDirectoryTraversal(/* nioDirectoryTraversal = */ false);
+    }
+
+    @Test
+    public void scanSymlinkedFileOnlyOnce() throws Exception {
+        final Path classpathDir = Files.createTempDirectory("classpath");
+        final Path packageDir = Files.createDirectories(classpathDir.resolve(WHITELIST_PACKAGE.replace('.', '/')));
+        final Path file = Files.write(packageDir.resolve("file.txt"), "File contents".getBytes("UTF-8"));
+        final Path symlink = packageDir.resolve("symlink.txt");
+        try {
+            Files.createSymbolicLink(symlink, file.getFileName());
+        } catch (final UnsupportedOperationException | IOException e) {
+            // Symlinks are not supported by this filesystem
+            return;
+        }
+        try {
+            final AtomicInteger numMatches = new AtomicInteger();
+            new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(classpathDir.toString())
+                    .matchFilenameExtension("txt", new FileMatchContentsProcessor() {
+                        @Override
+                        public void processMatch(final String relativePath, final byte[] contents)
+                                throws IOException {
+                            numMatches.incrementAndGet();
+                        }
+                    }).scan();
+            assertThat(numMatches.get()).isEqualTo(1);
+        } finally {
+            deleteRecursively(classpathDir.toFile());
+        }
+    }
+
+    /** Delete a temporary directory and its contents, without following symlinks. */
+    private static void deleteRecursively(final File fileOrDir) throws IOException {
+        if (fileOrDir.isDirectory() && !Files.isSymbolicLink(fileOrDir.toPath())) {
+            for (final File child : fileOrDir.listFiles()) {
+                deleteRecursively(child);
+            }
+        }
+        Files.delete(fileOrDir.toPath());
+    }
+
+    @Test
+    public void scanMaskedFiles() throws Exception {
+        final File[] classpathDirs = new File[3];
+        final StringBuilder classpath = new StringBuilder();
+        for (int i = 0; i < classpathDirs.length; i++) {
+            classpathDirs[i] = Files.createTempDirectory("classpath").toFile();
+            final File packageDir = new File(classpathDirs[i], WHITELIST_PACKAGE.replace('.', '/'));
+            assertThat(packageDir.mkdirs()).isTrue();
+            for (int j = 0; j <= i; j++) {
+                Files.write(new File(packageDir, "file" + j + ".txt").toPath(), ("" + i).getBytes("UTF-8"));
+            }
+            classpath.append(i > 0 ? File.pathSeparator : "").append(classpathDirs[i].getPath());
+        }
+        try {
+            final Map<String, String> pathToContents = new TreeMap<>();
+            new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(classpath.toString())
+                    .matchFilenameExtension("txt", new FileMatchContentsProcessor() {
+                        @Override
+                        public void processMatch(final String relativePath, final byte[] contents)
+                                throws IOException {
+                            assertThat(pathToContents.put(relativePath, new String(contents, "UTF-8"))).isNull();
+                        }
+                    }).scan();
+            // Only the first file with a given relative path on the classpath is visible
+            final Map<String, String> expectedPathToContents = new TreeMap<>();
+            for (int j = 0; j < classpathDirs.length; j++) {
+                expectedPathToContents.put(WHITELIST_PACKAGE.replace('.', '/') + "/file" + j + ".txt", "" + j);
+            }
+            assertThat(pathToContents).isEqualTo(expectedPathToContents);
+        } finally {
+            for (final File classpathDir : classpathDirs) {
+                deleteRecursively(classpathDir);
+            }
+        }
+    }
+
+    /** Scan the given classpath, and return the contents of file-content-test.txt in the whitelisted package. */
+    private static String getVisibleFileContents(final String classpath) throws Exception {
+        final List<String> contentsFound = new ArrayList<>();
+        new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(classpath)
+                .matchFilenamePathLeaf("file-content-test.txt", new FileMatchContentsProcessor() {
+                    @Override
+                    public void processMatch(final String relativePath, final byte[] contents) throws IOException {
+                        contentsFound.add(new String(contents, "UTF-8"));
+                    }
+                }).scan();
+        assertThat(contentsFound).hasSize(1);
+        return contentsFound.get(0);
+    }
+
+    @Test
+    public void scanMaskedFilesInJarsAndDirectories() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        final File classpathDir = Files.createTempDirectory("classpath").toFile();
+        try {
+            final File packageDir = new File(classpathDir, WHITELIST_PACKAGE.replace('.', '/'));
+            assertThat(packageDir.mkdirs()).isTrue();
+            Files.write(new File(packageDir, "file-content-test.txt").toPath(), "Masked".getBytes("UTF-8"));
+            // Classpath elements are scanned concurrently, but masking must follow classpath order
+            for (int i = 0; i < 10; i++) {
+                assertThat(getVisibleFileContents(jarFile.getPath() + File.pathSeparator + classpathDir.getPath()))
+                        .isEqualTo("File contents");
+                assertThat(getVisibleFileContents(classpathDir.getPath() + File.pathSeparator + jarFile.getPath()))
+                        .isEqualTo("Masked");
+            }
+        } finally {
+            deleteRecursively(classpathDir);
+        }
+    }
+
+    @Test
+    public void scanWithScanCache() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        final File scanCacheDir = Files.createTempDirectory("scancache").toFile();
+        try {
+            final List<String> allClasses = new FastClasspathScanner(WHITELIST_PACKAGE)
+                    .overrideClasspath(jarFile.getPath()).scan().getNamesOfAllClasses();
+            for (int i = 0; i < 3; i++) {
+                final AtomicBoolean readStaticField = new AtomicBoolean(false);
+                final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                        .overrideClasspath(jarFile.getPath()).scanCacheDir(scanCacheDir).ignoreFieldVisibility()
+                        .matchStaticFinalFieldNames(StaticField.class.getName() + ".stringField",
+                                new StaticFinalFieldMatchProcessor() {
+                                    @Override
+                                    public void processMatch(final String className, final String fieldName,
+                                            final Object fieldConstantValue) {
+                                        readStaticField.set("Static field contents".equals(fieldConstantValue));
+                                    }
+                                })
+                        .scan();
+                // The first scan parses the jar and writes the cache, subsequent scans read from the cache
+                assertThat(scanner.getNumScanCacheHits()).isEqualTo(i == 0 ? 0 : 1);
+                assertThat(scanner.getNumScanCacheMisses()).isEqualTo(i == 0 ? 1 : 0);
+                assertThat(scanner.getNamesOfAllClasses()).containsOnly(allClasses.toArray());
+                assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                        ClsSubSub.class.getName());
+                assertThat(readStaticField.get()).isTrue();
+            }
+            // Changing the settings that affect classfile parsing invalidates the cache
+            final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                    .overrideClasspath(jarFile.getPath()).scanCacheDir(scanCacheDir).scan();
+            assertThat(scanner.getNumScanCacheMisses()).isEqualTo(1);
+
+            // A truncated cache file is ignored
+            for (final File cacheFile : scanCacheDir.listFiles()) {
+                final byte[] cacheFileBytes = Files.readAllBytes(cacheFile.toPath());
+                Files.write(cacheFile.toPath(), Arrays.copyOf(cacheFileBytes, cacheFileBytes.length / 2));
+            }
+            final FastClasspathScanner truncatedCacheScanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                    .overrideClasspath(jarFile.getPath()).scanCacheDir(scanCacheDir).scan();
+            assertThat(truncatedCacheScanner.getNumScanCacheMisses()).isEqualTo(1);
+            assertThat(truncatedCacheScanner.getNamesOfAllClasses()).containsOnly(allClasses.toArray());
+        } finally {
+            deleteRecursively(scanCacheDir);
+        }
+    }
+
+    /** Check that scanning the jar with the scan index gives the same results as parsing its classfiles. */
+    private static void checkScanIndexResults(final File jarFile, final boolean ignoreFieldVisibility,
+            final int expectedNumClassfilesReadFromScanIndex) {
+        checkScanIndexResults(jarFile, ignoreFieldVisibility, /* memoryMapJars = */ true,
+                expectedNumClassfilesReadFromScanIndex, WHITELIST_PACKAGE);
+    }
+
+    private static void checkScanIndexResults(final File jarFile, final boolean ignoreFieldVisibility,
+            final boolean memoryMapJars, final int expectedNumClassfilesReadFromScanIndex,
+            final String... scanSpec) {
+        final FastClasspathScanner parsed = new FastClasspathScanner(scanSpec).overrideClasspath(jarFile.getPath())
+                .ignoreFieldVisibility(ignoreFieldVisibility).memoryMapJars(memoryMapJars).useScanIndexes(false)
+                .scan();
+        assertThat(parsed.getNumClassfilesReadFromScanIndex()).isEqualTo(0);
+        final FastClasspathScanner indexed = new FastClasspathScanner(scanSpec).overrideClasspath(jarFile.getPath())
+                .ignoreFieldVisibility(ignoreFieldVisibility).memoryMapJars(memoryMapJars).scan();
+        assertThat(indexed.getNumClassfilesReadFromScanIndex()).isEqualTo(expectedNumClassfilesReadFromScanIndex);
+        // Checking the classpath timestamps doesn't reset the statistics of the last scan
+        assertThat(indexed.classpathContentsModifiedSinceScan()).isFalse();
+        assertThat(indexed.getNumClassfilesReadFromScanIndex()).isEqualTo(expectedNumClassfilesReadFromScanIndex);
+        assertThat(indexed.getNamesOfAllClasses()).containsOnly(parsed.getNamesOfAllClasses().toArray());
+        for (final String className : parsed.getNamesOfAllClasses()) {
+            assertThat(indexed.getNamesOfSubclassesOf(className))
+                    .containsOnly(parsed.getNamesOfSubclassesOf(className).toArray());
+            assertThat(indexed.getNamesOfSuperinterfacesOf(className))
+                    .containsOnly(parsed.getNamesOfSuperinterfacesOf(className).toArray());
+            assertThat(indexed.getNamesOfClassesImplementing(className))
+                    .containsOnly(parsed.getNamesOfClassesImplementing(className).toArray());
+            assertThat(indexed.getNamesOfClassesWithAnnotation(className))
+                    .containsOnly(parsed.getNamesOfClassesWithAnnotation(className).toArray());
+            assertThat(indexed.getNamesOfClassesWithFieldOfType(className))
+                    .containsOnly(parsed.getNamesOfClassesWithFieldOfType(className).toArray());
+        }
+    }
+
+    @Test
+    public void scanWithScanIndex() throws Exception {
+        final Map<String, byte[]> entries = getWhitelistedPackageEntries();
+        final int numClassfiles = numClassfiles(entries);
+        final File classesDir = Files.createTempDirectory("classes").toFile();
+        try {
+            for (final Entry<String, byte[]> ent : entries.entrySet()) {
+                final File file = new File(classesDir, ent.getKey());
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), ent.getValue());
+            }
+            final File indexFile = new File(classesDir, ScanIndex.INDEX_PATH);
+            assertThat(ScanIndex.build(classesDir, indexFile)).isEqualTo(numClassfiles);
+            entries.put(ScanIndex.INDEX_PATH, Files.readAllBytes(indexFile.toPath()));
+        } finally {
+            deleteRecursively(classesDir);
+        }
+        final File jarFile = createJar(entries, /* compress = */ true);
+        checkScanIndexResults(jarFile, /* ignoreFieldVisibility = */ false, numClassfiles);
+        checkScanIndexResults(jarFile, /* ignoreFieldVisibility = */ true, numClassfiles);
+        // The index is also found when jars are read with ZipFile, and when the whitelist includes its path
+        checkScanIndexResults(jarFile, /* ignoreFieldVisibility = */ false, /* memoryMapJars = */ false,
+                numClassfiles, WHITELIST_PACKAGE);
+        checkScanIndexResults(jarFile, /* ignoreFieldVisibility = */ false, /* memoryMapJars = */ true,
+                numClassfiles);
+        checkScanIndexResults(jarFile, /* ignoreFieldVisibility = */ false, /* memoryMapJars = */ false,
+                numClassfiles);
+
+        // Static final fields are read by parsing the classfile
+        final AtomicBoolean readStaticField = new AtomicBoolean(false);
+        new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(jarFile.getPath()).ignoreFieldVisibility()
+                .matchStaticFinalFieldNames(StaticField.class.getName() + ".stringField",
+                        new StaticFinalFieldMatchProcessor() {
+                            @Override
+                            public void processMatch(final String className, final String fieldName,
+                                    final Object fieldConstantValue) {
+                                readStaticField.set("Static field contents".equals(fieldConstantValue));
+                            }
+                        })
+                .scan();
+        assertThat(readStaticField.get()).isTrue();
+
+        // A classfile that has changed since the index was built is parsed rather than read from the index
+        final String changedClassfile = Cls.class.getName().replace('.', '/') + ".class";
+        final byte[] classfileBytes = entries.get(changedClassfile);
+        entries.put(changedClassfile, Arrays.copyOf(classfileBytes, classfileBytes.length + 1));
+        final File changedJarFile = createJar(entries, /* compress = */ false);
+        checkScanIndexResults(changedJarFile, /* ignoreFieldVisibility = */ false, numClassfiles - 1);
+    }
+
+    private static int numClassfiles(final Map<String, byte[]> entries) {
+        int numClassfiles = 0;
+        for (final String relativePath : entries.keySet()) {
+            if (relativePath.endsWith(".class")) {
+                numClassfiles++;
+            }
+        }
+        return numClassfiles;
+    }
+
+    @Test
+    public void rescanReusesUnchangedClassfiles() throws Exception {
+        final Map<String, byte[]> entries = getWhitelistedPackageEntries();
+        final int numClassfiles = numClassfiles(entries);
+        final File classpathDir = Files.createTempDirectory("classpath").toFile();
+        try {
+            for (final Entry<String, byte[]> ent : entries.entrySet()) {
+                final File file = new File(classpathDir, ent.getKey());
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), ent.getValue());
+            }
+            final AtomicInteger numFileMatches = new AtomicInteger();
+            final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                    .overrideClasspath(classpathDir.getPath())
+                    .matchFilenamePathLeaf("file-content-test.txt", new FileMatchProcessor() {
+                        @Override
+                        public void processMatch(final String relativePath, final InputStream inputStream,
+                                final long lengthBytes) throws IOException {
+                            numFileMatches.incrementAndGet();
+                        }
+                    });
+
+            // The first rescan parses all classfiles, later rescans only parse classfiles that have changed
+            scanner.rescan();
+            assertThat(scanner.getNumClassfilesParsed()).isEqualTo(numClassfiles);
+            assertThat(numFileMatches.get()).isEqualTo(1);
+            // Checking the classpath timestamps doesn't reset the statistics of the last scan
+            assertThat(scanner.classpathContentsModifiedSinceScan()).isFalse();
+            assertThat(scanner.getNumClassfilesParsed()).isEqualTo(numClassfiles);
+            final List<String> allClasses = scanner.getNamesOfAllClasses();
+            scanner.rescan();
+            assertThat(scanner.getNumClassfilesParsed()).isEqualTo(0);
+            assertThat(numFileMatches.get()).isEqualTo(1);
+            assertThat(scanner.getNamesOfAllClasses()).containsOnly(allClasses.toArray());
+            assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                    ClsSubSub.class.getName());
+
+            final String packagePath = WHITELIST_PACKAGE.replace('.', '/') + "/";
+            final File clsSubFile = new File(classpathDir, packagePath + ClsSub.class.getSimpleName() + ".class");
+            assertThat(clsSubFile.setLastModified(clsSubFile.lastModified() + 10000L)).isTrue();
+            scanner.rescan();
+            assertThat(scanner.getNumClassfilesParsed()).isEqualTo(1);
+            assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                    ClsSubSub.class.getName());
+
+            final File clsSubSubFile = new File(classpathDir,
+                    packagePath + ClsSubSub.class.getSimpleName() + ".class");
+            assertThat(clsSubSubFile.delete()).isTrue();
+            scanner.rescan();
+            assertThat(scanner.getNumClassfilesParsed()).isEqualTo(0);
+            assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName());
+            assertThat(numFileMatches.get()).isEqualTo(1);
+
+            // scan() does not reuse the results of rescan()
+            scanner.scan();
+            assertThat(scanner.getNumClassfilesParsed()).isEqualTo(numClassfiles - 1);
+            assertThat(numFileMatches.get()).isEqualTo(2);
+        } finally {
+            deleteRecursively(classpathDir);
+        }
+
+        final File jarFile = createJar(entries, /* compress = */ true);
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .overrideClasspath(jarFile.getPath());
+        scanner.rescan();
+        assertThat(scanner.getNumClassfilesParsed()).isEqualTo(numClassfiles);
+        scanner.rescan();
+        assertThat(scanner.getNumClassfilesParsed()).isEqualTo(0);
+        assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                ClsSubSub.class.getName());
+    }
+
+    @Test
+    public void watchClasspathReportsChanges() throws Exception {
+        final File classpathDir = Files.createTempDirectory("classpath").toFile();
+        try {
+            final String packagePath = WHITELIST_PACKAGE.replace('.', '/') + "/";
+            for (final Entry<String, byte[]> ent : getWhitelistedPackageEntries().entrySet()) {
+                final File file = new File(classpathDir, ent.getKey());
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), ent.getValue());
+            }
+            final Set<String> changedPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                    .overrideClasspath(classpathDir.getPath()) //
+                    .watchClasspath(new ClasspathChangeListener() {
+                        @Override
+                        public void pathChanged(final File classpathElt, final String relativePath) {
+                            changedPaths.add(relativePath);
+                        }
+                    });
+            scanner.scan();
+            try {
+                assertThat(scanner.classpathContentsModifiedSinceScan()).isFalse();
+                final String newFilePath = packagePath + "new-file.txt";
+                Files.write(new File(classpathDir, newFilePath).toPath(), new byte[] { 1 });
+                // Some platforms poll for changes, so wait for the change to be reported
+                final long deadline = System.currentTimeMillis() + 15000L;
+                while (!changedPaths.contains(newFilePath) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertThat(changedPaths.contains(newFilePath)).isTrue();
+                assertThat(scanner.classpathContentsModifiedSinceScan()).isTrue();
+            } finally {
+                scanner.stopWatchingClasspath();
+            }
+        } finally {
+            deleteRecursively(classpathDir);
+        }
+    }
+
+    @Test
+    public void processParsedClasses() throws Exception {
+        final Map<String, ClassInfoUnlinked> parsedClasses = new ConcurrentHashMap<>();
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .processParsedClasses(new ParsedClassProcessor() {
+                    @Override
+                    public void processParsedClass(final ClassInfoUnlinked classInfoUnlinked) {
+                        parsedClasses.put(classInfoUnlinked.className, classInfoUnlinked);
+                    }
+                }).scan();
+        assertThat(parsedClasses.keySet()).containsOnly(scanner.getNamesOfAllClasses().toArray());
+        assertThat(parsedClasses.get(ClsSub.class.getName()).superclassName).isEqualTo(Cls.class.getName());
+        assertThat(parsedClasses.get(Impl1.class.getName()).implementedInterfaces)
+                .containsOnly(IfaceSubSub.class.getName());
+    }
+
+    @Test
+    public void parsedClassProcessorExceptionFailsScan() throws Exception {
+        // Exceptions thrown by ParsedClassProcessors are thrown by scan()
+        boolean threw = false;
+        try {
+            new FastClasspathScanner(WHITELIST_PACKAGE).processParsedClasses(new ParsedClassProcessor() {
+                @Override
+                public void processParsedClass(final ClassInfoUnlinked classInfoUnlinked) {
+                    throw new IllegalStateException("Failed to process " + classInfoUnlinked.className);
+                }
+            }).scan();
+        } catch (final RuntimeException e) {
+            threw = e.getCause() instanceof IllegalStateException;
+        }
+        assertThat(threw).isTrue();
+    }
+
+    @Test
+    public void scanAsync() throws Exception {
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE).scanAsync().get();
+        assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                ClsSubSub.class.getName());
+
+        // A scan that does not finish before its deadline is reported as timed out
+        Throwable cause = null;
+        try {
+            new FastClasspathScanner(WHITELIST_PACKAGE).scanAsync(0, TimeUnit.MILLISECONDS).get();
+        } catch (final ExecutionException e) {
+            cause = e.getCause();
+        }
+        assertThat(cause).isInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    public void scanAsyncCanBeCancelled() throws Exception {
+        final CountDownLatch fileMatched = new CountDownLatch(1);
+        final CountDownLatch futureCancelled = new CountDownLatch(1);
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .matchFilenameExtension("class", new FileMatchProcessor() {
+                    @Override
+                    public void processMatch(final String relativePath, final InputStream inputStream,
+                            final long lengthBytes) throws IOException {
+                        fileMatched.countDown();
+                        try {
+                            futureCancelled.await();
+                        } catch (final InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                });
+        final Future<FastClasspathScanner> future = scanner.scanAsync();
+        fileMatched.await();
+        assertThat(future.cancel(true)).isTrue();
+        futureCancelled.countDown();
+        // Waits for the scan thread to stop, which should not build the class graph
+        assertThat(scanner.classpathContentsModifiedSinceScan()).isTrue();
+        assertThat(future.isCancelled()).isTrue();
+    }
+
+    /** Scan the given classpath, and return the relative paths of the matched classfiles in the order matched. */
+    private static List<String> getMatchedClassfilePaths(final String classpath, final int numThreads,
+            final boolean ordered) {
+        final List<String> matchedPaths = Collections.synchronizedList(new ArrayList<String>());
+        new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(classpath)
+                .parallelFileMatching(numThreads, ordered)
+                .matchFilenameExtension("class", new FileMatchContentsProcessor() {
+                    @Override
+                    public void processMatch(final String relativePath, final byte[] contents) throws IOException {
+                        assertThat(contents.length).isGreaterThan(0);
+                        matchedPaths.add(relativePath);
+                    }
+                }).scan();
+        return matchedPaths;
+    }
+
+    @Test
+    public void parallelFileMatching() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        for (final String classpath : new String[] { System.getProperty("java.class.path"), jarFile.getPath() }) {
+            final List<String> matchedPaths = getMatchedClassfilePaths(classpath, 0, true);
+            assertThat(matchedPaths).isNotEmpty();
+            // Matches are processed in classpath order if ordered is true, otherwise in any order
+            assertThat(getMatchedClassfilePaths(classpath, 4, true)).isEqualTo(matchedPaths);
+            assertThat(getMatchedClassfilePaths(classpath, 4, false)).containsOnly(matchedPaths.toArray());
+        }
+
+        // Exceptions thrown by FileMatchProcessors on worker threads are thrown by scan()
+        boolean threw = false;
+        try {
+            new FastClasspathScanner(WHITELIST_PACKAGE).parallelFileMatching(2, false)
+                    .matchFilenameExtension("class", new FileMatchProcessor() {
+                        @Override
+                        public void processMatch(final String relativePath, final InputStream inputStream,
+                                final long lengthBytes) throws IOException {
+                            throw new IOException("Failed to process " + relativePath);
+                        }
+                    }).scan();
+        } catch (final RuntimeException e) {
+            threw = e.getCause() instanceof IOException;
+        }
+        assertThat(threw).isTrue();
+    }
+
+    /** Scan the given classpath, and return the contents of each txt file, read using a ByteBuffer. */
+    private static Map<String, byte[]> getFileContentsBuffers(final String classpath, final boolean memoryMapJars) {
+        final Map<String, byte[]> pathToContents = new TreeMap<>();
+        new FastClasspathScanner(WHITELIST_PACKAGE).overrideClasspath(classpath).memoryMapJars(memoryMapJars)
+                .matchFilenameExtensionAsByteBuffer("txt", new FileMatchContentsBufferProcessor() {
+                    @Override
+                    public void processMatch(final String relativePath, final ByteBuffer fileContents)
+                            throws IOException {
+                        assertThat(fileContents.isReadOnly()).isTrue();
+                        final byte[] contents = new byte[fileContents.remaining()];
+                        fileContents.get(contents);
+                        pathToContents.put(relativePath, contents);
+                    }
+                }).scan();
+        return pathToContents;
+    }
+
+    @Test
+    public void fileMatchContentsProcessorLambdaIsNotAmbiguous() throws Exception {
+        // This project is compiled as Java 7, so compile a caller that passes implicitly-typed lambdas to the
+        // byte[] file matchers at runtime, to check that no other overload accepts the same lambdas
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            // Not running on a JDK
+            return;
+        }
+        final File dir = Files.createTempDirectory("lambda").toFile();
+        try {
+            final File sourceFile = new File(dir, "LambdaCaller.java");
+            Files.write(sourceFile.toPath(), ("import " + FastClasspathScanner.class.getName() + ";\n" //
+                    + "public class LambdaCaller {\n" //
+                    + "    public static String scan() {\n" //
+                    + "        StringBuilder buf = new StringBuilder();\n" //
+                    + "        new FastClasspathScanner()\n" //
+                    + "                .matchFilenamePattern(\".*\\\\.xml\", (path, contents) -> { })\n" //
+                    + "                .matchFilenamePath(\"x/y.xml\", (path, contents) -> { })\n" //
+                    + "                .matchFilenameExtension(\"xml\", (path, contents) -> { })\n" //
+                    + "                .matchFilenamePathLeaf(\"file-content-test.txt\",\n" //
+                    + "                        (path, contents) -> buf.append(new String(contents, \"UTF-8\")))\n" //
+                    + "                .scan();\n" //
+                    + "        return buf.toString();\n" //
+                    + "    }\n" //
+                    + "}\n").getBytes("UTF-8"));
+            assertThat(compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"), "-d",
+                    dir.getPath(), sourceFile.getPath())).isEqualTo(0);
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[] { dir.toURI().toURL() },
+                    FastClasspathScannerTest.class.getClassLoader())) {
+                assertThat(classLoader.loadClass("LambdaCaller").getMethod("scan").invoke(null))
+                        .isEqualTo("File contents");
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    public void fileMatchContentsBufferProcessor() throws Exception {
+        final String packagePath = WHITELIST_PACKAGE.replace('.', '/') + "/";
+        final Map<String, byte[]> entries = new TreeMap<>();
+        entries.put(packagePath + "small.txt", "small file".getBytes("UTF-8"));
+        // Large enough to be memory-mapped
+        final byte[] largeContents = new byte[200000];
+        for (int i = 0; i < largeContents.length; i++) {
+            largeContents[i] = (byte) ('a' + i % 26);
+        }
+        entries.put(packagePath + "large.txt", largeContents);
+
+        final File classpathDir = Files.createTempDirectory("classpath").toFile();
+        try {
+            for (final Entry<String, byte[]> ent : entries.entrySet()) {
+                final File file = new File(classpathDir, ent.getKey());
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), ent.getValue());
+            }
+            checkFileContents(getFileContentsBuffers(classpathDir.getPath(), true), entries);
+        } finally {
+            deleteRecursively(classpathDir);
+        }
+        for (final boolean compress : new boolean[] { true, false }) {
+            final File jarFile = createJar(entries, compress);
+            for (final boolean memoryMapJars : new boolean[] { true, false }) {
+                checkFileContents(getFileContentsBuffers(jarFile.getPath(), memoryMapJars), entries);
+            }
+        }
+    }
+
+    private static void checkFileContents(final Map<String, byte[]> pathToContents,
+            final Map<String, byte[]> expectedPathToContents) {
+        assertThat(pathToContents.keySet()).isEqualTo(expectedPathToContents.keySet());
+        for (final Entry<String, byte[]> ent : expectedPathToContents.entrySet()) {
+            assertThat(Arrays.equals(pathToContents.get(ent.getKey()), ent.getValue())).isTrue();
+        }
+    }
+
+    @Test
+    public void parseOnlyRequiredFacts() throws Exception {
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .overrideClasspath(jarFile.getPath()).parseOnlyRequiredFacts().scan();
+        assertThat(scanner.getNamesOfSubclassesOf(Cls.class)).containsOnly(ClsSub.class.getName(),
+                ClsSubSub.class.getName());
+        assertThat(scanner.getNamesOfClassesImplementing(Iface.class)).contains(Impl1.class.getName());
+
+        final HashSet<String> classesWithFieldOfType = new HashSet<>();
+        new FastClasspathScanner(ROOT_PACKAGE).ignoreFieldVisibility().parseOnlyRequiredFacts()
+                .matchClassesWithFieldOfType(Cls.class, new ClassMatchProcessor() {
+                    @Override
+                    public void processMatch(final Class<?> klass) {
+                        classesWithFieldOfType.add(klass.getName());
+                    }
+                }).scan();
+        assertThat(classesWithFieldOfType).contains(HasFieldWithTypeCls1.class.getName(),
+                HasFieldWithTypeCls7.class.getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseOnlyRequiredFactsSkipsClassAnnotations() throws Exception {
+        new FastClasspathScanner(WHITELIST_PACKAGE).parseOnlyRequiredFacts().scan()
+                .getNamesOfClassesWithAnnotation(BlacklistedAnnotation.class.getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseOnlyRequiredFactsCheckedAgainstSettingsOfScan() throws Exception {
+        // Changing the settings after the scan doesn't change the facts that were read by the scan
+        new FastClasspathScanner(WHITELIST_PACKAGE).parseOnlyRequiredFacts().scan().parseOnlyRequiredFacts(false)
+                .getNamesOfClassesWithAnnotation(BlacklistedAnnotation.class.getName());
+    }
+
+    @Test
+    public void symbolTableInternsNamesFromBytes() throws Exception {
+        final SymbolTable symbolTable = new SymbolTable();
+        final byte[] bytes = "Lcom/xyz/Widget;".getBytes("UTF-8");
+        final String symbol = symbolTable.intern(bytes, 1, bytes.length - 2, /* replaceSlashWithDot = */ true);
+        assertThat(symbol).isEqualTo("com.xyz.Widget");
+        assertThat(symbolTable.intern(bytes, 1, bytes.length - 2, /* replaceSlashWithDot = */ true) == symbol)
+                .isTrue();
+        assertThat(symbolTable.intern(new String("com.xyz.Widget")) == symbol).isTrue();
+        assertThat(symbolTable.intern(bytes, 1, bytes.length - 2, /* replaceSlashWithDot = */ false))
+                .isEqualTo("com/xyz/Widget");
+        // Non-ASCII names have to be decoded by the caller
+        final byte[] nonAsciiBytes = "com/xyz/W\u00efdget".getBytes("UTF-8");
+        assertThat(symbolTable.intern(nonAsciiBytes, 0, nonAsciiBytes.length, true)).isNull();
+        // Force the table to be resized
+        for (int i = 0; i < 10000; i++) {
+            symbolTable.intern("com.xyz.Widget" + i);
+        }
+        assertThat(symbolTable.size()).isEqualTo(10002);
+        assertThat(symbolTable.intern(bytes, 1, bytes.length - 2, /* replaceSlashWithDot = */ true) == symbol)
+                .isTrue();
+    }
+
+    /** Summarize the parser output for a classfile, so that the output of different parser calls can be compared. */
+    private static String summarize(final ClassInfoUnlinked c) {
+        return c == null ? "null"
+                : c.className + " " + c.isInterface + " " + c.isAnnotation + " " + c.superclassName + " "
+                        + c.implementedInterfaces + " " + c.annotations + " "
+                        + (c.fieldTypes == null ? null : new TreeSet<>(c.fieldTypes));
+    }
+
+    @Test
+    public void parseClassfileFromByteBuffer() throws Exception {
+        final ScanSpec scanSpec = new ScanSpec(new String[] { ROOT_PACKAGE });
+        scanSpec.ignoreFieldVisibility = true;
+        final ClassfileBinaryParser parser = new ClassfileBinaryParser(scanSpec, new DeferredLog());
+        final Map<String, HashSet<String>> noStaticFinalFieldsToMatch = Collections.emptyMap();
+        final SymbolTable symbolTable = new SymbolTable();
+        int numClassfiles = 0;
+        for (final Entry<String, byte[]> ent : getWhitelistedPackageEntries().entrySet()) {
+            final String relativePath = ent.getKey();
+            if (!relativePath.endsWith(".class")) {
+                continue;
+            }
+            final byte[] classfileBytes = ent.getValue();
+            final String expected = summarize(parser.readClassInfoFromClassfileHeader(
+                    new ByteArrayInputStream(classfileBytes), relativePath, noStaticFinalFieldsToMatch,
+                    symbolTable));
+            assertThat(expected).isNotEqualTo("null");
+            // Heap buffer
+            assertThat(summarize(parser.readClassInfoFromClassfileHeader(ByteBuffer.wrap(classfileBytes),
+                    relativePath, noStaticFinalFieldsToMatch, symbolTable))).isEqualTo(expected);
+            // Heap buffer with an array offset
+            final byte[] paddedBytes = new byte[classfileBytes.length + 7];
+            System.arraycopy(classfileBytes, 0, paddedBytes, 5, classfileBytes.length);
+            final ByteBuffer paddedBuffer = ByteBuffer.wrap(paddedBytes);
+            paddedBuffer.position(3);
+            final ByteBuffer slice = paddedBuffer.slice();
+            slice.position(2);
+            slice.limit(2 + classfileBytes.length);
+            assertThat(summarize(parser.readClassInfoFromClassfileHeader(slice, relativePath,
+                    noStaticFinalFieldsToMatch, symbolTable))).isEqualTo(expected);
+            // Direct buffer
+            final ByteBuffer directBuffer = ByteBuffer.allocateDirect(classfileBytes.length);
+            directBuffer.put(classfileBytes);
+            directBuffer.flip();
+            assertThat(summarize(parser.readClassInfoFromClassfileHeader(directBuffer, relativePath,
+                    noStaticFinalFieldsToMatch, symbolTable))).isEqualTo(expected);
+            // Truncated classfile
+            assertThat(parser.readClassInfoFromClassfileHeader(ByteBuffer.wrap(classfileBytes, 0, 20),
+                    relativePath, noStaticFinalFieldsToMatch, symbolTable)).isNull();
+            numClassfiles++;
+        }
+        assertThat(numClassfiles).isGreaterThan(0);
+    }
+
+    @Test
+    public void methodAnnotations() throws Exception {
+        final List<String> matchingClassNames = new ArrayList<>();
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .matchClassesWithMethodAnnotation(ExternalAnnotation.class, new ClassAnnotationMatchProcessor() {
+                    @Override
+                    public void processMatch(final Class<?> matchingClass) {
+                        matchingClassNames.add(matchingClass.getName());
+                    }
+                }).scan();
+        assertThat(matchingClassNames).containsOnly(HasAnnotatedMethods.class.getName());
+        assertThat(scanner.getNamesOfClassesWithMethodAnnotation(ExternalAnnotation.class))
+                .containsOnly(HasAnnotatedMethods.class.getName());
+        final List<MethodInfo> methods = scanner.getMethodsWithAnnotation(ExternalAnnotation.class);
+        assertThat(methods.toString()).isEqualTo("[" + HasAnnotatedMethods.class.getName()
+                + ".annotatedMethod(Ljava/lang/String;)V, " + HasAnnotatedMethods.class.getName()
+                + ".annotatedStaticMethod()V, " + HasAnnotatedMethods.class.getName() + ".metaAnnotatedMethod()V]");
+        assertThat(methods.get(0).modifiers).isEqualTo(Modifier.PUBLIC);
+        assertThat(methods.get(1).modifiers).isEqualTo(Modifier.PRIVATE | Modifier.STATIC);
+        // java.lang.Deprecated is blacklisted
+        assertThat(methods.get(1).annotationNames).containsOnly(ExternalAnnotation.class.getName());
+    }
+
+    @Test
+    public void methodAnnotationsWithParseOnlyRequiredFacts() throws Exception {
+        assertThat(new FastClasspathScanner(WHITELIST_PACKAGE).parseOnlyRequiredFacts().enableMethodInfo().scan()
+                .getNamesOfClassesWithMethodAnnotation(ExternalAnnotation.class))
+                        .containsOnly(HasAnnotatedMethods.class.getName());
+    }
+
+    @Test
+    public void metaAnnotatedMethodAnnotationsWithParseOnlyRequiredFacts() throws Exception {
+        // Class annotations have to be read to find the annotations that are meta-annotated
+        final List<MethodInfo> methods = new FastClasspathScanner(WHITELIST_PACKAGE).parseOnlyRequiredFacts()
+                .enableMethodInfo().scan().getMethodsWithAnnotation(ExternalAnnotation.class);
+        assertThat(methods.toString()).contains(HasAnnotatedMethods.class.getName() + ".metaAnnotatedMethod()V");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void methodAnnotationsRequireMethodInfo() throws Exception {
+        new FastClasspathScanner(WHITELIST_PACKAGE).scan().getMethodsWithAnnotation(ExternalAnnotation.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void methodInfoCheckedAgainstSettingsOfScan() throws Exception {
+        new FastClasspathScanner(WHITELIST_PACKAGE).scan().enableMethodInfo()
+                .getMethodsWithAnnotation(ExternalAnnotation.class);
+    }
+
+    @Test
+    public void fieldAnnotations() throws Exception {
+        final List<String> matchingClassNames = new ArrayList<>();
+        final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                .matchClassesWithFieldAnnotation(ExternalAnnotation.class, new ClassAnnotationMatchProcessor() {
+                    @Override
+                    public void processMatch(final Class<?> matchingClass) {
+                        matchingClassNames.add(matchingClass.getName());
+                    }
+                }).scan();
+        assertThat(matchingClassNames).containsOnly(HasAnnotatedFields.class.getName());
+        assertThat(scanner.getNamesOfClassesWithFieldAnnotation(ExternalAnnotation.class))
+                .containsOnly(HasAnnotatedFields.class.getName());
+        // Fields are indexed whatever their visibility
+        final List<FieldInfo> fields = scanner.getFieldsWithAnnotation(ExternalAnnotation.class);
+        assertThat(fields.toString()).isEqualTo("[" + HasAnnotatedFields.class.getName()
+                + ".annotatedField:Ljava/lang/String;, " + HasAnnotatedFields.class.getName()
+                + ".annotatedStaticField:Ljava/lang/Integer;, " + HasAnnotatedFields.class.getName()
+                + ".metaAnnotatedField:I]");
+        assertThat(fields.get(0).modifiers).isEqualTo(Modifier.PRIVATE);
+        assertThat(fields.get(1).modifiers).isEqualTo(Modifier.PROTECTED | Modifier.STATIC);
+        // java.lang.Deprecated is blacklisted
+        assertThat(fields.get(1).annotationNames).containsOnly(ExternalAnnotation.class.getName());
+    }
+
+    @Test
+    public void metaAnnotatedFieldAnnotationsWithParseOnlyRequiredFacts() throws Exception {
+        // Class annotations have to be read to find the annotations that are meta-annotated
+        final List<FieldInfo> fields = new FastClasspathScanner(WHITELIST_PACKAGE).parseOnlyRequiredFacts()
+                .enableFieldInfo().scan().getFieldsWithAnnotation(ExternalAnnotation.class);
+        assertThat(fields.toString()).contains(HasAnnotatedFields.class.getName() + ".metaAnnotatedField:I");
+    }
+
+    /** Check the annotation parameter values of HasAnnotationParams. */
+    private static void checkAnnotationParamValues(final FastClasspathScanner scanner) {
+        final List<AnnotationInfo> annotations = scanner.getAnnotationInfoOnClass(HasAnnotationParams.class);
+        assertThat(annotations.size()).isEqualTo(1);
+        final AnnotationInfo annotation = annotations.get(0);
+        assertThat(annotation.annotationName).isEqualTo(ExternalAnnotationWithParams.class.getName());
+        assertThat(annotation.getParamValue("value")).isEqualTo("/x");
+        assertThat(annotation.getParamValue("intValue")).isEqualTo(3);
+        assertThat(annotation.getParamValue("longValue")).isEqualTo(4L);
+        assertThat(annotation.getParamValue("charValue")).isEqualTo('c');
+        assertThat(annotation.getParamValue("booleanValue")).isEqualTo(true);
+        assertThat(annotation.getParamValue("enumValue"))
+                .isEqualTo(new AnnotationInfo.EnumValue(ElementType.class.getName(), "METHOD"));
+        assertThat(((AnnotationInfo.ClassRef) annotation.getParamValue("classValue")).getClassName())
+                .isEqualTo(String.class.getName());
+        assertThat(Arrays.asList((Object[]) annotation.getParamValue("arrayValue"))).containsOnly("a", "b");
+        assertThat(((AnnotationInfo) annotation.getParamValue("nestedValue")).annotationName)
+                .isEqualTo(ExternalAnnotation.class.getName());
+        assertThat(new ArrayList<>(annotation.getParamValues().keySet())).isEqualTo(Arrays.asList("value",
+                "intValue", "longValue", "charValue", "booleanValue", "enumValue", "classValue", "arrayValue",
+                "nestedValue"));
+        // Default values are not stored in the classfile of the annotated class
+        final AnnotationInfo methodAnnotation = scanner.getMethodsWithAnnotation(ExternalAnnotationWithParams.class)
+                .get(0).annotationInfo.get(0);
+        assertThat(methodAnnotation.getParamValue("value")).isEqualTo("/y");
+        assertThat(methodAnnotation.getParamValue("intValue")).isNull();
+    }
+
+    @Test
+    public void annotationParamValues() throws Exception {
+        checkAnnotationParamValues(
+                new FastClasspathScanner(WHITELIST_PACKAGE).enableMethodInfo().enableAnnotationInfo().scan());
+        // Annotation info is also stored in the scan cache
+        final File jarFile = createJarOfWhitelistedPackage(/* compress = */ true);
+        final File scanCacheDir = Files.createTempDirectory("scancache").toFile();
+        try {
+            for (int i = 0; i < 2; i++) {
+                final FastClasspathScanner scanner = new FastClasspathScanner(WHITELIST_PACKAGE)
+                        .overrideClasspath(jarFile.getPath()).scanCacheDir(scanCacheDir).enableMethodInfo()
+                        .enableAnnotationInfo().scan();
+                assertThat(scanner.getNumScanCacheHits()).isEqualTo(i);
+                checkAnnotationParamValues(scanner);
+            }
+        } finally {
+            deleteRecursively(scanCacheDir);
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package io.github.lukehutch.fastclasspathscanner.test.external;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ExternalAnnotationWithParams {
+    String value();
+
+    int intValue() default 0;
+
+    long longValue() default 0L;
+
+    char charValue() default ' ';
+
+    boolean booleanValue() default false;
+
+    ElementType enumValue() default ElementType.TYPE;
+
+    Class<?> classValue() default Object.class;
+
+    String[] arrayValue() default {};
+
+    ExternalAnnotation nestedValue() default @ExternalAnnotation;
+}
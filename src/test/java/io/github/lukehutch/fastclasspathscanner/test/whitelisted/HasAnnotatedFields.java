@@ -0,0 +1,17 @@
+package io.github.lukehutch.fastclasspathscanner.test.whitelisted;
+
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotation;
+
+public class HasAnnotatedFields {
+    @ExternalAnnotation
+    private String annotatedField;
+
+    public int unannotatedField;
+
+    @MetaAnnotatedAnnotation
+    public int metaAnnotatedField;
+
+    @ExternalAnnotation
+    @Deprecated
+    protected static Integer annotatedStaticField;
+}
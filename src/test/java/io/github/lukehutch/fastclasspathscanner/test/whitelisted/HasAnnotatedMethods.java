@@ -0,0 +1,22 @@
+package io.github.lukehutch.fastclasspathscanner.test.whitelisted;
+
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotation;
+
+public class HasAnnotatedMethods {
+    @ExternalAnnotation
+    public void annotatedMethod(final String param) {
+    }
+
+    public int unannotatedMethod() {
+        return 0;
+    }
+
+    @MetaAnnotatedAnnotation
+    public void metaAnnotatedMethod() {
+    }
+
+    @ExternalAnnotation
+    @Deprecated
+    private static void annotatedStaticMethod() {
+    }
+}
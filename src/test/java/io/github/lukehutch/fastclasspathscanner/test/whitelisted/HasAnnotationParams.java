@@ -0,0 +1,15 @@
+package io.github.lukehutch.fastclasspathscanner.test.whitelisted;
+
+import java.lang.annotation.ElementType;
+
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotation;
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotationWithParams;
+
+@ExternalAnnotationWithParams(value = "/x", intValue = 3, longValue = 4L, charValue = 'c', booleanValue = true,
+        enumValue = ElementType.METHOD, classValue = String.class, arrayValue = { "a", "b" },
+        nestedValue = @ExternalAnnotation)
+public class HasAnnotationParams {
+    @ExternalAnnotationWithParams("/y")
+    public void annotatedMethod() {
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.lukehutch.fastclasspathscanner.test.whitelisted;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import io.github.lukehutch.fastclasspathscanner.test.external.ExternalAnnotation;
+
+@ExternalAnnotation
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MetaAnnotatedAnnotation {
+}